@@ -0,0 +1,297 @@
+package io.github.eagle38394516;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The rules ending engine games before a five or a full board, so self-play
+ * and matches spend less time on games already decided.
+ *
+ * <pre>
+ * vcf[=F]           The side to move has a VCF of at most F fours (15 if not
+ *                    given, as Chess looks for): it wins.
+ * resign=S/N         The pattern score is at least S for the same side for N
+ *                    plies in a row: that side wins.
+ * draw=P/N           After P plies, N plies in a row without a four or an open
+ *                    three of either side: a draw.
+ * </pre>
+ *
+ * The rules are written as a comma-separated list of the above, or "off".
+ * The VCF rule only ends games the side to move has proven won, but engines
+ * which don't look for VCFs may miss the long ones and lose them, so for such
+ * engines F keeps it to the VCFs they play anyway. The VCF is only searched
+ * if the side to move has a three or a four, since it costs more than a move
+ * of the tuple scores.
+ */
+public final class Adjudication {
+
+	/**
+	 * The game wasn't adjudicated.
+	 */
+	public static final int NONE = 0;
+
+	/**
+	 * The side to move had a VCF.
+	 */
+	public static final int VCF = 1;
+
+	/**
+	 * A side kept the resign score.
+	 */
+	public static final int RESIGN = 2;
+
+	/**
+	 * There was no threat for long.
+	 */
+	public static final int DRAW = 3;
+
+	/**
+	 * No adjudication.
+	 */
+	public static final Adjudication OFF = new Adjudication(0, 0, 0, 0, 0);
+
+	private final int vcfFours;
+	private final int resignScore;
+	private final int resignPlies;
+	private final int drawPly;
+	private final int drawPlies;
+
+	/**
+	 * @param vcfFours
+	 *            The largest number of fours of a VCF of the side to move
+	 *            ending the game, 0 for none.
+	 * @param resignScore
+	 *            The pattern score of the winning side, see
+	 *            <code>PatternEvaluator.score</code>.
+	 * @param resignPlies
+	 *            The plies in a row the score is kept, 0 for no resigning.
+	 * @param drawPly
+	 *            The first ply the game may be drawn at.
+	 * @param drawPlies
+	 *            The plies in a row without threats, 0 for no draws.
+	 */
+	public Adjudication(int vcfFours, int resignScore, int resignPlies, int drawPly, int drawPlies) {
+		if (vcfFours < 0 || resignPlies < 0 || drawPly < 0 || drawPlies < 0 || resignPlies > 0 && resignScore <= 0) {
+			throw new IllegalArgumentException("Invalid adjudication");
+		}
+		this.vcfFours = vcfFours;
+		this.resignScore = resignScore;
+		this.resignPlies = resignPlies;
+		this.drawPly = drawPly;
+		this.drawPlies = drawPlies;
+	}
+
+	/**
+	 * Parse the rules, e.g. "vcf=3,resign=1000000/4,draw=80/30" or "off".
+	 *
+	 * @throws IllegalArgumentException
+	 *             If a rule is invalid.
+	 */
+	public static Adjudication parse(String spec) {
+		if (spec.equals("off")) {
+			return OFF;
+		}
+		int vcfFours = 0, resignScore = 0, resignPlies = 0, drawPly = 0, drawPlies = 0;
+		for (String rule : spec.split(",")) {
+			if (rule.equals("vcf")) {
+				vcfFours = MoveChoice.VCF_MAX_FOURS;
+			} else if (rule.startsWith("vcf=")) {
+				vcfFours = Integer.parseInt(rule.substring("vcf=".length()));
+			} else if (rule.startsWith("resign=")) {
+				int[] values = parsePair(rule.substring("resign=".length()));
+				resignScore = values[0];
+				resignPlies = values[1];
+			} else if (rule.startsWith("draw=")) {
+				int[] values = parsePair(rule.substring("draw=".length()));
+				drawPly = values[0];
+				drawPlies = values[1];
+			} else {
+				throw new IllegalArgumentException("Unknown adjudication rule - " + rule);
+			}
+		}
+		return new Adjudication(vcfFours, resignScore, resignPlies, drawPly, drawPlies);
+	}
+
+	private static int[] parsePair(String pair) {
+		String[] values = pair.split("/");
+		if (values.length != 2) {
+			throw new IllegalArgumentException("Invalid adjudication rule - " + pair);
+		}
+		return new int[] { Integer.parseInt(values[0]), Integer.parseInt(values[1]) };
+	}
+
+	public boolean isOff() {
+		return vcfFours == 0 && resignPlies == 0 && drawPlies == 0;
+	}
+
+	/**
+	 * Return the name of an adjudication reason.
+	 */
+	public static String reasonName(int reason) {
+		switch (reason) {
+			case NONE:
+				return "none";
+			case VCF:
+				return "vcf";
+			case RESIGN:
+				return "resign";
+			case DRAW:
+				return "draw";
+			default:
+				throw new IllegalArgumentException("Invalid adjudication reason - " + reason);
+		}
+	}
+
+	/**
+	 * Create a judge for one game.
+	 */
+	public Judge newJudge(boolean usingAdvancedRules) {
+		return new Judge(usingAdvancedRules);
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeInt(vcfFours);
+		out.writeInt(resignScore);
+		out.writeInt(resignPlies);
+		out.writeInt(drawPly);
+		out.writeInt(drawPlies);
+	}
+
+	static Adjudication read(DataInput in) throws IOException {
+		return new Adjudication(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+	}
+
+	@Override
+	public String toString() {
+		if (isOff()) {
+			return "off";
+		}
+		StringBuilder sb = new StringBuilder();
+		if (vcfFours > 0) {
+			sb.append(",vcf=").append(vcfFours);
+		}
+		if (resignPlies > 0) {
+			sb.append(",resign=").append(resignScore).append('/').append(resignPlies);
+		}
+		if (drawPlies > 0) {
+			sb.append(",draw=").append(drawPly).append('/').append(drawPlies);
+		}
+		return sb.substring(1);
+	}
+
+	/**
+	 * Applies the rules to the positions of one game, in order. It isn't
+	 * thread safe.
+	 */
+	public final class Judge {
+
+		private final boolean usingAdvancedRules;
+		private final PatternEvaluator patterns = new PatternEvaluator();
+		private VcfSolver vcfSolver = null;
+		private int leader = -1;
+		private int leadingPlies = 0;
+		private int quietPlies = 0;
+		private int reason = NONE;
+		private int result = 0;
+
+		private Judge(boolean usingAdvancedRules) {
+			this.usingAdvancedRules = usingAdvancedRules;
+		}
+
+		/**
+		 * Look at the position before the side to move plays.
+		 *
+		 * @param ply
+		 *            The number of pieces on the board.
+		 * @return Whether the game is adjudicated, see
+		 *         <code>getReason</code> and <code>getResult</code>.
+		 */
+		public boolean adjudicate(BitBoard board, int color, int ply) {
+			if (vcfFours > 0 && hasThreat(board, color) && hasVcf(board, color)) {
+				return end(VCF, color == BitBoard.BLACK ? 1 : -1);
+			}
+			if (resignPlies > 0) {
+				int score = patterns.score(board, color);
+				int side = score >= resignScore ? color : score <= -resignScore ? 1 - color : -1;
+				leadingPlies = side >= 0 && side == leader ? leadingPlies + 1 : side >= 0 ? 1 : 0;
+				leader = side;
+				if (leadingPlies >= resignPlies) {
+					return end(RESIGN, side == BitBoard.BLACK ? 1 : -1);
+				}
+			}
+			if (drawPlies > 0) {
+				quietPlies = isQuiet(board) ? quietPlies + 1 : 0;
+				if (ply >= drawPly && quietPlies >= drawPlies) {
+					return end(DRAW, 0);
+				}
+			}
+			return false;
+		}
+
+		private boolean end(int reason, int result) {
+			this.reason = reason;
+			this.result = result;
+			return true;
+		}
+
+		/**
+		 * Return whether the side has a three or a four, so it may have a
+		 * VCF.
+		 */
+		private boolean hasThreat(BitBoard board, int color) {
+			return patterns.count(board, color, PatternEvaluator.OPEN_FOUR) > 0
+					|| patterns.count(board, color, PatternEvaluator.FOUR) > 0
+					|| patterns.count(board, color, PatternEvaluator.OPEN_THREE) > 0
+					|| patterns.count(board, color, PatternEvaluator.THREE) > 0;
+		}
+
+		private boolean hasVcf(BitBoard board, int color) {
+			ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+			ArrayList<PiecePosition> whitePos = new ArrayList<PiecePosition>();
+			for (int index = 0; index < Cells.COUNT; index++) {
+				if (board.has(BitBoard.BLACK, index)) {
+					blackPos.add(PiecePosition.get(index));
+				} else if (board.has(BitBoard.WHITE, index)) {
+					whitePos.add(PiecePosition.get(index));
+				}
+			}
+			if (vcfSolver == null) {
+				vcfSolver = new VcfSolver();
+			}
+			return vcfSolver.solve(blackPos, whitePos, color == BitBoard.BLACK, usingAdvancedRules, vcfFours,
+					MoveChoice.VCF_NODE_LIMIT) != null;
+		}
+
+		/**
+		 * Return whether neither side has a four or an open three.
+		 */
+		private boolean isQuiet(BitBoard board) {
+			for (int side = BitBoard.BLACK; side <= BitBoard.WHITE; side++) {
+				if (patterns.count(board, side, PatternEvaluator.OPEN_FOUR) > 0
+						|| patterns.count(board, side, PatternEvaluator.FOUR) > 0
+						|| patterns.count(board, side, PatternEvaluator.OPEN_THREE) > 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Return one of <code>NONE</code>, <code>VCF</code>,
+		 * <code>RESIGN</code> and <code>DRAW</code>.
+		 */
+		public int getReason() {
+			return reason;
+		}
+
+		/**
+		 * Return 1 if black wins, -1 if white wins and 0 for tie, once
+		 * adjudicated.
+		 */
+		public int getResult() {
+			return result;
+		}
+	}
+}
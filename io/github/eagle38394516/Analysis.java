@@ -0,0 +1,274 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Multi-PV analysis of a position. Runs an iterative deepening alpha-beta
+ * search in a background thread and reports the best K moves with their
+ * scores and principal variations to the listeners after every iteration.
+ *
+ * The search only considers the moves with the highest tuple scores at each
+ * node, and evaluates the leaves with <code>Evaluator.score</code>. Under the
+ * advanced rules the forbidden positions of black are excluded at every
+ * node: at the root the given ones, below it the ones found by
+ * <code>CheckForbids</code>.
+ *
+ * Cancelling stops the search at the next node. A checkpoint can be called
+ * every so many nodes, e.g. to share the cores with other searches.
+ */
+public final class Analysis implements Runnable {
+
+	/**
+	 * The number of moves searched at each node below the root.
+	 */
+	private static final int WIDTH = 10;
+
+	private final BitBoard board;
+	private final int color;
+	private final boolean exactFive;
+	private final ArrayList<PiecePosition> forbids;
+	private final Evaluator evaluator;
+	private final int multiPv;
+	private final int maxDepth;
+	private final List<AnalysisListener> listeners = new ArrayList<AnalysisListener>();
+
+	/**
+	 * The moves searched at each ply, reused so the search allocates
+	 * nothing.
+	 */
+	private final int[][] moves;
+
+	private volatile boolean cancelled = false;
+	private long nodes = 0;
+	private Runnable checkpoint = null;
+	private long checkpointInterval = 0;
+	private long nextCheckpoint = Long.MAX_VALUE;
+
+	/**
+	 * Create an analysis of the current position of the board.
+	 *
+	 * @param multiPv
+	 *            The number of best moves to report.
+	 * @param maxDepth
+	 *            The depth of the last iteration.
+	 */
+	public Analysis(Chess chess, int multiPv, int maxDepth) {
+		this(chess, new TupleEvaluator(chess.getRatingWeights()), multiPv, maxDepth);
+	}
+
+	/**
+	 * Create an analysis of the current position of the board, scored by the
+	 * given evaluator.
+	 *
+	 * @param evaluator
+	 *            An evaluator only used by this analysis, as the search runs
+	 *            in its own thread.
+	 */
+	public Analysis(Chess chess, Evaluator evaluator, int multiPv, int maxDepth) {
+		this(chess.getBitBoard(), chess.getWhosTurn() ? BitBoard.BLACK : BitBoard.WHITE,
+				chess.isUsingAdvancedRules(), chess.isUsingAdvancedRules() && chess.getWhosTurn() ?
+						chess.breakingRulesPos : new ArrayList<PiecePosition>(), evaluator, multiPv, maxDepth);
+	}
+
+	/**
+	 * Create an analysis of a board without a game.
+	 *
+	 * @param color
+	 *            The color of the side to move.
+	 * @param forbids
+	 *            The forbidden positions of the side to move, excluded at the
+	 *            root.
+	 */
+	public Analysis(BitBoard board, int color, boolean usingAdvancedRules, List<PiecePosition> forbids,
+			Evaluator evaluator, int multiPv, int maxDepth) {
+		this.board = new BitBoard(board);
+		this.color = color;
+		this.exactFive = usingAdvancedRules;
+		this.forbids = new ArrayList<PiecePosition>(forbids);
+		this.evaluator = evaluator;
+		this.multiPv = multiPv;
+		this.maxDepth = maxDepth;
+		this.moves = new int[maxDepth + 1][WIDTH];
+	}
+
+	public void addListener(AnalysisListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Call the checkpoint on the thread of the analysis every so many nodes.
+	 * It may block to pause the search, or cancel it.
+	 *
+	 * @param interval
+	 *            The number of nodes between the calls.
+	 */
+	public void setCheckpoint(long interval, Runnable checkpoint) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Invalid checkpoint interval - " + interval);
+		}
+		this.checkpoint = checkpoint;
+		this.checkpointInterval = interval;
+		this.nextCheckpoint = nodes + interval;
+	}
+
+	/**
+	 * Start the analysis in a new daemon thread.
+	 */
+	public Analysis start() {
+		Thread thread = new Thread(this, "Analysis");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Stop the analysis. No more iterations are started or reported, and the
+	 * listeners get <code>analysisStopped</code> soon after.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Return the number of nodes searched so far.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public void run() {
+		int[] roots = evaluator.candidates(board, color, Math.max(multiPv, WIDTH) + forbids.size());
+		ArrayList<Integer> rootMoves = new ArrayList<Integer>();
+		for (int i = 0; i < roots.length && rootMoves.size() < Math.max(multiPv, WIDTH); i++) {
+			if (!forbids.contains(PiecePosition.get(roots[i]))) {
+				rootMoves.add(roots[i]);
+			}
+		}
+
+		int[][] pv = new int[maxDepth + 1][maxDepth + 1];
+		int[] pvLength = new int[maxDepth + 1];
+		for (int depth = 1; depth <= maxDepth && !cancelled; depth++) {
+			ArrayList<AnalysisLine> lines = new ArrayList<AnalysisLine>();
+			for (int i = 0; i < rootMoves.size() && !cancelled; i++) {
+				int move = rootMoves.get(i);
+				int score;
+				board.set(color, move);
+				pvLength[1] = 1;
+				if (board.checkFive(color, move, exactFive && color == BitBoard.BLACK) >= 0) {
+					score = AnalysisLine.WIN - 1;
+				} else {
+					score = -search(1 - color, depth - 1, -AnalysisLine.WIN, AnalysisLine.WIN, 1, pv, pvLength);
+				}
+				board.clear(color, move);
+
+				List<PiecePosition> line = new ArrayList<PiecePosition>();
+				line.add(PiecePosition.get(move));
+				for (int ply = 1; ply < pvLength[1]; ply++) {
+					line.add(PiecePosition.get(pv[1][ply]));
+				}
+				lines.add(new AnalysisLine(PiecePosition.get(move), score, line));
+			}
+			if (cancelled) {
+				break;
+			}
+
+			// Sort the root moves by score, so the next iteration searches the
+			// best ones first.
+			Collections.sort(lines, (a, b) -> Integer.compare(b.getScore(), a.getScore()));
+			rootMoves.clear();
+			for (AnalysisLine line : lines) {
+				rootMoves.add(line.getMove().getIndex());
+			}
+			List<AnalysisLine> best = Collections.unmodifiableList(
+					new ArrayList<AnalysisLine>(lines.subList(0, Math.min(multiPv, lines.size()))));
+			for (AnalysisListener listener : listeners) {
+				listener.iterationFinished(depth, nodes, best);
+			}
+			// Stop once the result is proven.
+			if (best.isEmpty() || best.get(0).isWin() || best.get(0).isLoss()) {
+				break;
+			}
+		}
+		for (AnalysisListener listener : listeners) {
+			listener.analysisStopped(cancelled);
+		}
+	}
+
+	/**
+	 * Negamax alpha-beta search.
+	 *
+	 * @param pv
+	 *            pv[ply] receives the principal variation from the ply.
+	 */
+	private int search(int side, int depth, int alpha, int beta, int ply, int[][] pv, int[] pvLength) {
+		nodes++;
+		pvLength[ply] = ply;
+		if (nodes >= nextCheckpoint) {
+			nextCheckpoint = nodes + checkpointInterval;
+			checkpoint.run();
+		}
+		if (cancelled) {
+			return 0;
+		}
+		if (depth == 0) {
+			int score = evaluator.score(board, side);
+			return Math.max(-AnalysisLine.WIN / 2, Math.min(AnalysisLine.WIN / 2, score));
+		}
+		int[] moves = this.moves[ply];
+		int count = evaluator.candidates(board, side, moves);
+		if (count == 0) {
+			// The board is full.
+			return 0;
+		}
+		int best = -AnalysisLine.WIN;
+		boolean searched = false;
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			int score;
+			board.set(side, move);
+			if (board.checkFive(side, move, exactFive && side == BitBoard.BLACK) >= 0) {
+				score = AnalysisLine.WIN - ply - 1;
+				pvLength[ply + 1] = ply + 1;
+			} else if (exactFive && side == BitBoard.BLACK
+					&& CheckForbids.checkForbids(move, board) != CheckForbids.NO_FORBIDDEN) {
+				// Black can't play there.
+				board.clear(side, move);
+				continue;
+			} else {
+				score = -search(1 - side, depth - 1, -beta, -alpha, ply + 1, pv, pvLength);
+			}
+			board.clear(side, move);
+			searched = true;
+			if (cancelled) {
+				return 0;
+			}
+			if (score > best) {
+				best = score;
+				pv[ply][ply] = move;
+				System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+				pvLength[ply] = pvLength[ply + 1];
+			}
+			if (best > alpha) {
+				alpha = best;
+			}
+			if (alpha >= beta) {
+				break;
+			}
+		}
+		if (!searched && !cancelled) {
+			// Every candidate is forbidden, which doesn't lose: the other
+			// moves are just not searched.
+			pvLength[ply] = ply;
+			int score = evaluator.score(board, side);
+			return Math.max(-AnalysisLine.WIN / 2, Math.min(AnalysisLine.WIN / 2, score));
+		}
+		return best;
+	}
+}
@@ -0,0 +1,59 @@
+package io.github.eagle38394516;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One of the best moves found by an <code>Analysis</code>, with its search
+ * score and principal variation.
+ */
+public final class AnalysisLine {
+
+	/**
+	 * The score of a win. Scores above <code>WIN - 1000</code> are wins, and
+	 * the difference tells in how many moves.
+	 */
+	public static final int WIN = 1000000000;
+
+	private final PiecePosition move;
+	private final int score;
+	private final List<PiecePosition> pv;
+
+	AnalysisLine(PiecePosition move, int score, List<PiecePosition> pv) {
+		this.move = move;
+		this.score = score;
+		this.pv = Collections.unmodifiableList(pv);
+	}
+
+	public PiecePosition getMove() {
+		return move;
+	}
+
+	/**
+	 * Return the score for the side to move.
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Return the principal variation, starting with the move itself.
+	 */
+	public List<PiecePosition> getPv() {
+		return pv;
+	}
+
+	/**
+	 * Return whether the move is a proven win.
+	 */
+	public boolean isWin() {
+		return score > WIN - 1000;
+	}
+
+	/**
+	 * Return whether the move is a proven loss.
+	 */
+	public boolean isLoss() {
+		return score < -WIN + 1000;
+	}
+}
@@ -0,0 +1,94 @@
+package io.github.eagle38394516;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Writes the results of an <code>Analysis</code> as text lines, one per
+ * reported move:
+ *
+ * <pre>
+ * info depth 3 nodes 1234 multipv 1 score 5600 pv H8 I9 G7
+ * </pre>
+ *
+ * Proven results are written as "score win N" or "score loss N", N being the
+ * number of plies. The analysis ends with "done" or "cancelled".
+ */
+public final class AnalysisLineWriter implements AnalysisListener {
+
+	private final PrintStream out;
+
+	public AnalysisLineWriter(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void iterationFinished(int depth, long nodes, List<AnalysisLine> lines) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines.size(); i++) {
+			AnalysisLine line = lines.get(i);
+			sb.append("info depth ").append(depth).append(" nodes ").append(nodes)
+					.append(" multipv ").append(i + 1).append(" score ");
+			if (line.isWin()) {
+				sb.append("win ").append(AnalysisLine.WIN - line.getScore());
+			} else if (line.isLoss()) {
+				sb.append("loss ").append(AnalysisLine.WIN + line.getScore());
+			} else {
+				sb.append(line.getScore());
+			}
+			sb.append(" pv");
+			for (PiecePosition pos : line.getPv()) {
+				sb.append(' ').append(pos.toNotation());
+			}
+			sb.append(System.lineSeparator());
+		}
+		out.print(sb);
+		out.flush();
+	}
+
+	@Override
+	public void analysisStopped(boolean cancelled) {
+		out.println(cancelled ? "cancelled" : "done");
+		out.flush();
+	}
+
+	/**
+	 * Analyze a position without the GUI.
+	 *
+	 * Usage: AnalysisLineWriter [-advanced] [-multipv K] [-depth D] [moves...]
+	 *
+	 * The moves are given in the board notation, black first.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Chess chess = Chess.getInstance();
+		int multiPv = 5, depth = 5;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-advanced")) {
+				chess.setUsingAdvancedRules(true);
+				first++;
+			} else if (args[first].equals("-multipv")) {
+				multiPv = Integer.parseInt(args[first + 1]);
+				first += 2;
+			} else if (args[first].equals("-depth")) {
+				depth = Integer.parseInt(args[first + 1]);
+				first += 2;
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[first]);
+			}
+		}
+		for (int i = first; i < args.length; i++) {
+			if (!chess.place(PiecePosition.parse(args[i]))) {
+				throw new IllegalArgumentException("Cannot place at " + args[i]);
+			}
+		}
+		if (chess.isGameOver()) {
+			System.out.println("gameover " + chess.getGameStatus());
+			return;
+		}
+
+		Analysis analysis = new Analysis(chess, multiPv, depth);
+		analysis.addListener(new AnalysisLineWriter(System.out));
+		analysis.run();
+	}
+}
@@ -0,0 +1,27 @@
+package io.github.eagle38394516;
+
+import java.util.List;
+
+/**
+ * Receives the results of an <code>Analysis</code> as the search goes
+ * deeper. The methods are called on the thread of the analysis.
+ */
+public interface AnalysisListener {
+
+	/**
+	 * Called after each finished iteration.
+	 *
+	 * @param depth
+	 *            The depth of the iteration in plies.
+	 * @param nodes
+	 *            The number of nodes searched so far.
+	 * @param lines
+	 *            The best moves, best first.
+	 */
+	void iterationFinished(int depth, long nodes, List<AnalysisLine> lines);
+
+	/**
+	 * Called once when the analysis stops, either finished or cancelled.
+	 */
+	void analysisStopped(boolean cancelled);
+}
@@ -0,0 +1,515 @@
+package io.github.eagle38394516;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers "best move, forbidden points and winner" for positions over HTTP
+ * on the loopback interface, so other tools don't have to drive the GUI.
+ *
+ * <pre>
+ * GET  /analyze?position=H8I9J10[&amp;rules=advanced]
+ * POST /analyze[?rules=advanced]   one position per line
+ * GET  /stats
+ * </pre>
+ *
+ * A position is the moves in the board notation, black first, written
+ * together or separated by spaces or commas. The answer is a JSON object per
+ * position, or an array of them for a POST:
+ *
+ * <pre>
+ * {"position":"H8I9J10","toMove":"white","winner":null,"bestMove":"K11","vcf":false,"forbidden":[]}
+ * </pre>
+ *
+ * The positions are queued for a fixed number of engine workers, each of
+ * which takes up to a batch of queued positions at a time and answers them
+ * with its own solver and evaluator. The workers share an
+ * <code>EngineCache</code>, so positions asked again are answered from it.
+ * When the queue is over its budget the request is refused with 503 at once
+ * instead of waiting. A request timing out cancels its positions still
+ * queued, so the workers skip them.
+ *
+ * /stats counts the HTTP requests and the positions answered apart, as a
+ * POST may carry many positions.
+ */
+public final class AnalysisServer implements Closeable {
+
+	/**
+	 * The port the server listens on by default.
+	 */
+	public static final int DEFAULT_PORT = 7396;
+
+	/**
+	 * How long a request waits for its answers, all of them together.
+	 */
+	private static final long TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * The number of latencies the percentiles are taken from.
+	 */
+	private static final int LATENCY_WINDOW = 4096;
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final Thread[] workers;
+	private final ArrayBlockingQueue<Request> queue;
+	private final int batchSize;
+	private final RatingWeights weights;
+	private final EngineCache cache = new EngineCache();
+
+	private volatile boolean closed = false;
+
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private int latencyCount = 0;
+	private long requests = 0;
+	private long positions = 0;
+	private long rejected = 0;
+	private long timeouts = 0;
+	private long batches = 0;
+
+	/**
+	 * One position waiting for an engine worker.
+	 */
+	private static final class Request {
+		final String position;
+		final boolean usingAdvancedRules;
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+
+		Request(String position, boolean usingAdvancedRules) {
+			this.position = position;
+			this.usingAdvancedRules = usingAdvancedRules;
+		}
+	}
+
+	/**
+	 * Start the server.
+	 *
+	 * @param port
+	 *            The port, or 0 for any free port.
+	 * @param workerCount
+	 *            The number of engine workers.
+	 * @param batchSize
+	 *            The largest number of positions a worker takes at a time.
+	 * @param queueBudget
+	 *            The largest number of positions waiting for the workers.
+	 */
+	public AnalysisServer(int port, int workerCount, int batchSize, int queueBudget) throws IOException {
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<Request>(queueBudget);
+		this.weights = RatingWeights.loadOrDefault();
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		// One thread per request, as the handlers only wait for the workers.
+		// The requests over the queue budget are refused at once, which bounds
+		// the number of threads.
+		this.handlers = Executors.newCachedThreadPool();
+		server.setExecutor(handlers);
+		server.createContext("/analyze", this::handleAnalyze);
+		server.createContext("/stats", this::handleStats);
+
+		workers = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Thread(this::work, "AnalysisServer worker " + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Return the number of positions waiting for the workers.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	private void handleAnalyze(HttpExchange exchange) throws IOException {
+		List<Request> queued = new ArrayList<Request>();
+		try {
+			String query = exchange.getRequestURI().getRawQuery();
+			boolean usingAdvancedRules = "advanced".equals(getParameter(query, "rules"));
+			List<String> positions = new ArrayList<String>();
+			boolean batch = exchange.getRequestMethod().equals("POST");
+			if (batch) {
+				for (String line : readBody(exchange.getRequestBody()).split("\r?\n")) {
+					if (!line.trim().isEmpty()) {
+						positions.add(line.trim());
+					}
+				}
+			} else if (exchange.getRequestMethod().equals("GET")) {
+				String position = getParameter(query, "position");
+				positions.add(position == null ? "" : position);
+			} else {
+				send(exchange, 405, error("Only GET and POST are supported"));
+				return;
+			}
+			synchronized (this) {
+				requests++;
+			}
+
+			for (String position : positions) {
+				Request request = new Request(position, usingAdvancedRules);
+				if (closed || !queue.offer(request)) {
+					synchronized (this) {
+						rejected++;
+					}
+					send(exchange, 503, error("Too many positions queued"));
+					return;
+				}
+				queued.add(request);
+			}
+
+			StringBuilder sb = new StringBuilder();
+			if (batch) {
+				sb.append('[');
+			}
+			for (int i = 0; i < queued.size(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				Request request = queued.get(i);
+				sb.append(request.result.get(request.deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+			}
+			if (batch) {
+				sb.append(']');
+			}
+			send(exchange, 200, sb.toString());
+		} catch (ExecutionException e) {
+			send(exchange, e.getCause() instanceof IllegalArgumentException ? 400 : 500,
+					error(e.getCause().getMessage()));
+		} catch (TimeoutException e) {
+			synchronized (this) {
+				timeouts++;
+			}
+			send(exchange, 503, error("Timed out"));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send(exchange, 503, error("Interrupted"));
+		} finally {
+			// The positions not answered yet are of no use any more, so the
+			// workers skip them. The answered ones aren't changed.
+			for (Request request : queued) {
+				request.result.cancel(false);
+			}
+		}
+	}
+
+	private void handleStats(HttpExchange exchange) throws IOException {
+		long[] window;
+		StringBuilder sb = new StringBuilder();
+		synchronized (this) {
+			window = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+			sb.append("{\"requests\":").append(requests)
+					.append(",\"positions\":").append(positions)
+					.append(",\"rejected\":").append(rejected)
+					.append(",\"timeouts\":").append(timeouts)
+					.append(",\"batches\":").append(batches);
+		}
+		sb.append(",\"cacheEntries\":").append(cache.size())
+				.append(",\"cacheHits\":").append(cache.getHits())
+				.append(",\"cacheMisses\":").append(cache.getMisses());
+		Arrays.sort(window);
+		sb.append(",\"queueDepth\":").append(queue.size())
+				.append(",\"queueBudget\":").append(queue.size() + queue.remainingCapacity())
+				.append(",\"p50Millis\":").append(String.format(Locale.ROOT, "%.3f", percentile(window, 50) / 1e6))
+				.append(",\"p99Millis\":").append(String.format(Locale.ROOT, "%.3f", percentile(window, 99) / 1e6))
+				.append('}');
+		send(exchange, 200, sb.toString());
+	}
+
+	/**
+	 * Return the percentile of the sorted values, or 0 if there're none.
+	 */
+	private static long percentile(long[] sorted, int percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1)];
+	}
+
+	/**
+	 * Take batches of positions from the queue and answer them, until the
+	 * server is closed.
+	 */
+	private void work() {
+		VcfSolver vcfSolver = new VcfSolver();
+		TupleEvaluator evaluator = new TupleEvaluator(weights);
+		int[][] scores = new int[Chess.BOARD_SIZE][Chess.BOARD_SIZE];
+		List<Request> batch = new ArrayList<Request>(batchSize);
+		while (!closed) {
+			try {
+				Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, batchSize - 1);
+			int answered = 0;
+			for (Request request : batch) {
+				if (request.result.isDone()) {
+					// Cancelled as its request was refused or timed out.
+					continue;
+				}
+				try {
+					// Nobody waits for the answer after the timeout.
+					request.result.complete(analyze(request.position, request.usingAdvancedRules,
+							vcfSolver, evaluator, scores, cache, request.deadline));
+				} catch (RuntimeException e) {
+					request.result.completeExceptionally(e);
+				}
+				batch.set(answered++, request);
+			}
+			long now = System.nanoTime();
+			synchronized (this) {
+				for (int i = 0; i < answered; i++) {
+					latencies[latencyCount++ % LATENCY_WINDOW] = now - batch.get(i).start;
+				}
+				positions += answered;
+				batches++;
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Answer one position as a JSON object.
+	 *
+	 * @param deadline
+	 *            The <code>System.nanoTime</code> the VCF search stops at.
+	 *            The move is then chosen by the scores, and not cached.
+	 * @throws IllegalArgumentException
+	 *             If the position is invalid.
+	 */
+	static String analyze(String position, boolean usingAdvancedRules, VcfSolver vcfSolver,
+			TupleEvaluator evaluator, int[][] scores, EngineCache cache, long deadline) {
+		List<PiecePosition> moves = parsePosition(position);
+		ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+		ArrayList<PiecePosition> whitePos = new ArrayList<PiecePosition>();
+		BitBoard board = new BitBoard();
+		String winner = null;
+		for (int i = 0; i < moves.size(); i++) {
+			PiecePosition pos = moves.get(i);
+			int color = i % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE;
+			if (winner != null) {
+				throw new IllegalArgumentException("Move after the end of the game - " + pos.toNotation());
+			}
+			if (!board.isEmpty(pos.getIndex())) {
+				throw new IllegalArgumentException("Position taken twice - " + pos.toNotation());
+			}
+			board.set(color, pos.getIndex());
+			(color == BitBoard.BLACK ? blackPos : whitePos).add(pos);
+			if (board.checkFive(color, pos.getIndex(), usingAdvancedRules && color == BitBoard.BLACK) >= 0) {
+				winner = color == BitBoard.BLACK ? "black" : "white";
+			}
+		}
+		boolean blackToMove = moves.size() % 2 == 0;
+		int color = blackToMove ? BitBoard.BLACK : BitBoard.WHITE;
+		long key = new ZobristHash(blackPos, whitePos).getKey();
+
+		// The forbidden positions of black.
+		StringBuilder forbiddenList = new StringBuilder();
+		if (winner == null && usingAdvancedRules && blackToMove) {
+			EngineCache.Entry cached = cache.getForbids(key, blackToMove, usingAdvancedRules);
+			PiecePosition[] forbids;
+			if (cached != null) {
+				forbids = cached.getForbids();
+			} else {
+				int[] reasonsByIndex = CheckForbids.scanForbids(board);
+				ArrayList<PiecePosition> found = new ArrayList<PiecePosition>();
+				ArrayList<Integer> reasons = new ArrayList<Integer>();
+				for (int index = 0; index < Cells.COUNT; index++) {
+					if (reasonsByIndex[index] != CheckForbids.NO_FORBIDDEN) {
+						found.add(PiecePosition.get(index));
+						reasons.add(reasonsByIndex[index]);
+					}
+				}
+				forbids = found.toArray(new PiecePosition[found.size()]);
+				cache.putForbids(key, blackToMove, usingAdvancedRules, forbids,
+						reasons.stream().mapToInt(Integer::intValue).toArray());
+			}
+			for (PiecePosition pos : forbids) {
+				forbiddenList.append(forbiddenList.length() == 0 ? "\"" : ",\"")
+						.append(pos.toNotation()).append('"');
+			}
+		}
+
+		// The same choice as Chess.calcBestPos, VCF first.
+		PiecePosition best = null;
+		boolean vcf = false;
+		EngineCache.Entry cached = winner == null ? cache.getBestMove(key, blackToMove, usingAdvancedRules) : null;
+		if (cached != null) {
+			best = cached.getBestMove();
+			vcf = !cached.hasScores();
+		} else if (winner == null) {
+			List<PiecePosition> line = vcfSolver.solve(blackPos, whitePos, blackToMove, usingAdvancedRules,
+					MoveChoice.VCF_MAX_FOURS, MoveChoice.VCF_NODE_LIMIT, deadline);
+			if (line != null) {
+				best = line.get(0);
+				vcf = true;
+				cache.putBestMove(key, blackToMove, usingAdvancedRules, best, null);
+			} else {
+				// The evaluator adds to the scores of the last position.
+				for (int[] column : scores) {
+					Arrays.fill(column, 0);
+				}
+				evaluator.evaluate(board, color, scores);
+				best = MoveChoice.byScores(board, scores, usingAdvancedRules && blackToMove);
+				if (best == null) {
+					// There's no room to place.
+					winner = "draw";
+				} else if (!vcfSolver.isTimedOut()) {
+					cache.putBestMove(key, blackToMove, usingAdvancedRules, best, scores);
+				}
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"position\":").append(quote(position))
+				.append(",\"toMove\":\"").append(blackToMove ? "black" : "white").append('"')
+				.append(",\"winner\":").append(winner == null ? "null" : quote(winner))
+				.append(",\"bestMove\":").append(best == null ? "null" : quote(best.toNotation()))
+				.append(",\"vcf\":").append(vcf)
+				.append(",\"forbidden\":[").append(forbiddenList).append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Parse the moves of a position, e.g. "H8I9J10" or "H8 I9, J10".
+	 *
+	 * @throws IllegalArgumentException
+	 *             If a move is invalid.
+	 */
+	static List<PiecePosition> parsePosition(String position) {
+		List<PiecePosition> moves = new ArrayList<PiecePosition>();
+		int i = 0;
+		while (i < position.length()) {
+			char c = position.charAt(i);
+			if (c == ' ' || c == ',') {
+				i++;
+				continue;
+			}
+			int end = i + 1;
+			while (end < position.length() && Character.isDigit(position.charAt(end))) {
+				end++;
+			}
+			moves.add(PiecePosition.parse(position.substring(i, end)));
+			i = end;
+		}
+		return moves;
+	}
+
+	private static String getParameter(String query, String name) throws IOException {
+		if (query == null) {
+			return null;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0 && pair.substring(0, eq).equals(name)) {
+				return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = in.read(buffer)) > 0;) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + quote(message == null ? "" : message) + "}";
+	}
+
+	static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Stop the server. The positions still queued are refused.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		server.stop(0);
+		handlers.shutdownNow();
+		for (Request request; (request = queue.poll()) != null;) {
+			request.result.completeExceptionally(new IllegalStateException("The server is closed"));
+		}
+	}
+
+	/**
+	 * Usage: AnalysisServer [-port P] [-workers N] [-batch B] [-queue Q]
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT, workerCount = Runtime.getRuntime().availableProcessors(), batchSize = 16,
+				queueBudget = 256;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port")) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-workers")) {
+				workerCount = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-batch")) {
+				batchSize = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-queue")) {
+				queueBudget = Integer.parseInt(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+		AnalysisServer server = new AnalysisServer(port, workerCount, batchSize, queueBudget);
+		System.out.println("Listening on http://localhost:" + server.getPort() + "/analyze");
+	}
+}
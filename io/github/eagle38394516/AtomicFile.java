@@ -0,0 +1,49 @@
+package io.github.eagle38394516;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Replaces files by writing a temporary file next to them and moving it over,
+ * so a crash while writing leaves the old file or the new one, never a torn
+ * one.
+ */
+final class AtomicFile {
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private AtomicFile() {
+	}
+
+	/**
+	 * Store the properties to the file.
+	 */
+	static void store(Properties properties, File file, String comments) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(temporary)) {
+			properties.store(out, comments);
+			out.getFD().sync();
+		}
+		replace(temporary.toPath(), file.toPath());
+	}
+
+	/**
+	 * Move the written temporary file over the file. Where the file system
+	 * can't move atomically, it's moved the plain way.
+	 */
+	static void replace(Path temporary, Path file) throws IOException {
+		try {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package io.github.eagle38394516;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Solves a file of positions, one per line in the notation of
+ * <code>AnalysisServer</code>, e.g. puzzle sets or critical positions of
+ * lost games. Empty lines and lines starting with '#' are skipped.
+ *
+ * Each position gets the answer of <code>AnalysisServer</code> (best move,
+ * VCF and forbidden points) and a VCT search of the side to move. The answers
+ * are written as JSON lines in the order they finish, each with the line
+ * number of its position:
+ *
+ * <pre>
+ * {"line":3,"analysis":{...},"vct":"solved","winningLine":["K11","L12"],"depth":2,"nodes":517,"millis":4}
+ * </pre>
+ *
+ * "vct" is one of "solved", "unsolved", "timeout" and "none" (the game is
+ * over). A position that can't be read is answered with "error" instead.
+ *
+ * The cost of a position varies by orders of magnitude, so the positions are
+ * split recursively over a fork-join pool and idle workers steal the halves
+ * still waiting. Each worker has its own VCF solver and scores, and the
+ * workers share an <code>EngineCache</code>. The time of a position runs
+ * from its start: the VCF search of the analysis stops at the end of it, and
+ * the VCT search is cancelled then or not started, so one position never
+ * holds up the batch for much longer than that.
+ */
+public final class BatchSolver {
+
+	private final boolean usingAdvancedRules;
+	private final int vctDepth;
+	private final long vctNodeLimit;
+	private final long timeLimitMillis;
+	private final TupleEvaluator evaluator;
+	private final EngineCache cache = new EngineCache();
+	private final ThreadLocal<VcfSolver> vcfSolvers = ThreadLocal.withInitial(VcfSolver::new);
+	private final ThreadLocal<int[][]> scores = ThreadLocal
+			.withInitial(() -> new int[Chess.BOARD_SIZE][Chess.BOARD_SIZE]);
+
+	/**
+	 * Cancels the VCT searches that run out of time.
+	 */
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "BatchSolver timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicInteger solved = new AtomicInteger();
+	private final AtomicInteger timeouts = new AtomicInteger();
+	private final AtomicInteger errors = new AtomicInteger();
+
+	/**
+	 * @param vctDepth
+	 *            The largest number of threats of the VCT search.
+	 * @param vctNodeLimit
+	 *            The largest number of positions of the VCT search.
+	 * @param timeLimitMillis
+	 *            The time of each position.
+	 */
+	public BatchSolver(boolean usingAdvancedRules, RatingWeights weights, int vctDepth, long vctNodeLimit,
+			long timeLimitMillis) {
+		this.usingAdvancedRules = usingAdvancedRules;
+		this.evaluator = new TupleEvaluator(weights);
+		this.vctDepth = vctDepth;
+		this.vctNodeLimit = vctNodeLimit;
+		this.timeLimitMillis = timeLimitMillis;
+	}
+
+	/**
+	 * Solve the positions on a pool of the given size, writing each answer as
+	 * soon as it is found.
+	 *
+	 * @param lines
+	 *            The line number of each position.
+	 */
+	public void solve(List<String> positions, List<Integer> lines, int threads, Writer out) {
+		PrintWriter writer = new PrintWriter(out);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Batch(positions, lines, 0, positions.size(), writer));
+		} finally {
+			pool.shutdown();
+			writer.flush();
+		}
+	}
+
+	/**
+	 * The positions in [from, to), halved until one is left.
+	 */
+	private final class Batch extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> positions;
+		private final List<Integer> lines;
+		private final int from;
+		private final int to;
+		private final PrintWriter out;
+
+		Batch(List<String> positions, List<Integer> lines, int from, int to, PrintWriter out) {
+			this.positions = positions;
+			this.lines = lines;
+			this.from = from;
+			this.to = to;
+			this.out = out;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Batch(positions, lines, from, middle, out),
+						new Batch(positions, lines, middle, to, out));
+				return;
+			}
+			if (to > from) {
+				String answer = solve(lines.get(from), positions.get(from));
+				synchronized (out) {
+					out.println(answer);
+					out.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Answer one position as a JSON object.
+	 */
+	String solve(int line, String position) {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeLimitMillis);
+		String analysis;
+		ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+		ArrayList<PiecePosition> whitePos = new ArrayList<PiecePosition>();
+		boolean over = false;
+		try {
+			analysis = AnalysisServer.analyze(position, usingAdvancedRules, vcfSolvers.get(), evaluator,
+					scores.get(), cache, deadline);
+			// The position is valid, so it only has to be replayed.
+			List<PiecePosition> moves = AnalysisServer.parsePosition(position);
+			BitBoard board = new BitBoard();
+			for (int i = 0; i < moves.size(); i++) {
+				int color = i % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE;
+				int index = moves.get(i).getIndex();
+				board.set(color, index);
+				(color == BitBoard.BLACK ? blackPos : whitePos).add(moves.get(i));
+				over |= board.checkFive(color, index, usingAdvancedRules && color == BitBoard.BLACK) >= 0;
+			}
+			over |= moves.size() == Cells.COUNT;
+		} catch (IllegalArgumentException e) {
+			errors.incrementAndGet();
+			return "{\"line\":" + line + ",\"error\":" + AnalysisServer.quote(String.valueOf(e.getMessage())) + "}";
+		}
+
+		String vct = "none";
+		VctSolver solver = null;
+		if (!over) {
+			solver = new VctSolver(blackPos, whitePos, blackPos.size() == whitePos.size(), usingAdvancedRules,
+					vctDepth, vctNodeLimit);
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				solver.cancel();
+			}
+			ScheduledFuture<?> timeout = left > 0 ? timer.schedule(solver::cancel, left, TimeUnit.NANOSECONDS)
+					: null;
+			solver.run();
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			switch (solver.getStatus()) {
+				case VctSolver.SOLVED:
+					vct = "solved";
+					solved.incrementAndGet();
+					break;
+				case VctSolver.CANCELLED:
+					vct = "timeout";
+					timeouts.incrementAndGet();
+					break;
+				default:
+					vct = "unsolved";
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"line\":").append(line).append(",\"analysis\":").append(analysis).append(",\"vct\":\"")
+				.append(vct).append('"');
+		if (solver != null) {
+			sb.append(",\"winningLine\":[");
+			List<PiecePosition> winningLine = solver.getWinningLine();
+			if (winningLine != null) {
+				for (int i = 0; i < winningLine.size(); i++) {
+					sb.append(i == 0 ? "\"" : ",\"").append(winningLine.get(i).toNotation()).append('"');
+				}
+			}
+			sb.append("],\"depth\":").append(solver.getDepth()).append(",\"nodes\":").append(solver.getNodes());
+		}
+		sb.append(",\"millis\":").append((System.nanoTime() - start) / 1000000).append('}');
+		return sb.toString();
+	}
+
+	public int getSolved() {
+		return solved.get();
+	}
+
+	public int getTimeouts() {
+		return timeouts.get();
+	}
+
+	public int getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * Usage: BatchSolver [-advanced] [-threads N] [-timeout MS] [-depth D]
+	 * [-nodes N] [-out FILE] input
+	 *
+	 * The answers go to the standard output without -out.
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean usingAdvancedRules = false;
+		int threads = Runtime.getRuntime().availableProcessors(), depth = 10;
+		long timeLimit = 5000, nodeLimit = 1000000;
+		String outFile = null, inFile = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-advanced")) {
+				usingAdvancedRules = true;
+			} else if (args[i].equals("-threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-timeout")) {
+				timeLimit = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-depth")) {
+				depth = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-nodes")) {
+				nodeLimit = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-out")) {
+				outFile = args[++i];
+			} else if (!args[i].startsWith("-") && inFile == null) {
+				inFile = args[i];
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+		if (inFile == null) {
+			throw new IllegalArgumentException("No input file");
+		}
+
+		List<String> positions = new ArrayList<String>();
+		List<Integer> lines = new ArrayList<Integer>();
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(new File(inFile)), StandardCharsets.UTF_8))) {
+			String line;
+			for (int number = 1; (line = in.readLine()) != null; number++) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					positions.add(line);
+					lines.add(number);
+				}
+			}
+		}
+
+		BatchSolver solver = new BatchSolver(usingAdvancedRules, RatingWeights.loadOrDefault(), depth, nodeLimit,
+				timeLimit);
+		long start = System.nanoTime();
+		Writer out = outFile == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+				: new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8);
+		try {
+			solver.solve(positions, lines, threads, out);
+		} finally {
+			if (outFile != null) {
+				out.close();
+			}
+		}
+		System.err.printf("%d positions in %.1fs: %d VCT solved, %d timeouts, %d errors%n", positions.size(),
+				(System.nanoTime() - start) / 1e9, solver.getSolved(), solver.getTimeouts(), solver.getErrors());
+	}
+}
@@ -0,0 +1,225 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The pieces of the board stored as bit masks of the lines. Every line of
+ * every direction keeps one int per color whose bit n is set if the n-th
+ * position of the line holds a piece of the color, so a whole line can be
+ * examined with a few bit operations.
+ *
+ * Positions are numbered the same way as <code>Cells</code>.
+ *
+ * Four directions: 0 -, 1 |, 2 \, 3 /
+ */
+public final class BitBoard {
+
+	/**
+	 * The color index of the black pieces.
+	 */
+	public static final int BLACK = ZobristHash.BLACK;
+
+	/**
+	 * The color index of the white pieces.
+	 */
+	public static final int WHITE = ZobristHash.WHITE;
+
+	/**
+	 * The number of directions.
+	 */
+	public static final int DIRECTIONS = 4;
+
+	/**
+	 * The largest number of lines in one direction.
+	 */
+	public static final int LINES = 2 * Chess.BOARD_SIZE - 1;
+
+	/**
+	 * LINE[direction][index] is the line the position belongs to.
+	 */
+	static final int[][] LINE = new int[DIRECTIONS][Cells.COUNT];
+
+	/**
+	 * OFFSET[direction][index] is the bit of the position in its line.
+	 */
+	static final int[][] OFFSET = new int[DIRECTIONS][Cells.COUNT];
+
+	/**
+	 * LENGTH[direction][line] is the number of positions of the line.
+	 */
+	static final int[][] LENGTH = new int[DIRECTIONS][LINES];
+
+	/**
+	 * CELL[direction][line][offset] is the position at the bit of the line.
+	 */
+	static final int[][][] CELL = new int[DIRECTIONS][LINES][Chess.BOARD_SIZE];
+
+	/**
+	 * The order <code>checkFive</code> tries the directions in: horizontal,
+	 * rising diagonal, vertical, falling diagonal. It's the order of the list
+	 * based check, so a move making two fives still reports the same chain.
+	 */
+	private static final int[] FIVE_ORDER = { 0, 3, 1, 2 };
+
+	static {
+		int size = Chess.BOARD_SIZE;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				int index = y * size + x;
+				LINE[0][index] = y;
+				OFFSET[0][index] = x;
+				LINE[1][index] = x;
+				OFFSET[1][index] = y;
+				LINE[2][index] = x - y + size - 1;
+				OFFSET[2][index] = Math.min(x, y);
+				LINE[3][index] = x + y;
+				OFFSET[3][index] = y - Math.max(0, x + y - (size - 1));
+				for (int direction = 0; direction < DIRECTIONS; direction++) {
+					CELL[direction][LINE[direction][index]][OFFSET[direction][index]] = index;
+					LENGTH[direction][LINE[direction][index]]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * masks[color][direction][line] is the bit mask of the pieces of the line.
+	 */
+	private final int[][][] masks = new int[2][DIRECTIONS][LINES];
+
+	/**
+	 * Create an empty board.
+	 */
+	public BitBoard() {
+	}
+
+	/**
+	 * Create a board of the pieces in the lists.
+	 */
+	public BitBoard(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos) {
+		for (int i = 0; i < blackPos.size(); i++) {
+			set(BLACK, blackPos.get(i).getIndex());
+		}
+		for (int i = 0; i < whitePos.size(); i++) {
+			set(WHITE, whitePos.get(i).getIndex());
+		}
+	}
+
+	/**
+	 * Create a copy of another board.
+	 */
+	public BitBoard(BitBoard another) {
+		for (int color = 0; color < 2; color++) {
+			for (int direction = 0; direction < DIRECTIONS; direction++) {
+				System.arraycopy(another.masks[color][direction], 0, masks[color][direction], 0, LINES);
+			}
+		}
+	}
+
+	/**
+	 * Place a piece.
+	 */
+	public void set(int color, int index) {
+		for (int direction = 0; direction < DIRECTIONS; direction++) {
+			masks[color][direction][LINE[direction][index]] |= 1 << OFFSET[direction][index];
+		}
+	}
+
+	/**
+	 * Remove a piece.
+	 */
+	public void clear(int color, int index) {
+		for (int direction = 0; direction < DIRECTIONS; direction++) {
+			masks[color][direction][LINE[direction][index]] &= ~(1 << OFFSET[direction][index]);
+		}
+	}
+
+	/**
+	 * Remove all the pieces.
+	 */
+	public void clear() {
+		for (int color = 0; color < 2; color++) {
+			for (int direction = 0; direction < DIRECTIONS; direction++) {
+				Arrays.fill(masks[color][direction], 0);
+			}
+		}
+	}
+
+	/**
+	 * Return whether the position holds a piece of the color.
+	 */
+	public boolean has(int color, int index) {
+		return (masks[color][0][LINE[0][index]] & 1 << OFFSET[0][index]) != 0;
+	}
+
+	/**
+	 * Return whether the position is empty.
+	 */
+	public boolean isEmpty(int index) {
+		return !has(BLACK, index) && !has(WHITE, index);
+	}
+
+	/**
+	 * Return the bit mask of the pieces of the color in the line.
+	 */
+	public int getLine(int color, int direction, int line) {
+		return masks[color][direction][line];
+	}
+
+	/**
+	 * Return the length of the unbroken chain of the color through the
+	 * position along the direction. The position itself counts as a piece of
+	 * the color, so this also tells what a move there would make.
+	 */
+	public int chainLength(int color, int index, int direction) {
+		int offset = OFFSET[direction][index];
+		int line = masks[color][direction][LINE[direction][index]] | 1 << offset;
+		// The pieces from the position upwards and downwards, both counting
+		// the position itself.
+		return Integer.numberOfTrailingZeros(~line >>> offset)
+				+ Integer.numberOfLeadingZeros(~(line << 31 - offset)) - 1;
+	}
+
+	/**
+	 * Check whether a piece of the color at the position forms five in a row.
+	 *
+	 * @param exactFive
+	 *            True if only exactly five pieces win, which is the case of
+	 *            black under the advanced rules. Otherwise five or more win.
+	 * @return The direction of the chain, or -1 if there's no such chain.
+	 */
+	public int checkFive(int color, int index, boolean exactFive) {
+		for (int direction : FIVE_ORDER) {
+			int length = chainLength(color, index, direction);
+			if (exactFive ? length == 5 : length >= 5) {
+				return direction;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Add the positions of the chain through the position along the
+	 * direction to the list.
+	 *
+	 * @see #chainLength(int, int, int)
+	 */
+	public void addChain(int color, int index, int direction, ArrayList<PiecePosition> result) {
+		int offset = OFFSET[direction][index];
+		int line = LINE[direction][index];
+		int mask = masks[color][direction][line] | 1 << offset;
+		int first = offset - Integer.numberOfLeadingZeros(~(mask << 31 - offset)) + 1;
+		int last = offset + Integer.numberOfTrailingZeros(~mask >>> offset) - 1;
+		for (int i = first; i <= last; i++) {
+			result.add(PiecePosition.get(CELL[direction][line][i]));
+		}
+	}
+
+	/**
+	 * Return the bit mask of the positions of the line.
+	 */
+	public static int lineMask(int direction, int line) {
+		return (1 << LENGTH[direction][line]) - 1;
+	}
+}
@@ -0,0 +1,117 @@
+package io.github.eagle38394516;
+
+/**
+ * The positions of the board as plain int indexes, for the engine and the
+ * rules code. Index = (y - 1) * BOARD_SIZE + (x - 1), the same numbering as
+ * <code>Symmetry</code> and <code>BitBoard</code>. <code>PiecePosition</code>
+ * is only a facade over the index for the UI.
+ *
+ * All the tables are built eagerly when the class is loaded, so they can be
+ * read from any thread without locking.
+ *
+ * Eight directions, the same as <code>CheckForbids</code>:
+ * \|/ 321 -.- 4.0 /|\ 567
+ */
+public final class Cells {
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private Cells() {
+	}
+
+	/**
+	 * The number of positions of the board.
+	 */
+	public static final int COUNT = Chess.BOARD_SIZE * Chess.BOARD_SIZE;
+
+	/**
+	 * The number of directions.
+	 */
+	public static final int DIRECTIONS = 8;
+
+	/**
+	 * Returned by the neighbour table past the edge of the board.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * How the x coordinates change in every direction.
+	 */
+	static final int[] DIRECTION_SIGN_X = { 1, 1, 0, -1, -1, -1, 0, 1 };
+
+	/**
+	 * How the y coordinates change in every direction.
+	 */
+	static final int[] DIRECTION_SIGN_Y = { 0, -1, -1, -1, 0, 1, 1, 1 };
+
+	private static final int[] X = new int[COUNT];
+	private static final int[] Y = new int[COUNT];
+
+	/**
+	 * NEIGHBOURS[direction][index] is the next position in the direction, or
+	 * <code>NONE</code> at the edge.
+	 */
+	private static final int[][] NEIGHBOURS = new int[DIRECTIONS][COUNT];
+
+	static {
+		for (int index = 0; index < COUNT; index++) {
+			int x = index % Chess.BOARD_SIZE + 1;
+			int y = index / Chess.BOARD_SIZE + 1;
+			X[index] = x;
+			Y[index] = y;
+			for (int direction = 0; direction < DIRECTIONS; direction++) {
+				int nx = x + DIRECTION_SIGN_X[direction];
+				int ny = y + DIRECTION_SIGN_Y[direction];
+				NEIGHBOURS[direction][index] = isOnBoard(nx, ny) ? indexOf(nx, ny) : NONE;
+			}
+		}
+	}
+
+	/**
+	 * Return whether the coordinates, starting from 1, are on the board.
+	 */
+	public static boolean isOnBoard(int x, int y) {
+		return x >= 1 && x <= Chess.BOARD_SIZE && y >= 1 && y <= Chess.BOARD_SIZE;
+	}
+
+	/**
+	 * Return the index of the coordinates, starting from 1.
+	 */
+	public static int indexOf(int x, int y) {
+		return (y - 1) * Chess.BOARD_SIZE + (x - 1);
+	}
+
+	/**
+	 * Return the x coordinate of the index, starting from 1.
+	 */
+	public static int x(int index) {
+		return X[index];
+	}
+
+	/**
+	 * Return the y coordinate of the index, starting from 1.
+	 */
+	public static int y(int index) {
+		return Y[index];
+	}
+
+	/**
+	 * Return the next position in the direction, or <code>NONE</code> at the
+	 * edge of the board.
+	 */
+	public static int neighbour(int direction, int index) {
+		return NEIGHBOURS[direction][index];
+	}
+
+	/**
+	 * Return the position the given steps away in the direction, or
+	 * <code>NONE</code> if it's off the board.
+	 */
+	public static int step(int direction, int index, int steps) {
+		int x = X[index] + DIRECTION_SIGN_X[direction] * steps;
+		int y = Y[index] + DIRECTION_SIGN_Y[direction] * steps;
+		return isOnBoard(x, y) ? indexOf(x, y) : NONE;
+	}
+}
@@ -1,6 +1,8 @@
 package io.github.eagle38394516;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A separately class to check whether the position to be placed breaks the
@@ -73,18 +75,20 @@ public final class CheckForbids {
 	// l = 6 --> x ....; y + 1
 	// l = 7 --> x + 1 ; y + 1
 
-	/**
-	 * Stores how the x coordinates change when finding the chains.
-	 */
-	private static final int[] DIRECTION_SIGN_X = { 1, 1, 0, -1, -1, -1, 0, 1 };
-
-	/**
-	 * Stores how the y coordinates change when finding the chains.
-	 */
-	private static final int[] DIRECTION_SIGN_Y = { 0, -1, -1, -1, 0, 1, 1, 1 };
+	// The directions are the ones of Cells.
 
 	public static int[][] chessboardSearch(ArrayList<PiecePosition> whichPos,
 			PiecePosition originPos, boolean checkWins, ArrayList<PiecePosition> anotherPos) {
+		BitBoard board = new BitBoard(whichPos, anotherPos == null ? new ArrayList<PiecePosition>() : anotherPos);
+		return chessboardSearch(board, BitBoard.BLACK, originPos.getIndex(), checkWins);
+	}
+
+	/**
+	 * Count the alternate runs of the color and of the empty positions (or of
+	 * anything else if checking wins) from the origin in the eight
+	 * directions.
+	 */
+	private static int[][] chessboardSearch(BitBoard board, int color, int origin, boolean checkWins) {
 		// checkWinsĸʧЧ
 
 		int[][] result = new int[5][8];
@@ -102,22 +106,19 @@ public final class CheckForbids {
 		// int[] jumpjumpsame = new int[] { 0, 0, 0, 0, 0, 0, 0, 0 };
 
 		// Search whole chess board.
-		int x, y; // The searching position
+		int cell; // The searching position
 
 		for (int direction = 0; direction < 8; direction++) {
-			x = originPos.getX() + DIRECTION_SIGN_X[direction];
-			y = originPos.getY() + DIRECTION_SIGN_Y[direction];
+			cell = Cells.neighbour(direction, origin);
 			for (int index = 1; index <= (checkWins ? 1 : 5); index++) {
-				while ((x >= 1 && x <= 15 && y >= 1 && y <= 15) &&
+				while (cell != Cells.NONE &&
 						((index % 2 != 0) ?
-								whichPos.contains(PiecePosition.get(x, y)) :
+								board.has(color, cell) :
 								(checkWins ?
-										(!whichPos.contains(PiecePosition.get(x, y))) :
-										(!(whichPos.contains(PiecePosition.get(x, y)) ||
-										anotherPos.contains(PiecePosition.get(x, y))))))) {
+										(!board.has(color, cell)) :
+										board.isEmpty(cell)))) {
 					result[index - 1][direction]++;
-					x += DIRECTION_SIGN_X[direction];
-					y += DIRECTION_SIGN_Y[direction];
+					cell = Cells.neighbour(direction, cell);
 				}
 			}
 		}
@@ -125,7 +126,7 @@ public final class CheckForbids {
 		// try {
 		// BufferedWriter bw = new BufferedWriter(new FileWriter("v3.0.txt",
 		// true));
-		// bw.write(originPos.toString());
+		// bw.write(PiecePosition.get(origin).toString());
 		// bw.newLine();
 		// bw.write(Arrays.toString(result[0]));
 		// bw.newLine();
@@ -146,17 +147,43 @@ public final class CheckForbids {
 		return result;
 	}
 
+	/**
+	 * Check if the last move of the board wins and store the positions of the
+	 * winning chain in <code>winnerPos</code>. The check only reads the line
+	 * bit masks through the last move. Under the advanced rules black has to
+	 * form exactly five, while white and both players under the free-style
+	 * rules win with five or more.
+	 */
 	public static boolean checkIfWins() {
-		ArrayList<PiecePosition> whichPos = chess.getWhosTurn() ? blackPos : whitePos;
-		int[][] searchResults = chessboardSearch(whichPos, whichPos.get(whichPos.size() - 1), true, null);
+		boolean isBlack = chess.getWhosTurn();
+		ArrayList<PiecePosition> whichPos = isBlack ? blackPos : whitePos;
+		int color = isBlack ? BitBoard.BLACK : BitBoard.WHITE;
+		int index = whichPos.get(whichPos.size() - 1).getIndex();
+		BitBoard board = chess.getBitBoard();
+		int direction = board.checkFive(color, index, isBlack && chess.isUsingAdvancedRules());
+		if (direction < 0) {
+			return false;
+		}
+		winnerPos.clear();
+		board.addChain(color, index, direction, winnerPos);
+		return true;
+	}
+
+	/**
+	 * Check if the last piece placed forms an unbroken chain of five or more
+	 * pieces. Unlike <code>checkIfWins()</code> this only reads the given list
+	 * and doesn't touch <code>winnerPos</code>, so it can be used for games
+	 * other than the one on the board.
+	 *
+	 * @param whichPos
+	 *            The pieces of the player who made the last move.
+	 * @param lastPos
+	 *            The position of the last move.
+	 */
+	public static boolean checkIfWins(ArrayList<PiecePosition> whichPos, PiecePosition lastPos) {
+		int[][] searchResults = chessboardSearch(whichPos, lastPos, true, null);
 		for (int direction = 0; direction < 4; direction++) {
 			if (searchResults[0][direction] + searchResults[0][direction + 4] >= 4) {
-				winnerPos.clear();
-				for (int index = -searchResults[0][direction + 4]; index <= searchResults[0][direction]; index++) {
-					winnerPos.add(PiecePosition.get(
-							whichPos.get(whichPos.size() - 1).getX() + index * DIRECTION_SIGN_X[direction],
-							whichPos.get(whichPos.size() - 1).getY() + index * DIRECTION_SIGN_Y[direction]));
-				}
 				return true;
 			}
 		}
@@ -172,11 +199,115 @@ public final class CheckForbids {
 	 *         rule breaks.
 	 */
 	public static int checkForbids(PiecePosition pos) {
+		return checkForbids(pos.getIndex(), new BitBoard(chess.getBitBoard()));
+	}
+
+	/**
+	 * Check if the certain position breaks the advanced rules in a position
+	 * other than the one on the board.
+	 *
+	 * @param pos
+	 *            The coordinate to be checked.
+	 * @param blackPos
+	 *            The black pieces.
+	 * @param whitePos
+	 *            The white pieces.
+	 * @return Whether the certain position breaks the advanced rules and which
+	 *         rule breaks.
+	 */
+	public static int checkForbids(PiecePosition pos, ArrayList<PiecePosition> blackPos,
+			ArrayList<PiecePosition> whitePos) {
 		if (pos.getX() < 1 || pos.getX() > 15 || pos.getY() < 1 || pos.getY() > 15) {
 			throw new IllegalArgumentException(String.format("Invalid pos (%d, %d)", pos.getX(), pos.getY()));
 		}
+		return checkForbids(pos.getIndex(), new BitBoard(blackPos, whitePos));
+	}
 
-		int[][] searchResults = chessboardSearch(blackPos, pos, false, whitePos);
+	/**
+	 * Check all the empty positions of a bit board, on one copy of it.
+	 *
+	 * @param board
+	 *            The pieces, which are not changed.
+	 * @return The rule each position breaks, by the index of the position.
+	 */
+	public static int[] scanForbids(BitBoard board) {
+		int[] reasons = new int[Cells.COUNT];
+		scanForbids(new BitBoard(board), 0, Cells.COUNT, reasons);
+		return reasons;
+	}
+
+	/**
+	 * Check all the empty positions of a bit board on a fork-join pool. Since
+	 * checking a position changes the board for a while, each task checks its
+	 * positions on its own copy of the board. The result is the same as
+	 * <code>scanForbids(BitBoard)</code>.
+	 *
+	 * @param board
+	 *            The pieces, which are not changed.
+	 * @return The rule each position breaks, by the index of the position.
+	 */
+	public static int[] scanForbids(BitBoard board, ForkJoinPool pool) {
+		int[] reasons = new int[Cells.COUNT];
+		pool.invoke(new ScanTask(board, 0, Cells.COUNT, reasons));
+		return reasons;
+	}
+
+	/**
+	 * Check the empty positions with the indexes in [from, to) on the board,
+	 * which is changed while checking and restored after.
+	 */
+	static void scanForbids(BitBoard board, int from, int to, int[] reasons) {
+		for (int index = from; index < to; index++) {
+			reasons[index] = board.isEmpty(index) ? checkForbids(index, board) : NO_FORBIDDEN;
+		}
+	}
+
+	/**
+	 * Checks the positions in [from, to), halved down to a row each.
+	 */
+	private static final class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BitBoard board;
+		private final int from;
+		private final int to;
+		private final int[] reasons;
+
+		ScanTask(BitBoard board, int from, int to, int[] reasons) {
+			this.board = board;
+			this.from = from;
+			this.to = to;
+			this.reasons = reasons;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > Chess.BOARD_SIZE) {
+				int middle = from + (to - from) / Chess.BOARD_SIZE / 2 * Chess.BOARD_SIZE;
+				invokeAll(new ScanTask(board, from, middle, reasons), new ScanTask(board, middle, to, reasons));
+			} else {
+				// Each task writes only its own positions.
+				scanForbids(new BitBoard(board), from, to, reasons);
+			}
+		}
+	}
+
+	/**
+	 * Check if the certain position breaks the advanced rules on a bit board.
+	 * The board is changed while checking and restored before returning, so
+	 * a board scanned for many positions only needs to be built once. The
+	 * position itself is not read, so it may already hold the black piece.
+	 *
+	 * @param index
+	 *            The index of the position to be checked.
+	 * @param board
+	 *            The pieces.
+	 * @return Whether the certain position breaks the advanced rules and which
+	 *         rule breaks.
+	 */
+	public static int checkForbids(int index, BitBoard board) {
+		int[][] searchResults = chessboardSearch(board, BitBoard.BLACK, index, false);
 
 		// Check whether black wins
 		for (int i = 0; i < 4; i++) {
@@ -199,13 +330,13 @@ public final class CheckForbids {
 				if (searchResults[1][i] > 0) {
 					// ?+0000?
 					// Check if the key point can be placed by recursive.
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i], i) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i], i, board) == NO_FORBIDDEN) {
 						isFour = true;
 					}
 				}
 				if (searchResults[1][i + 4] > 0) {
 					// ?0000+?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i + 4], i + 4) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i + 4], i + 4, board) == NO_FORBIDDEN) {
 						isFour = true;
 					}
 				}
@@ -217,13 +348,13 @@ public final class CheckForbids {
 				// Check whether it is a valid four.
 				if (searchResults[1][i] == 1 && searchResults[2][i] == 1) {
 					// ?0+000?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i], i) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i], i, board) == NO_FORBIDDEN) {
 						fourCounter++;
 					}
 				}
 				if (searchResults[1][i + 4] == 1 && searchResults[2][i + 4] == 1) {
 					// ?000+0?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i + 4], i + 4) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i + 4], i + 4, board) == NO_FORBIDDEN) {
 						fourCounter++;
 					}
 				}
@@ -232,14 +363,14 @@ public final class CheckForbids {
 				if ((searchResults[1][i] > 2 || searchResults[1][i] == 2 && searchResults[2][i] == 0) &&
 						(searchResults[1][i + 4] > 1 || searchResults[1][i + 4] == 1 && searchResults[2][i + 4] == 0)) {
 					// ?++000+?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i], i) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i], i, board) == NO_FORBIDDEN) {
 						isThree = true;
 					}
 				}
 				if ((searchResults[1][i + 4] > 2 || searchResults[1][i + 4] == 2 && searchResults[2][i + 4] == 0) &&
 						(searchResults[1][i] > 1 || searchResults[1][i] == 1 && searchResults[2][i] == 0)) {
 					// ?+000++?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i + 4], i + 4) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i + 4], i + 4, board) == NO_FORBIDDEN) {
 						isThree = true;
 					}
 				}
@@ -251,13 +382,13 @@ public final class CheckForbids {
 				// Check whether it is a valid four.
 				if (searchResults[1][i] == 1 && searchResults[2][i] == 2) {
 					// ?00+00?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i], i) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i], i, board) == NO_FORBIDDEN) {
 						fourCounter++;
 					}
 				}
 				if (searchResults[1][i + 4] == 1 && searchResults[2][i + 4] == 2) {
 					// ?00+00?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i + 4], i + 4) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i + 4], i + 4, board) == NO_FORBIDDEN) {
 						fourCounter++;
 					}
 				}
@@ -266,7 +397,7 @@ public final class CheckForbids {
 						(searchResults[3][i] > 1 || searchResults[3][i] == 1 && searchResults[4][i] == 0) &&
 						(searchResults[1][i + 4] > 1 || searchResults[1][i + 4] == 1 && searchResults[2][i + 4] == 0)) {
 					// ?+0+00+?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i], i) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i], i, board) == NO_FORBIDDEN) {
 						threeCounter++;
 					}
 				}
@@ -274,7 +405,7 @@ public final class CheckForbids {
 						(searchResults[3][i + 4] > 1 || searchResults[3][i + 4] == 1 && searchResults[4][i + 4] == 0) &&
 						(searchResults[1][i] > 1 || searchResults[1][i] == 1 && searchResults[2][i] == 0)) {
 					// ?+00+0+?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i + 4], i + 4) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i + 4], i + 4, board) == NO_FORBIDDEN) {
 						threeCounter++;
 					}
 				}
@@ -283,13 +414,13 @@ public final class CheckForbids {
 				// Check whether it is a valid four.
 				if (searchResults[1][i] == 1 && searchResults[2][i] == 3) {
 					// ?000+0?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i], i) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i], i, board) == NO_FORBIDDEN) {
 						fourCounter++;
 					}
 				}
 				if (searchResults[1][i + 4] == 1 && searchResults[2][i + 4] == 3) {
 					// ?0+000?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i + 4], i + 4) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i + 4], i + 4, board) == NO_FORBIDDEN) {
 						fourCounter++;
 					}
 				}
@@ -298,7 +429,7 @@ public final class CheckForbids {
 						(searchResults[3][i] > 1 || searchResults[3][i] == 1 && searchResults[4][i] == 0) &&
 						(searchResults[1][i + 4] > 1 || searchResults[1][i + 4] == 1 && searchResults[2][i + 4] == 0)) {
 					// ?+00+0+?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i], i) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i], i, board) == NO_FORBIDDEN) {
 						threeCounter++;
 					}
 				}
@@ -306,7 +437,7 @@ public final class CheckForbids {
 						(searchResults[3][i + 4] > 1 || searchResults[3][i + 4] == 1 && searchResults[4][i + 4] == 0) &&
 						(searchResults[1][i] > 1 || searchResults[1][i] == 1 && searchResults[2][i] == 0)) {
 					// ?+0+00+?
-					if (KeyPointForbiddenCheck(pos, searchResults[0][i + 4], i + 4) == NO_FORBIDDEN) {
+					if (KeyPointForbiddenCheck(index, searchResults[0][i + 4], i + 4, board) == NO_FORBIDDEN) {
 						threeCounter++;
 					}
 				}
@@ -338,7 +469,7 @@ public final class CheckForbids {
 	 *            ؼԽֵķ򣨰˷򣩡
 	 * @return ؼǷ£粻£򷵻ؽ
 	 */
-	private static int KeyPointForbiddenCheck(PiecePosition pos, int adjsame, int direction) {
+	private static int KeyPointForbiddenCheck(int pos, int adjsame, int direction, BitBoard board) {
 		// if (blackPos.contains(pos)) {
 		// throw new
 		// IllegalArgumentException("blackPos should not contain pos!");
@@ -350,9 +481,7 @@ public final class CheckForbids {
 		// }
 
 		// ؼ
-		PiecePosition keyPoint = PiecePosition.get(
-				pos.getX() + DIRECTION_SIGN_X[direction] * (adjsame + 1),
-				pos.getY() + DIRECTION_SIGN_Y[direction] * (adjsame + 1));
+		int keyPoint = Cells.step(direction, pos, adjsame + 1);
 
 		// if (blackPos.contains(keyPoint)) {
 		// throw new
@@ -380,20 +509,26 @@ public final class CheckForbids {
 		// }
 
 		// з
-		blackPos.add(pos);
-		blackPos.add(keyPoint);
+		// The position may already be placed by the outer check.
+		boolean placed = !board.has(BitBoard.BLACK, pos);
+		if (placed) {
+			board.set(BitBoard.BLACK, pos);
+		}
+		board.set(BitBoard.BLACK, keyPoint);
 		// chessboard[x][y] = BLACK;
 		// chessboard[i][j] = BLACK;
 
 		// ؼ
-		int keyPointCheckResult = checkForbids(keyPoint);
+		int keyPointCheckResult = checkForbids(keyPoint, board);
 		// ForbiddenCheck(chessboard, i, j);
 
 		// ԭ
 		// chessboard[i][j] = NONE;
 		// chessboard[x][y] = NONE;
-		blackPos.remove(keyPoint);
-		blackPos.remove(pos);
+		board.clear(BitBoard.BLACK, keyPoint);
+		if (placed) {
+			board.clear(BitBoard.BLACK, pos);
+		}
 
 		return keyPointCheckResult;
 	}
@@ -2,7 +2,9 @@ package io.github.eagle38394516;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The tool box class to chess and check if breaks the advanced rules. This
@@ -72,7 +74,37 @@ public final class Chess {
 	 * @see #check_4_4(int, int)
 	 */
 	public final ArrayList<PiecePosition> breakingRulesPos = new ArrayList<PiecePosition>();
-	public final ArrayList<Integer> breakingRulesPosReason = new ArrayList<Integer>();
+
+	/**
+	 * Stores which rule every position of <code>breakingRulesPos</code>
+	 * breaks, by the index of the position. The other entries are
+	 * <code>CheckForbids.NO_FORBIDDEN</code>.
+	 */
+	public final int[] breakingRulesPosReason = new int[Cells.COUNT];
+
+	/**
+	 * The Zobrist hash of the pieces on the board, updated with every move.
+	 */
+	private final ZobristHash positionHash = new ZobristHash();
+
+	/**
+	 * The line bit masks of the pieces on the board, updated with every move.
+	 */
+	private final BitBoard bitBoard = new BitBoard();
+
+	/**
+	 * The move stack. The first <code>ply</code> records are the moves on the
+	 * board, the rest are the undone moves which can be redone.
+	 */
+	private final ArrayList<MoveRecord> moveHistory = new ArrayList<MoveRecord>();
+	private int ply = 0;
+
+	/**
+	 * The journal the changes of the game are written to, if any.
+	 *
+	 * @see GameJournal
+	 */
+	private GameJournal journal;
 
 	/**
 	 * To mark whether the advanced rules are enabled.
@@ -93,6 +125,63 @@ public final class Chess {
 	public static final int AUTO_PLACING_OFF = 0;
 	public static final int AUTO_PLACING_WHITE = -1;
 
+	/**
+	 * The weights of the tuple rating table, loaded from
+	 * <code>RatingWeights.WEIGHTS_FILE</code> at startup.
+	 *
+	 * @see #ratingTable(int, int)
+	 */
+	private RatingWeights ratingWeights = RatingWeights.loadOrDefault();
+
+	/**
+	 * The line based implementation of the rating table.
+	 *
+	 * @see #calcBestPos(ArrayList, ArrayList)
+	 */
+	private TupleEvaluator tupleEvaluator = new TupleEvaluator(ratingWeights);
+
+	/**
+	 * The evaluator scoring the moves, the tuple evaluator unless another one
+	 * is set.
+	 *
+	 * @see #setEvaluator(Evaluator)
+	 */
+	private Evaluator evaluator = tupleEvaluator;
+
+	/**
+	 * The solver looking for a win by continuous fours before the tuple
+	 * scoring, within the limits of <code>MoveChoice</code>.
+	 *
+	 * @see #calcBestPos(ArrayList, ArrayList)
+	 */
+	private final VcfSolver vcfSolver = new VcfSolver();
+
+	/**
+	 * The best moves and forbidden positions computed so far, so undoing and
+	 * redoing don't compute them again.
+	 *
+	 * @see #calcBestPos(ArrayList, ArrayList)
+	 * @see #checkForbids()
+	 */
+	private final EngineCache engineCache = new EngineCache();
+
+	/**
+	 * The pool checking the positions for forbidden in parallel, or null to
+	 * check them one by one.
+	 *
+	 * @see #checkForbids()
+	 */
+	private ForkJoinPool forbidScanPool = null;
+
+	/**
+	 * Publishes the changes of the game to the listeners, and the forbidden
+	 * positions they were told last.
+	 *
+	 * @see #addListener(GameListener)
+	 */
+	private final GameEventDispatcher events = new GameEventDispatcher();
+	private PiecePosition[] publishedForbids = new PiecePosition[0];
+
 	/**
 	 * Private the constructor in order to prevent users from creating
 	 * instances.
@@ -123,6 +212,9 @@ public final class Chess {
 			throw new RuntimeException("Invalid game status - the board is not empty!");
 		}
 		this.usingAdvancedRules = usingAdvancedRules;
+		if (journal != null) {
+			journal.append(GameJournal.RULES, usingAdvancedRules ? 1 : 0, 0);
+		}
 	}
 
 	/**
@@ -167,38 +259,315 @@ public final class Chess {
 	}
 
 	/**
-	 * Undo the last step.
+	 * Return the hash of the current position. The hash is updated in place,
+	 * so make a copy to keep the value.
+	 */
+	public ZobristHash getPositionHash() {
+		return positionHash;
+	}
+
+	/**
+	 * Return the bit board of the current position. The board is updated in
+	 * place, so make a copy to keep the value.
+	 */
+	public BitBoard getBitBoard() {
+		return bitBoard;
+	}
+
+	public EngineCache getEngineCache() {
+		return engineCache;
+	}
+
+	/**
+	 * Listen to the changes of the game. The listener is called on its own
+	 * thread.
+	 *
+	 * @see GameListener
+	 */
+	public void addListener(GameListener listener) {
+		events.addListener(listener);
+	}
+
+	public void removeListener(GameListener listener) {
+		events.removeListener(listener);
+	}
+
+	private void publish(int type, PiecePosition pos, boolean black, PiecePosition[] positions) {
+		if (events.hasListeners()) {
+			events.publish(new GameEvent(type, pos, black, ply, gameStatus, positions));
+		}
+	}
+
+	/**
+	 * Publish the forbidden positions if they changed since last published.
+	 */
+	private void publishForbids() {
+		if (!events.hasListeners()) {
+			return;
+		}
+		if (publishedForbids.length == breakingRulesPos.size()) {
+			boolean same = true;
+			for (int i = 0; i < publishedForbids.length && same; i++) {
+				same = publishedForbids[i] == breakingRulesPos.get(i);
+			}
+			if (same) {
+				return;
+			}
+		}
+		publishedForbids = breakingRulesPos.toArray(new PiecePosition[breakingRulesPos.size()]);
+		publish(GameEvent.FORBIDS_CHANGED, null, false, publishedForbids);
+	}
+
+	/**
+	 * Publish the end of the game if it's over.
+	 */
+	private void publishGameOver() {
+		if (gameStatus != 0) {
+			publish(GameEvent.GAME_OVER, null, false, winnerPos.toArray(new PiecePosition[winnerPos.size()]));
+		}
+	}
+
+	public GameJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Set the journal to write the changes of the game to, or null to stop
+	 * journaling.
+	 */
+	public void setJournal(GameJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Return the number of moves on the board.
+	 */
+	public int getPly() {
+		return ply;
+	}
+
+	/**
+	 * Return the number of moves recorded, including the undone ones.
+	 */
+	public int getHistorySize() {
+		return moveHistory.size();
+	}
+
+	/**
+	 * Return the position of a recorded move, including the undone ones.
+	 */
+	PiecePosition getHistoryMove(int index) {
+		return moveHistory.get(index).pos;
+	}
+
+	/**
+	 * Return whether there's an undone move to redo.
+	 */
+	public boolean canRedo() {
+		return ply < moveHistory.size();
+	}
+
+	/**
+	 * Return whether the computer places the next piece.
+	 */
+	private boolean isComputersTurn() {
+		return whosTurn && autoPlacing == AUTO_PLACING_BLACK ||
+				!whosTurn && autoPlacing == AUTO_PLACING_WHITE;
+	}
+
+	/**
+	 * Undo the last step. The moves of the computer are undone as well.
 	 */
 	public void undo() {
 		// If the board is empty then do nothing.
-		if (blackPos.isEmpty() || whitePos.isEmpty() && autoPlacing == AUTO_PLACING_BLACK) {
-			return;
-		} else {
-			whosTurn = !whosTurn;
-			if (whosTurn) {
-				blackPos.remove(blackPos.size() - 1);
-			} else {
-				whitePos.remove(whitePos.size() - 1);
+		while (ply > 0 && !(blackPos.isEmpty() || whitePos.isEmpty() && autoPlacing == AUTO_PLACING_BLACK)) {
+			stepBack();
+			if (!isComputersTurn()) {
+				return;
 			}
-			clickedForbidPoint = false;
-			breaksWhichRule = "";
-			if (usingAdvancedRules && whosTurn) {
-				checkForbids();
+		}
+	}
+
+	/**
+	 * Redo the last undone step. The moves of the computer are redone as
+	 * well.
+	 */
+	public void redo() {
+		if (!canRedo()) {
+			return;
+		}
+		stepForward();
+		while (canRedo() && isComputersTurn()) {
+			stepForward();
+		}
+		skipComputersTurn();
+	}
+
+	/**
+	 * Jump to the position after the certain number of moves, which must be
+	 * in the move stack. Only the moves in between are undone or redone.
+	 */
+	public void seek(int targetPly) {
+		if (targetPly < 0 || targetPly > moveHistory.size()) {
+			throw new IllegalArgumentException("Invalid targetPly - " + targetPly);
+		}
+		while (ply > targetPly) {
+			stepBack();
+		}
+		while (ply < targetPly) {
+			stepForward();
+		}
+		skipComputersTurn();
+	}
+
+	/**
+	 * Leave a position where the computer is to move, as nothing would make
+	 * its move: back to the last move of the player as <code>undo</code>
+	 * does, or forward over the first move of the computer playing black.
+	 * Placing a move instead would drop the undone ones.
+	 */
+	private void skipComputersTurn() {
+		while (gameStatus == 0 && isComputersTurn()) {
+			if (ply > 0) {
+				stepBack();
+			} else if (canRedo()) {
+				stepForward();
 			} else {
-				breakingRulesPos.clear();
-			}
-			gameStatus = 0;
-			if (whosTurn && autoPlacing == AUTO_PLACING_BLACK ||
-					!whosTurn && autoPlacing == AUTO_PLACING_WHITE) {
-				undo();
+				return;
 			}
 		}
 	}
 
+	/**
+	 * Undo exactly one move by restoring the state saved in its record.
+	 */
+	private void stepBack() {
+		if (ply == 0) {
+			throw new IllegalStateException("No move to undo");
+		}
+		MoveRecord record = moveHistory.get(--ply);
+		if (journal != null) {
+			journal.append(GameJournal.UNDO, 0, 0);
+		}
+		if (record.black) {
+			blackPos.remove(blackPos.size() - 1);
+			positionHash.toggle(ZobristHash.BLACK, record.pos);
+			bitBoard.clear(BitBoard.BLACK, record.pos.getIndex());
+		} else {
+			whitePos.remove(whitePos.size() - 1);
+			positionHash.toggle(ZobristHash.WHITE, record.pos);
+			bitBoard.clear(BitBoard.WHITE, record.pos.getIndex());
+		}
+		whosTurn = record.black;
+		clickedForbidPoint = false;
+		breaksWhichRule = "";
+		changeForbids(record.forbidsAdded, record.forbidsRemoved, record.reasonsRemoved);
+		winnerPos.clear();
+		gameStatus = record.gameStatusBefore;
+		publish(GameEvent.UNDONE, record.pos, record.black, null);
+		publishForbids();
+	}
+
+	/**
+	 * Redo exactly one move by restoring the state saved in its record.
+	 */
+	private void stepForward() {
+		if (ply == moveHistory.size()) {
+			throw new IllegalStateException("No move to redo");
+		}
+		MoveRecord record = moveHistory.get(ply++);
+		if (journal != null) {
+			journal.append(GameJournal.REDO, 0, 0);
+		}
+		if (record.black) {
+			blackPos.add(record.pos);
+			positionHash.toggle(ZobristHash.BLACK, record.pos);
+			bitBoard.set(BitBoard.BLACK, record.pos.getIndex());
+		} else {
+			whitePos.add(record.pos);
+			positionHash.toggle(ZobristHash.WHITE, record.pos);
+			bitBoard.set(BitBoard.WHITE, record.pos.getIndex());
+		}
+		whosTurn = !record.black;
+		clickedForbidPoint = false;
+		breaksWhichRule = "";
+		changeForbids(record.forbidsRemoved, record.forbidsAdded, record.reasonsAdded);
+		winnerPos.clear();
+		for (int i = 0; i < record.winnerAfter.length; i++) {
+			winnerPos.add(record.winnerAfter[i]);
+		}
+		gameStatus = record.gameStatusAfter;
+		publish(GameEvent.PLACED, record.pos, record.black, null);
+		publishForbids();
+		publishGameOver();
+	}
+
+	private void restoreForbids(PiecePosition[] forbids, int[] reasons) {
+		clearForbids();
+		for (int i = 0; i < forbids.length; i++) {
+			breakingRulesPos.add(forbids[i]);
+			breakingRulesPosReason[forbids[i].getIndex()] = reasons[i];
+		}
+	}
+
+	/**
+	 * Take some forbidden positions away and add others, keeping the order
+	 * of <code>checkForbids</code>.
+	 */
+	private void changeForbids(PiecePosition[] removed, PiecePosition[] added, int[] reasons) {
+		for (PiecePosition pos : removed) {
+			breakingRulesPos.remove(pos);
+			breakingRulesPosReason[pos.getIndex()] = CheckForbids.NO_FORBIDDEN;
+		}
+		for (int i = 0; i < added.length; i++) {
+			breakingRulesPos.add(added[i]);
+			breakingRulesPosReason[added[i].getIndex()] = reasons[i];
+		}
+		breakingRulesPos.sort((a, b) -> a.getX() != b.getX() ? a.getX() - b.getX() : a.getY() - b.getY());
+	}
+
+	/**
+	 * Clear <code>breakingRulesPos</code> and the reasons.
+	 */
+	private void clearForbids() {
+		for (int i = 0; i < breakingRulesPos.size(); i++) {
+			breakingRulesPosReason[breakingRulesPos.get(i).getIndex()] = CheckForbids.NO_FORBIDDEN;
+		}
+		breakingRulesPos.clear();
+	}
+
+	/**
+	 * Put the piece of the current player on the board and push it to the
+	 * move stack. The undone moves are dropped.
+	 */
+	private void putPiece(PiecePosition pos) {
+		while (moveHistory.size() > ply) {
+			moveHistory.remove(moveHistory.size() - 1);
+		}
+		moveHistory.add(new MoveRecord(pos, whosTurn, gameStatus, breakingRulesPos, breakingRulesPosReason));
+		ply++;
+		if (journal != null) {
+			journal.append(GameJournal.PLACE, pos.getX(), pos.getY());
+		}
+		if (whosTurn) { // Black's turn.
+			blackPos.add(pos);
+			positionHash.toggle(ZobristHash.BLACK, pos);
+			bitBoard.set(BitBoard.BLACK, pos.getIndex());
+		} else { // White's turn.
+			whitePos.add(pos);
+			positionHash.toggle(ZobristHash.WHITE, pos);
+			bitBoard.set(BitBoard.WHITE, pos.getIndex());
+		}
+		publish(GameEvent.PLACED, pos, whosTurn, null);
+	}
+
 	/**
 	 * Reset the game.
 	 */
 	public void resetAll() {
+		if (journal != null) {
+			journal.restart(usingAdvancedRules, autoPlacing);
+		}
 		whosTurn = true;
 		clickedForbidPoint = false;
 		breaksWhichRule = "";
@@ -206,8 +575,14 @@ public final class Chess {
 		whitePos.clear();
 		winnerPos.clear();
 		// unbrokenChainPos.clear();
-		breakingRulesPos.clear();
+		clearForbids();
+		positionHash.clear();
+		bitBoard.clear();
+		moveHistory.clear();
+		ply = 0;
 		gameStatus = 0;
+		publish(GameEvent.RESET, null, false, null);
+		publishForbids();
 		autoPlace();
 	}
 
@@ -228,7 +603,7 @@ public final class Chess {
 		for (int y = 1; y <= BOARD_SIZE; y++) {
 			for (int x = 1; x <= BOARD_SIZE; x++) {
 				posTemp = PiecePosition.get(x, y);
-				if (!blackPos.contains(posTemp) && !whitePos.contains(posTemp)) {
+				if (bitBoard.isEmpty(posTemp.getIndex())) {
 					restPos.add(posTemp);
 				}
 			}
@@ -243,11 +618,7 @@ public final class Chess {
 		Collections.shuffle(restPos);
 
 		// Same as when click the board.
-		if (whosTurn) { // Black's turn.
-			blackPos.add(restPos.get(0));
-		} else { // White's turn.
-			whitePos.add(restPos.get(0));
-		}
+		putPiece(restPos.get(0));
 		updateGameStatus();
 		// whosTurn = !whosTurn;
 		// if (usingAdvancedRules) {
@@ -268,16 +639,16 @@ public final class Chess {
 	 */
 	public boolean place(PiecePosition pos) {
 		// If the position already has an piece.
-		if (blackPos.contains(pos) || whitePos.contains(pos)) {
+		if (!bitBoard.isEmpty(pos.getIndex())) {
 			return false;
 		}
 
 		// Calculate the positions that break the rules.
 		if (usingAdvancedRules) {
 			// If clicked on an invalid position.
-			if (breakingRulesPos.contains(pos)) {
+			if (breakingRulesPosReason[pos.getIndex()] != CheckForbids.NO_FORBIDDEN) {
 				clickedForbidPoint = true;
-				switch (breakingRulesPosReason.get(breakingRulesPos.indexOf(pos))) {
+				switch (breakingRulesPosReason[pos.getIndex()]) {
 					case CheckForbids.LONG_FORBIDDEN:
 						breaksWhichRule = "LONG_FORBIDDEN";
 						break;
@@ -290,8 +661,7 @@ public final class Chess {
 					default:
 						throw new IllegalArgumentException(
 								String.format("Invalid breakingRulesPosReason[%d] - %d",
-										breakingRulesPos.indexOf(pos),
-										breakingRulesPosReason.get(breakingRulesPos.indexOf(pos))));
+										pos.getIndex(), breakingRulesPosReason[pos.getIndex()]));
 				}
 				return false;
 			} else {
@@ -299,17 +669,13 @@ public final class Chess {
 				breaksWhichRule = "";
 			}
 		} else {
-			breakingRulesPos.clear();
+			clearForbids();
 			clickedForbidPoint = false;
 			breaksWhichRule = "";
 		}
 
 		// Place the piece.
-		if (whosTurn) { // Black's turn.
-			blackPos.add(pos);
-		} else { // White's turn.
-			whitePos.add(pos);
-		}
+		putPiece(pos);
 
 		// Check if the current player wins.
 		updateGameStatus();
@@ -322,32 +688,61 @@ public final class Chess {
 	 * changed.
 	 */
 	public void checkForbids() {
-		breakingRulesPos.clear();
+		long key = positionHash.getKey();
+		EngineCache.Entry cached = engineCache.getForbids(key, whosTurn, usingAdvancedRules);
+		if (cached != null) {
+			restoreForbids(cached.getForbids(), cached.getReasons());
+			publishForbids();
+			return;
+		}
+
+		clearForbids();
+		int[] found = forbidScanPool == null ? CheckForbids.scanForbids(bitBoard)
+				: CheckForbids.scanForbids(bitBoard, forbidScanPool);
+		// The same order whichever way the positions were checked.
 		for (int x = 1; x <= BOARD_SIZE; x++) {
 			for (int y = 1; y <= BOARD_SIZE; y++) {
-				// Stores the current position.
-				PiecePosition pos = PiecePosition.get(x, y);
-
-				// If the position already has a piece on it, passed.
-				if (blackPos.contains(pos) || whitePos.contains(pos)) {
-					continue;
-				}
-
-				int ifForbids = CheckForbids.checkForbids(pos);
+				int index = Cells.indexOf(x, y);
+				int ifForbids = found[index];
 				if (ifForbids == CheckForbids.NO_FORBIDDEN) {
 					continue;
 				}
-				breakingRulesPos.add(pos);
-				breakingRulesPosReason.add(ifForbids);
+				breakingRulesPos.add(PiecePosition.get(index));
+				breakingRulesPosReason[index] = ifForbids;
 			}
 		}
+
+		int[] reasons = new int[breakingRulesPos.size()];
+		for (int i = 0; i < reasons.length; i++) {
+			reasons[i] = breakingRulesPosReason[breakingRulesPos.get(i).getIndex()];
+		}
+		engineCache.putForbids(key, whosTurn, usingAdvancedRules,
+				breakingRulesPos.toArray(new PiecePosition[breakingRulesPos.size()]), reasons);
+		publishForbids();
 	}
 
 	/**
 	 * Check if the current player wins with the last move. (Variable
 	 * <code>whosTurn</code> marks the current player who makes the last move.)
 	 */
-	public void updateGameStatus() {
+	private void updateGameStatus() {
+		evaluateGameStatus();
+		// Save what the move changed for undo and redo.
+		if (ply > 0) {
+			moveHistory.get(ply - 1).saveAfter(gameStatus, breakingRulesPos, breakingRulesPosReason, winnerPos);
+		}
+		publishForbids();
+		publishGameOver();
+		if (gameStatus == 0) {
+			autoPlace();
+		}
+	}
+
+	/**
+	 * Update the game status, the current player and the forbidden positions
+	 * after a move.
+	 */
+	private void evaluateGameStatus() {
 		// Check priority: black / white wins -> tie
 
 		if (CheckForbids.checkIfWins()) {
@@ -367,8 +762,7 @@ public final class Chess {
 		for (int x = 1; x <= BOARD_SIZE; x++) {
 			for (int y = 1; y <= BOARD_SIZE; y++) {
 				posTemp = PiecePosition.get(x, y);
-				if (!blackPos.contains(posTemp) &&
-						!whitePos.contains(posTemp)) {
+				if (bitBoard.isEmpty(posTemp.getIndex())) {
 					restPos.add(posTemp);
 				}
 			}
@@ -394,13 +788,12 @@ public final class Chess {
 				return;
 			}
 		} else {
-			breakingRulesPos.clear();
+			clearForbids();
 			clickedForbidPoint = false;
 			breaksWhichRule = "";
 		}
 		// Otherwise no one wins.
 		gameStatus = 0;
-		autoPlace();
 	}
 
 	// *******Ϸĺ*******______ȷλ
@@ -413,42 +806,132 @@ public final class Chess {
 		return autoPlacing;
 	}
 
-	public int ratingTable(int computer, int player) {
-		if (computer > 0 && player > 0) {
-			return 0;
-		}
-		if (computer == 0 && player == 0) {
-			return 7;
-		}
-		if (computer == 1) {
-			return 35;
-		}
-		if (computer == 2) {
-			return 800;
-		}
-		if (computer == 3) {
-			return 15000;
-		}
-		if (computer == 4) {
-			return 800000;
+	/**
+	 * Set the computer player without resetting the game. Used when
+	 * restoring a game.
+	 */
+	void setAutoPlacing(int autoPlacing) {
+		this.autoPlacing = autoPlacing;
+	}
+
+	public RatingWeights getRatingWeights() {
+		return ratingWeights;
+	}
+
+	public void setRatingWeights(RatingWeights ratingWeights) {
+		this.ratingWeights = ratingWeights;
+		boolean usingTuples = evaluator == tupleEvaluator;
+		this.tupleEvaluator = new TupleEvaluator(ratingWeights);
+		if (usingTuples) {
+			evaluator = tupleEvaluator;
 		}
-		if (player == 1) {
-			return 15;
+		// The cached best moves were chosen by the old weights.
+		engineCache.clear();
+	}
+
+	public Evaluator getEvaluator() {
+		return evaluator;
+	}
+
+	/**
+	 * Set the evaluator scoring the moves of the computer, e.g. a
+	 * <code>PatternEvaluator</code>. It's only called on the thread placing
+	 * the pieces.
+	 *
+	 * @param evaluator
+	 *            The evaluator, or null for the tuple evaluator of the rating
+	 *            weights.
+	 */
+	public void setEvaluator(Evaluator evaluator) {
+		this.evaluator = evaluator == null ? tupleEvaluator : evaluator;
+		// The cached best moves were chosen by the old evaluator.
+		engineCache.clear();
+	}
+
+	public ForkJoinPool getForbidScanPool() {
+		return forbidScanPool;
+	}
+
+	/**
+	 * Set the pool checking the positions for forbidden, e.g.
+	 * <code>ForkJoinPool.commonPool()</code> on a machine with many cores.
+	 * The positions found and their order don't depend on it.
+	 *
+	 * @param forbidScanPool
+	 *            The pool, or null to check the positions one by one on the
+	 *            calling thread.
+	 */
+	public void setForbidScanPool(ForkJoinPool forbidScanPool) {
+		this.forbidScanPool = forbidScanPool;
+	}
+
+	public int ratingTable(int computer, int player) {
+		return ratingWeights.rate(computer, player);
+	}
+
+	public PiecePosition calcBestPos(ArrayList<PiecePosition> computerPos, ArrayList<PiecePosition> playerPos) {
+		int[][] scores;
+		boolean onBoard = computerPos == blackPos && playerPos == whitePos
+				|| computerPos == whitePos && playerPos == blackPos;
+		long key = positionHash.getKey();
+		if (onBoard) {
+			EngineCache.Entry cached = engineCache.getBestMove(key, computerPos == blackPos, usingAdvancedRules);
+			if (cached != null) {
+				if (usingAdvancedRules && whosTurn) {
+					// Keep the forbidden positions up to date as well.
+					checkForbids();
+				}
+				return cached.getBestMove();
+			}
+
+			// Take a forced win by continuous fours if there is one.
+			List<PiecePosition> vcf = vcfSolver.solve(blackPos, whitePos, computerPos == blackPos, usingAdvancedRules,
+					MoveChoice.VCF_MAX_FOURS, MoveChoice.VCF_NODE_LIMIT);
+			if (vcf != null) {
+				engineCache.putBestMove(key, computerPos == blackPos, usingAdvancedRules, vcf.get(0), null);
+				return vcf.get(0);
+			}
+			// Scoring the board, use the bit board.
+			scores = evaluator.evaluate(bitBoard, computerPos == blackPos ? BitBoard.BLACK : BitBoard.WHITE);
+		} else {
+			scores = calcScores(computerPos, playerPos, ratingWeights);
 		}
-		if (player == 2) {
-			return 400;
+
+		if (usingAdvancedRules && whosTurn) {
+			// Keep the forbidden positions shown up to date.
+			checkForbids();
 		}
-		if (player == 3) {
-			return 1800;
+
+		// The same choice as the tools playing the engine.
+		PiecePosition best = MoveChoice.byScores(bitBoard, scores, usingAdvancedRules && whosTurn);
+		if (best == null) {
+			throw new RuntimeException("Unknown case!");
 		}
-		if (player == 4) {
-			return 100000;
+		if (onBoard) {
+			engineCache.putBestMove(key, computerPos == blackPos, usingAdvancedRules, best, scores);
 		}
-		throw new RuntimeException("Undefined case - Computer(" + computer + "), Player(" + player + ")");
+		return best;
 	}
 
-	public PiecePosition calcBestPos(ArrayList<PiecePosition> computerPos, ArrayList<PiecePosition> playerPos) {
+	/**
+	 * Score every position of the board by summing up the ratings of the
+	 * five-piece tuples it belongs to. Only the given lists are read, so
+	 * several games can call this at the same time.
+	 *
+	 * @param computerPos
+	 *            The pieces of the side to move.
+	 * @param playerPos
+	 *            The pieces of the opponent.
+	 * @param weights
+	 *            The weights of the rating table.
+	 * @return The scores indexed by [x - 1][y - 1]. Occupied positions are
+	 *         scored as well and must be skipped by the caller.
+	 */
+	public static int[][] calcScores(ArrayList<PiecePosition> computerPos, ArrayList<PiecePosition> playerPos,
+			RatingWeights weights) {
 		int[][] scores = new int[BOARD_SIZE][BOARD_SIZE];
+		// The side to move as black, so looking up a piece is no list scan.
+		BitBoard pieces = new BitBoard(computerPos, playerPos);
 		int tupleScore = -1, computerPieces = 0, playerPieces = 0;
 		int posX = -1, posY = -1;
 
@@ -461,13 +944,13 @@ public final class Chess {
 				for (int piece = 0; piece < 5; piece++) {
 					posX = beginningCol + piece;
 					posY = row;
-					if (computerPos.contains(PiecePosition.get(posX, posY))) {
+					if (pieces.has(BitBoard.BLACK, Cells.indexOf(posX, posY))) {
 						computerPieces++;
-					} else if (playerPos.contains(PiecePosition.get(posX, posY))) {
+					} else if (pieces.has(BitBoard.WHITE, Cells.indexOf(posX, posY))) {
 						playerPieces++;
 					}
 				}
-				tupleScore = ratingTable(computerPieces, playerPieces);
+				tupleScore = weights.rate(computerPieces, playerPieces);
 				for (int piece = 0; piece < 5; piece++) {
 					posX = beginningCol + piece;
 					posY = row;
@@ -484,13 +967,13 @@ public final class Chess {
 				for (int piece = 0; piece < 5; piece++) {
 					posX = col;
 					posY = beginningRow + piece;
-					if (computerPos.contains(PiecePosition.get(posX, posY))) {
+					if (pieces.has(BitBoard.BLACK, Cells.indexOf(posX, posY))) {
 						computerPieces++;
-					} else if (playerPos.contains(PiecePosition.get(posX, posY))) {
+					} else if (pieces.has(BitBoard.WHITE, Cells.indexOf(posX, posY))) {
 						playerPieces++;
 					}
 				}
-				tupleScore = ratingTable(computerPieces, playerPieces);
+				tupleScore = weights.rate(computerPieces, playerPieces);
 				for (int piece = 0; piece < 5; piece++) {
 					posX = col;
 					posY = beginningRow + piece;
@@ -507,13 +990,13 @@ public final class Chess {
 				for (int piece = 0; piece < 5; piece++) {
 					posX = diagonal + beginningPiece - 1 + piece;
 					posY = beginningPiece + piece;
-					if (computerPos.contains(PiecePosition.get(posX, posY))) {
+					if (pieces.has(BitBoard.BLACK, Cells.indexOf(posX, posY))) {
 						computerPieces++;
-					} else if (playerPos.contains(PiecePosition.get(posX, posY))) {
+					} else if (pieces.has(BitBoard.WHITE, Cells.indexOf(posX, posY))) {
 						playerPieces++;
 					}
 				}
-				tupleScore = ratingTable(computerPieces, playerPieces);
+				tupleScore = weights.rate(computerPieces, playerPieces);
 				for (int piece = 0; piece < 5; piece++) {
 					posX = diagonal + beginningPiece - 1 + piece;
 					posY = beginningPiece + piece;
@@ -530,13 +1013,13 @@ public final class Chess {
 				for (int piece = 0; piece < 5; piece++) {
 					posX = beginningPiece + piece;
 					posY = 1 + diagonal + beginningPiece - 1 + piece;
-					if (computerPos.contains(PiecePosition.get(posX, posY))) {
+					if (pieces.has(BitBoard.BLACK, Cells.indexOf(posX, posY))) {
 						computerPieces++;
-					} else if (playerPos.contains(PiecePosition.get(posX, posY))) {
+					} else if (pieces.has(BitBoard.WHITE, Cells.indexOf(posX, posY))) {
 						playerPieces++;
 					}
 				}
-				tupleScore = ratingTable(computerPieces, playerPieces);
+				tupleScore = weights.rate(computerPieces, playerPieces);
 				for (int piece = 0; piece < 5; piece++) {
 					posX = beginningPiece + piece;
 					posY = 1 + diagonal + beginningPiece - 1 + piece;
@@ -553,13 +1036,13 @@ public final class Chess {
 				for (int piece = 0; piece < 5; piece++) {
 					posX = BOARD_SIZE - (diagonal - 1) - (beginningPiece - 1) - piece;
 					posY = beginningPiece + piece;
-					if (computerPos.contains(PiecePosition.get(posX, posY))) {
+					if (pieces.has(BitBoard.BLACK, Cells.indexOf(posX, posY))) {
 						computerPieces++;
-					} else if (playerPos.contains(PiecePosition.get(posX, posY))) {
+					} else if (pieces.has(BitBoard.WHITE, Cells.indexOf(posX, posY))) {
 						playerPieces++;
 					}
 				}
-				tupleScore = ratingTable(computerPieces, playerPieces);
+				tupleScore = weights.rate(computerPieces, playerPieces);
 				for (int piece = 0; piece < 5; piece++) {
 					posX = BOARD_SIZE - (diagonal - 1) - (beginningPiece - 1) - piece;
 					posY = beginningPiece + piece;
@@ -576,13 +1059,13 @@ public final class Chess {
 				for (int piece = 0; piece < 5; piece++) {
 					posX = BOARD_SIZE - (beginningPiece - 1) - piece;
 					posY = 1 + diagonal + beginningPiece - 1 + piece;
-					if (computerPos.contains(PiecePosition.get(posX, posY))) {
+					if (pieces.has(BitBoard.BLACK, Cells.indexOf(posX, posY))) {
 						computerPieces++;
-					} else if (playerPos.contains(PiecePosition.get(posX, posY))) {
+					} else if (pieces.has(BitBoard.WHITE, Cells.indexOf(posX, posY))) {
 						playerPieces++;
 					}
 				}
-				tupleScore = ratingTable(computerPieces, playerPieces);
+				tupleScore = weights.rate(computerPieces, playerPieces);
 				for (int piece = 0; piece < 5; piece++) {
 					posX = BOARD_SIZE - (beginningPiece - 1) - piece;
 					posY = 1 + diagonal + beginningPiece - 1 + piece;
@@ -591,29 +1074,7 @@ public final class Chess {
 			}
 		}
 
-		if (usingAdvancedRules && whosTurn) {
-			checkForbids();
-			for (int index = 0; index < breakingRulesPos.size(); index++) {
-				scores[breakingRulesPos.get(index).getX() - 1][breakingRulesPos.get(index).getY() - 1] = -1;
-			}
-		}
-
-		int maxScore = -1;
-		posX = -1;
-		posY = -1;
-		for (int col = 0; col < BOARD_SIZE; col++) {
-			for (int row = 0; row < BOARD_SIZE; row++) {
-				if (scores[col][row] > maxScore && !whitePos.contains(PiecePosition.get(col + 1, row + 1)) && !blackPos.contains(PiecePosition.get(col + 1, row + 1))) {
-					maxScore = scores[col][row];
-					posX = col + 1;
-					posY = row + 1;
-				}
-			}
-		}
-		if (maxScore == -1 || posX == -1 || posY == -1) {
-			throw new RuntimeException("Unknown case!");
-		}
-		return PiecePosition.get(posX, posY);
+		return scores;
 	}
 
 	public void autoPlace() {
@@ -622,7 +1083,6 @@ public final class Chess {
 			if (blackPos.isEmpty()) {
 				Random r = new Random();
 				this.place(PiecePosition.get(r.nextInt(3) + (BOARD_SIZE - 1) / 2, r.nextInt(3) + (BOARD_SIZE - 1) / 2));
-				MainBody.instance.paintingPanel.repaint();
 				return;
 			}
 			playerPos = whitePos;
@@ -653,9 +1113,13 @@ public final class Chess {
 				default:
 					throw new RuntimeException("Invalid autoPlacing - " + autoPlacing);
 			}
-			MainBody.instance.paintingPanel.resetAll();
+			if (journal != null) {
+				journal.append(GameJournal.AUTO, autoPlacing + 1, 0);
+			}
+			// The board listens for the reset, so the game doesn't depend on
+			// the GUI.
+			resetAll();
 			// autoPlace();
-			MainBody.instance.paintingPanel.repaint();
 		}
 	}
 }
@@ -0,0 +1,363 @@
+package io.github.eagle38394516;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays many games without the GUI, random or by the engine, on all the
+ * cores, and writes the features of every position to a columnar file for
+ * training.
+ *
+ * The file is little-endian, so it can be memory-mapped straight into
+ * arrays. The header is
+ *
+ * <pre>
+ * long  magic "GMKDATA1"
+ * int   number of columns
+ * int   0
+ * long  number of rows
+ * per column: 8 bytes name (ASCII, zero padded), long offset, int bytes per row, int 0
+ * </pre>
+ *
+ * followed by the columns, each the values of all the rows one after another
+ * and starting at an offset aligned to 8 bytes. The columns of a row are the
+ * position before a move:
+ *
+ * <pre>
+ * game    int       the number of the game
+ * ply     short     the number of moves before
+ * toMove  byte      0 black, 1 white
+ * move    short     the index of the position of the move played
+ * result  byte      1 black wins, -1 white wins, 0 tie
+ * black   4 longs   bit index of every black piece
+ * white   4 longs   bit index of every white piece
+ * forbid  4 longs   bit index of every forbidden position of black, if
+ *                   black moves under the advanced rules
+ * tuples  9 ints    the tuples by the categories of RatingWeights, the side
+ *                   to move being the computer, as counted in calcBestPos
+ * </pre>
+ *
+ * The indexes are the same as <code>Cells</code>.
+ */
+public final class DatasetGenerator {
+
+	/**
+	 * "GMKDATA1".
+	 */
+	private static final long MAGIC = 0x474D4B4441544131L;
+
+	private static final String[] NAMES = { "game", "ply", "toMove", "move", "result", "black", "white", "forbid",
+			"tuples" };
+	private static final int[] WIDTHS = { 4, 2, 1, 2, 1, 32, 32, 32, RatingWeights.SIZE * 4 };
+
+	/**
+	 * The games played at a time; their rows are written in order.
+	 */
+	private static final int CHUNK = 256;
+
+	private final boolean engine;
+	private final boolean usingAdvancedRules;
+	private final RatingWeights weights;
+	private final long seed;
+	private boolean usingVcf = false;
+
+	/**
+	 * @param engine
+	 *            True to let the engine play both sides after a random
+	 *            opening, false for random moves next to the pieces.
+	 * @param seed
+	 *            Game n is played with the seed plus n, so the data can be
+	 *            generated again.
+	 */
+	public DatasetGenerator(boolean engine, boolean usingAdvancedRules, RatingWeights weights, long seed) {
+		this.engine = engine;
+		this.usingAdvancedRules = usingAdvancedRules;
+		this.weights = weights;
+		this.seed = seed;
+	}
+
+	/**
+	 * Set whether the engine looks for a win by continuous fours first, as
+	 * the game does. False by default.
+	 */
+	public void setUsingVcf(boolean usingVcf) {
+		this.usingVcf = usingVcf;
+	}
+
+	/**
+	 * Play the games and write the file.
+	 *
+	 * @return The number of rows written.
+	 */
+	public long generate(File file, int games, int threads) throws IOException, InterruptedException {
+		File[] temps = new File[NAMES.length];
+		OutputStream[] columns = new OutputStream[NAMES.length];
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long rows = 0;
+		try {
+			for (int c = 0; c < NAMES.length; c++) {
+				temps[c] = new File(file.getPath() + "." + NAMES[c] + ".tmp");
+				columns[c] = new BufferedOutputStream(new FileOutputStream(temps[c]), 1 << 16);
+			}
+			for (int first = 0; first < games; first += CHUNK) {
+				List<Future<byte[][]>> chunk = new ArrayList<Future<byte[][]>>();
+				for (int game = first; game < Math.min(games, first + CHUNK); game++) {
+					final int id = game;
+					chunk.add(executor.submit(() -> playGame(id)));
+				}
+				for (Future<byte[][]> future : chunk) {
+					byte[][] game = future.get();
+					for (int c = 0; c < NAMES.length; c++) {
+						columns[c].write(game[c]);
+					}
+					rows += game[0].length / WIDTHS[0];
+				}
+			}
+			for (OutputStream column : columns) {
+				column.close();
+			}
+			writeFile(file, temps, rows);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			for (int c = 0; c < NAMES.length; c++) {
+				if (columns[c] != null) {
+					columns[c].close();
+				}
+				if (temps[c] != null) {
+					temps[c].delete();
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Write the header and copy the columns into the file.
+	 */
+	private static void writeFile(File file, File[] temps, long rows) throws IOException {
+		int headerSize = 24 + 24 * NAMES.length;
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(MAGIC).putInt(NAMES.length).putInt(0).putLong(rows);
+		long offset = align(headerSize);
+		long[] offsets = new long[NAMES.length];
+		for (int c = 0; c < NAMES.length; c++) {
+			byte[] name = new byte[8];
+			byte[] ascii = NAMES[c].getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(ascii, 0, name, 0, ascii.length);
+			offsets[c] = offset;
+			header.put(name).putLong(offset).putInt(WIDTHS[c]).putInt(0);
+			offset = align(offset + rows * WIDTHS[c]);
+		}
+		header.flip();
+
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			out.write(header, 0);
+			for (int c = 0; c < NAMES.length; c++) {
+				try (FileChannel in = FileChannel.open(temps[c].toPath(), StandardOpenOption.READ)) {
+					long size = in.size();
+					for (long done = 0; done < size;) {
+						done += in.transferTo(done, size - done, out.position(offsets[c] + done));
+					}
+				}
+			}
+			// Pad the last column.
+			if (out.size() < offset) {
+				out.write(ByteBuffer.allocate(1), offset - 1);
+			}
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Play one game and return the values of its rows, one array per column.
+	 */
+	byte[][] playGame(int id) {
+		Random r = new Random(seed + id);
+		List<Integer> moves = new ArrayList<Integer>();
+		int result;
+		if (engine) {
+			GameRecord record = WeightTuner.playGame(id, new TupleEvaluator(weights), new TupleEvaluator(weights), r,
+					usingAdvancedRules, Adjudication.OFF, usingVcf);
+			moves.addAll(record.getMoves());
+			result = record.getResult();
+		} else {
+			result = playRandomGame(r, moves);
+		}
+
+		int count = moves.size();
+		ByteBuffer[] columns = new ByteBuffer[NAMES.length];
+		for (int c = 0; c < NAMES.length; c++) {
+			columns[c] = ByteBuffer.allocate(count * WIDTHS[c]).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		ThreatBoard board = new ThreatBoard(new ArrayList<PiecePosition>(), new ArrayList<PiecePosition>(),
+				usingAdvancedRules);
+		long[] black = new long[4], white = new long[4], forbid = new long[4];
+		int[] tuples = new int[RatingWeights.SIZE];
+		for (int ply = 0; ply < count; ply++) {
+			int color = ply % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE;
+			Arrays.fill(forbid, 0);
+			if (usingAdvancedRules && color == BitBoard.BLACK) {
+				int[] reasons = CheckForbids.scanForbids(board.board);
+				for (int index = 0; index < Cells.COUNT; index++) {
+					if (reasons[index] != CheckForbids.NO_FORBIDDEN) {
+						forbid[index >>> 6] |= 1L << index;
+					}
+				}
+			}
+			TupleEvaluator.countTuples(board.board, color, tuples);
+
+			columns[0].putInt(id);
+			columns[1].putShort((short) ply);
+			columns[2].put((byte) color);
+			columns[3].putShort((short) (int) moves.get(ply));
+			columns[4].put((byte) result);
+			putMask(columns[5], black);
+			putMask(columns[6], white);
+			putMask(columns[7], forbid);
+			for (int tuple : tuples) {
+				columns[8].putInt(tuple);
+			}
+
+			int move = moves.get(ply);
+			board.place(color, move);
+			(color == BitBoard.BLACK ? black : white)[move >>> 6] |= 1L << move;
+		}
+
+		byte[][] values = new byte[NAMES.length][];
+		for (int c = 0; c < NAMES.length; c++) {
+			values[c] = columns[c].array();
+		}
+		return values;
+	}
+
+	private static void putMask(ByteBuffer buffer, long[] mask) {
+		for (long word : mask) {
+			buffer.putLong(word);
+		}
+	}
+
+	/**
+	 * Play random moves next to the pieces until someone wins or the board is
+	 * full. Black never plays a forbidden position.
+	 *
+	 * @return 1 if black wins, -1 if white wins and 0 for tie.
+	 */
+	private int playRandomGame(Random r, List<Integer> moves) {
+		ThreatBoard board = new ThreatBoard(new ArrayList<PiecePosition>(), new ArrayList<PiecePosition>(),
+				usingAdvancedRules);
+		int center = Cells.indexOf((Chess.BOARD_SIZE + 1) / 2, (Chess.BOARD_SIZE + 1) / 2);
+		int[] candidates = new int[Cells.COUNT];
+		for (int ply = 0; ply < Cells.COUNT; ply++) {
+			int color = ply % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE;
+			int count = 0;
+			if (ply == 0) {
+				candidates[count++] = center;
+			} else {
+				for (int index = 0; index < Cells.COUNT; index++) {
+					if (board.isEmpty(index) && hasNeighbour(board.board, index)) {
+						candidates[count++] = index;
+					}
+				}
+			}
+			int move = -1;
+			while (count > 0) {
+				int i = r.nextInt(count);
+				if (color == BitBoard.WHITE || !board.isForbidden(candidates[i])) {
+					move = candidates[i];
+					break;
+				}
+				candidates[i] = candidates[--count];
+			}
+			if (move < 0) {
+				// Only forbidden positions are left for black.
+				return 0;
+			}
+			board.place(color, move);
+			moves.add(move);
+			if (board.makesFive(color, move)) {
+				return color == BitBoard.BLACK ? 1 : -1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Return whether there's a piece at most two positions away.
+	 */
+	private static boolean hasNeighbour(BitBoard board, int index) {
+		for (int direction = 0; direction < Cells.DIRECTIONS; direction++) {
+			int cell = index;
+			for (int step = 0; step < 2; step++) {
+				cell = Cells.neighbour(direction, cell);
+				if (cell == Cells.NONE) {
+					break;
+				}
+				if (!board.isEmpty(cell)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Usage: DatasetGenerator [-games N] [-threads T] [-engine [-vcf]]
+	 * [-advanced] [-seed S] [-out FILE]
+	 */
+	public static void main(String[] args) throws Exception {
+		int games = 10000, threads = Runtime.getRuntime().availableProcessors();
+		boolean engine = false, usingVcf = false, usingAdvancedRules = false;
+		long seed = System.nanoTime();
+		File outFile = new File("games.dataset");
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-games")) {
+				games = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-engine")) {
+				engine = true;
+			} else if (args[i].equals("-vcf")) {
+				usingVcf = true;
+			} else if (args[i].equals("-advanced")) {
+				usingAdvancedRules = true;
+			} else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-out")) {
+				outFile = new File(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+
+		long start = System.nanoTime();
+		DatasetGenerator generator = new DatasetGenerator(engine, usingAdvancedRules, RatingWeights.loadOrDefault(),
+				seed);
+		generator.setUsingVcf(usingVcf);
+		long rows = generator.generate(outFile, games, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d games, %d positions in %.1f s: %.0f positions/s, %d bytes to %s%n", games, rows,
+				seconds, rows / seconds, outFile.length(), outFile);
+	}
+}
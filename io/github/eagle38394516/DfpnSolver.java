@@ -0,0 +1,460 @@
+package io.github.eagle38394516;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Proves or disproves that the side to move wins by threats, with a
+ * depth-first proof-number (df-pn) search. The attacker plays fours and open
+ * threes; the defender answers with the blocks, the refutations of the
+ * threes and fours of its own, as in <code>VctSolver</code>, but without a
+ * depth limit, so deep forced wins can be proven for the post-game analysis
+ * and the opening book. A disproof means there is no such win.
+ *
+ * The proof and disproof numbers are kept in a table of a fixed size in
+ * memory. Proven and disproven positions are spilled into a
+ * <code>ProofStore</code> when they're replaced in the table and at the end
+ * of each search, and looked up there on a miss, so later runs reuse the
+ * proofs of earlier ones.
+ *
+ * A solver is not thread-safe; use one per thread.
+ */
+public final class DfpnSolver {
+
+	/**
+	 * The proof or disproof number of a solved position.
+	 */
+	private static final int INFINITY = 100000000;
+
+	/**
+	 * The key marking a position with white attacking.
+	 */
+	private static final long WHITE_ATTACKS = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The key marking a position under the advanced rules.
+	 */
+	private static final long ADVANCED_RULES = 0xC2B2AE3D27D4EB4FL;
+
+	/**
+	 * The key marking a position with the defender to move.
+	 */
+	private static final long DEFENDING = 0x165667B19E3779F9L;
+
+	/**
+	 * The table of the positions: the key, and the proof and disproof numbers
+	 * for the side to move (phi and delta).
+	 */
+	private final long[] tableKeys;
+	private final int[] tablePhis;
+	private final int[] tableDeltas;
+	private final ProofStore store;
+
+	private ThreatBoard board;
+	private int attacker;
+	private long nodeLimit;
+	private boolean aborted;
+	private int winningMove;
+
+	private long nodes;
+	private long elapsed;
+	private int tableEntries = 0;
+	private long replacements = 0;
+	private long spills = 0;
+
+	/**
+	 * @param tableBits
+	 *            The number of bits of the table index, the table having
+	 *            <code>2^tableBits</code> entries of 16 bytes.
+	 * @param store
+	 *            The store of the solved positions, or null.
+	 */
+	public DfpnSolver(int tableBits, ProofStore store) {
+		this.tableKeys = new long[1 << tableBits];
+		this.tablePhis = new int[1 << tableBits];
+		this.tableDeltas = new int[1 << tableBits];
+		this.store = store;
+	}
+
+	/**
+	 * Search whether the side to move wins by threats.
+	 *
+	 * @param blackPos
+	 *            The black pieces.
+	 * @param whitePos
+	 *            The white pieces.
+	 * @param blackToMove
+	 *            Whether black is the attacker.
+	 * @param usingAdvancedRules
+	 *            Whether the advanced rules are enabled.
+	 * @param nodeLimit
+	 *            The largest number of positions to search.
+	 * @return <code>ProofStore.PROVEN</code>, <code>ProofStore.DISPROVEN</code>,
+	 *         or <code>ProofStore.UNKNOWN</code> if the node limit is reached.
+	 */
+	public int solve(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos,
+			boolean blackToMove, boolean usingAdvancedRules, long nodeLimit) {
+		this.board = new ThreatBoard(blackPos, whitePos, usingAdvancedRules);
+		this.attacker = blackToMove ? BitBoard.BLACK : BitBoard.WHITE;
+		this.nodeLimit = nodeLimit;
+		this.aborted = false;
+		this.winningMove = -1;
+		this.nodes = 0;
+		long start = System.nanoTime();
+
+		mid(true, INFINITY - 1, INFINITY - 1);
+		int index = lookUp(key(true));
+		int result = ProofStore.UNKNOWN;
+		if (index >= 0 && tablePhis[index] == 0) {
+			result = ProofStore.PROVEN;
+		} else if (index >= 0 && tableDeltas[index] == 0) {
+			result = ProofStore.DISPROVEN;
+		}
+		if (result == ProofStore.PROVEN) {
+			winningMove = findWinningMove();
+		}
+		elapsed = System.nanoTime() - start;
+		spillAll();
+		return result;
+	}
+
+	/**
+	 * Return the first move of the win proven by the last search, or null if
+	 * there's none or it's no longer known.
+	 */
+	public PiecePosition getWinningMove() {
+		return winningMove >= 0 ? PiecePosition.get(winningMove) : null;
+	}
+
+	/**
+	 * Return the number of positions searched by the last search.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Return the number of positions searched per second by the last search.
+	 */
+	public long getNodesPerSecond() {
+		return elapsed > 0 ? nodes * 1000000000L / elapsed : 0;
+	}
+
+	/**
+	 * Return the number of used entries of the table.
+	 */
+	public int getTableEntries() {
+		return tableEntries;
+	}
+
+	public int getTableSize() {
+		return tableKeys.length;
+	}
+
+	/**
+	 * Return the number of entries replaced by other positions so far.
+	 */
+	public long getReplacements() {
+		return replacements;
+	}
+
+	/**
+	 * Return the number of solved positions written to the store so far.
+	 */
+	public long getSpills() {
+		return spills;
+	}
+
+	/**
+	 * Search the position until its phi or delta reaches the threshold.
+	 *
+	 * @param attacking
+	 *            Whether the attacker is to move.
+	 */
+	private void mid(boolean attacking, int thresholdPhi, int thresholdDelta) {
+		if (++nodes > nodeLimit) {
+			aborted = true;
+			return;
+		}
+		long key = key(attacking);
+		int index = lookUp(key);
+		if (index >= 0 && (tablePhis[index] >= thresholdPhi || tableDeltas[index] >= thresholdDelta)) {
+			return;
+		}
+		ArrayList<Integer> moves = new ArrayList<Integer>();
+		int result = generate(attacking, moves);
+		if (result != ProofStore.UNKNOWN) {
+			save(key, result == ProofStore.PROVEN ? 0 : INFINITY, result == ProofStore.PROVEN ? INFINITY : 0);
+			return;
+		}
+
+		int color = attacking ? attacker : 1 - attacker;
+		long[] childKeys = new long[moves.size()];
+		for (int i = 0; i < childKeys.length; i++) {
+			board.place(color, moves.get(i));
+			childKeys[i] = key(!attacking);
+			board.remove(color, moves.get(i));
+		}
+
+		while (true) {
+			// The side to move wins if any move leaves the opponent lost, and
+			// loses if every move leaves the opponent won.
+			int phi = INFINITY, delta = 0, delta2 = INFINITY;
+			int best = -1, bestPhi = 0;
+			for (int i = 0; i < childKeys.length; i++) {
+				int entry = lookUp(childKeys[i]);
+				int childPhi = entry >= 0 ? tablePhis[entry] : 1;
+				int childDelta = entry >= 0 ? tableDeltas[entry] : 1;
+				delta = Math.min(INFINITY, delta + childPhi);
+				if (childDelta < phi) {
+					delta2 = phi;
+					phi = childDelta;
+					best = i;
+					bestPhi = childPhi;
+				} else if (childDelta < delta2) {
+					delta2 = childDelta;
+				}
+			}
+			if (phi >= thresholdPhi || delta >= thresholdDelta || aborted) {
+				save(key, phi, delta);
+				return;
+			}
+			int move = moves.get(best);
+			board.place(color, move);
+			mid(!attacking, Math.min(INFINITY - 1, thresholdDelta - delta + bestPhi),
+					Math.min(thresholdPhi, delta2 + 1));
+			board.remove(color, move);
+		}
+	}
+
+	/**
+	 * Generate the moves of the side to move, attacker or defender.
+	 *
+	 * @return <code>ProofStore.PROVEN</code> or
+	 *         <code>ProofStore.DISPROVEN</code> if the side to move wins or
+	 *         loses at once, or <code>ProofStore.UNKNOWN</code>.
+	 */
+	private int generate(boolean attacking, ArrayList<Integer> moves) {
+		int color = attacking ? attacker : 1 - attacker;
+		int opponent = 1 - color;
+
+		// Five in a row wins at once.
+		if (board.findFivePoint(color) != -1) {
+			return ProofStore.PROVEN;
+		}
+		// A four of the opponent has to be blocked.
+		int block = board.findFivePoint(opponent);
+		if (block == -2 || block >= 0 && !board.isLegal(color, block)) {
+			return ProofStore.DISPROVEN;
+		}
+		if (block >= 0) {
+			moves.add(block);
+			return ProofStore.UNKNOWN;
+		}
+
+		if (attacking) {
+			// The fours first, then the threes.
+			board.addFours(color, moves);
+			for (int index = 0; index < Cells.COUNT; index++) {
+				if (!board.isEmpty(index) || board.crowding(color, index) < 2 || moves.contains(index)) {
+					continue;
+				}
+				board.place(color, index);
+				boolean three = board.makesThree(color, index);
+				board.remove(color, index);
+				if (three) {
+					moves.add(index);
+				}
+			}
+		} else {
+			// The defender is safe unless the attacker threatens to make an
+			// open four. The refutations are the open four positions, the
+			// other positions around them on the lines of the threes, and
+			// the fours of the defender.
+			ArrayList<Integer> points = new ArrayList<Integer>();
+			for (int index = 0; index < Cells.COUNT; index++) {
+				if (board.isOpenFourPoint(opponent, index)) {
+					points.add(index);
+				}
+			}
+			if (points.isEmpty()) {
+				return ProofStore.PROVEN;
+			}
+			moves.addAll(points);
+			for (int point : points) {
+				for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+					int line = BitBoard.LINE[direction][point];
+					if (Integer.bitCount(board.board.getLine(opponent, direction, line)
+							& ThreatBoard.window(direction, point)) < 3) {
+						continue;
+					}
+					int offset = BitBoard.OFFSET[direction][point];
+					int length = BitBoard.LENGTH[direction][line];
+					for (int i = Math.max(0, offset - 4); i <= Math.min(length - 1, offset + 4); i++) {
+						int cell = BitBoard.CELL[direction][line][i];
+						if (board.isEmpty(cell) && !moves.contains(cell)) {
+							moves.add(cell);
+						}
+					}
+				}
+			}
+			board.addFours(color, moves);
+		}
+		for (int i = moves.size() - 1; i >= 0; i--) {
+			if (!board.isLegal(color, moves.get(i))) {
+				moves.remove(i);
+			}
+		}
+		return moves.isEmpty() ? ProofStore.DISPROVEN : ProofStore.UNKNOWN;
+	}
+
+	/**
+	 * Return the key of the position, the same for the symmetric positions.
+	 */
+	private long key(boolean attacking) {
+		return board.hash.getCanonicalKey() ^ (attacker == BitBoard.WHITE ? WHITE_ATTACKS : 0)
+				^ (board.usingAdvancedRules ? ADVANCED_RULES : 0) ^ (attacking ? 0 : DEFENDING);
+	}
+
+	private int slot(long key) {
+		return (int) (key ^ key >>> 32) & tableKeys.length - 1;
+	}
+
+	/**
+	 * Return the table entry of the position, loading a solved position from
+	 * the store if it's not in the table; or -1 if not found.
+	 */
+	private int lookUp(long key) {
+		int index = slot(key);
+		if (tableKeys[index] == key && (tablePhis[index] != 0 || tableDeltas[index] != 0)) {
+			return index;
+		}
+		if (store != null) {
+			int result = store.get(key);
+			if (result != ProofStore.UNKNOWN) {
+				save(key, result == ProofStore.PROVEN ? 0 : INFINITY, result == ProofStore.PROVEN ? INFINITY : 0);
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private void save(long key, int phi, int delta) {
+		int index = slot(key);
+		if (tableKeys[index] != key) {
+			if (tablePhis[index] != 0 || tableDeltas[index] != 0) {
+				replacements++;
+				spill(index);
+			} else {
+				tableEntries++;
+			}
+			tableKeys[index] = key;
+		}
+		tablePhis[index] = phi;
+		tableDeltas[index] = delta;
+	}
+
+	/**
+	 * Write the entry to the store if it's solved.
+	 */
+	private void spill(int index) {
+		if (store == null || tablePhis[index] != 0 && tableDeltas[index] != 0) {
+			return;
+		}
+		if (store.put(tableKeys[index], tablePhis[index] == 0 ? ProofStore.PROVEN : ProofStore.DISPROVEN)) {
+			spills++;
+		}
+	}
+
+	private void spillAll() {
+		for (int index = 0; index < tableKeys.length; index++) {
+			if (tablePhis[index] != 0 || tableDeltas[index] != 0) {
+				spill(index);
+			}
+		}
+		if (store != null) {
+			store.flush();
+		}
+	}
+
+	/**
+	 * Return the move of the proven root leaving the defender lost.
+	 */
+	private int findWinningMove() {
+		ArrayList<Integer> moves = new ArrayList<Integer>();
+		generate(true, moves);
+		for (int move : moves) {
+			board.place(attacker, move);
+			int index = lookUp(key(false));
+			board.remove(attacker, move);
+			if (index >= 0 && tableDeltas[index] == 0) {
+				return move;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Solve a position without the GUI and report the statistics.
+	 *
+	 * Usage: DfpnSolver [-advanced] [-nodes N] [-table BITS] [-store FILE]
+	 * [moves...]
+	 *
+	 * The moves are given in the board notation, black first.
+	 */
+	public static void main(String[] args) throws IOException {
+		Chess chess = Chess.getInstance();
+		chess.setAutoPlacing(Chess.AUTO_PLACING_OFF);
+		long nodeLimit = 10000000;
+		int tableBits = 20;
+		File storeFile = null;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-advanced")) {
+				chess.setUsingAdvancedRules(true);
+				first++;
+			} else if (args[first].equals("-nodes")) {
+				nodeLimit = Long.parseLong(args[first + 1]);
+				first += 2;
+			} else if (args[first].equals("-table")) {
+				tableBits = Integer.parseInt(args[first + 1]);
+				first += 2;
+			} else if (args[first].equals("-store")) {
+				storeFile = new File(args[first + 1]);
+				first += 2;
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[first]);
+			}
+		}
+		for (int i = first; i < args.length; i++) {
+			if (!chess.place(PiecePosition.parse(args[i]))) {
+				throw new IllegalArgumentException("Cannot place at " + args[i]);
+			}
+		}
+
+		ProofStore store = storeFile != null ? ProofStore.open(storeFile, 1 << 22) : null;
+		try {
+			DfpnSolver solver = new DfpnSolver(tableBits, store);
+			int result = solver.solve(chess.blackPos, chess.whitePos, chess.getWhosTurn(),
+					chess.isUsingAdvancedRules(), nodeLimit);
+			StringBuilder sb = new StringBuilder(
+					result == ProofStore.PROVEN ? "proven" : result == ProofStore.DISPROVEN ? "disproven" : "unknown");
+			if (solver.getWinningMove() != null) {
+				sb.append(" move ").append(solver.getWinningMove().toNotation());
+			}
+			sb.append(" nodes ").append(solver.getNodes()).append(" nps ").append(solver.getNodesPerSecond())
+					.append(" table ").append(solver.getTableEntries()).append('/').append(solver.getTableSize())
+					.append(" replaced ").append(solver.getReplacements()).append(" spilled ").append(solver.getSpills());
+			if (store != null) {
+				sb.append(" store ").append(store.size()).append('/').append(store.getCapacity())
+						.append(" hits ").append(store.getHits()).append(" misses ").append(store.getMisses());
+			}
+			System.out.println(sb);
+		} finally {
+			if (store != null) {
+				store.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package io.github.eagle38394516;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of what the engine computed for positions: the best move,
+ * the score map and the forbidden positions, so undoing, redoing and
+ * replaying known openings don't compute them again.
+ *
+ * The entries are keyed by the Zobrist key of the pieces, the side to move
+ * and whether the advanced rules are enabled. When full, the least recently
+ * used entry is dropped. An entry with its score map takes about 1.2 KB, so
+ * the default of 4096 entries stays around 5 MB.
+ *
+ * All the methods are synchronized, so one cache can be shared by several
+ * threads. The entries are immutable.
+ */
+public final class EngineCache {
+
+	/**
+	 * The default number of entries.
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * What is known about one position. Any part may be missing, as the
+	 * forbidden positions are usually computed before the best move.
+	 */
+	public static final class Entry {
+
+		private final PiecePosition bestMove;
+		private final int[][] scores;
+		private final PiecePosition[] forbids;
+		private final int[] reasons;
+
+		private Entry(PiecePosition bestMove, int[][] scores, PiecePosition[] forbids, int[] reasons) {
+			this.bestMove = bestMove;
+			this.scores = scores;
+			this.forbids = forbids;
+			this.reasons = reasons;
+		}
+
+		/**
+		 * Return the best move, or null if unknown.
+		 */
+		public PiecePosition getBestMove() {
+			return bestMove;
+		}
+
+		/**
+		 * Return a copy of the scores indexed by [x - 1][y - 1], or null if
+		 * unknown or the move was found without scoring.
+		 */
+		public int[][] getScores() {
+			if (scores == null) {
+				return null;
+			}
+			int[][] copy = new int[scores.length][];
+			for (int i = 0; i < scores.length; i++) {
+				copy[i] = scores[i].clone();
+			}
+			return copy;
+		}
+
+		/**
+		 * Return whether the move was chosen by the scores, rather than found
+		 * by a search without scoring.
+		 */
+		public boolean hasScores() {
+			return scores != null;
+		}
+
+		public boolean hasForbids() {
+			return forbids != null;
+		}
+
+		/**
+		 * Return a copy of the forbidden positions, or null if unknown.
+		 */
+		public PiecePosition[] getForbids() {
+			return forbids == null ? null : forbids.clone();
+		}
+
+		/**
+		 * Return a copy of which rule every forbidden position breaks, in the
+		 * same order, or null if unknown.
+		 */
+		public int[] getReasons() {
+			return reasons == null ? null : reasons.clone();
+		}
+	}
+
+	private static final class Key {
+		final long hash;
+		final boolean blackToMove;
+		final boolean usingAdvancedRules;
+
+		Key(long hash, boolean blackToMove, boolean usingAdvancedRules) {
+			this.hash = hash;
+			this.blackToMove = blackToMove;
+			this.usingAdvancedRules = usingAdvancedRules;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) obj;
+			return hash == k.hash && blackToMove == k.blackToMove && usingAdvancedRules == k.usingAdvancedRules;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(hash) * 4 + (blackToMove ? 2 : 0) + (usingAdvancedRules ? 1 : 0);
+		}
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<Key, Entry> entries;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public EngineCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            The largest number of entries.
+	 */
+	public EngineCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			// Inside the map Entry is Map.Entry, so the cache's one is named
+			// in full.
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, EngineCache.Entry> eldest) {
+				if (size() > EngineCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Return the entry of the position if its best move is known, otherwise
+	 * null.
+	 */
+	public synchronized Entry getBestMove(long hash, boolean blackToMove, boolean usingAdvancedRules) {
+		Entry entry = entries.get(new Key(hash, blackToMove, usingAdvancedRules));
+		return count(entry != null && entry.bestMove != null ? entry : null);
+	}
+
+	/**
+	 * Return the entry of the position if its forbidden positions are known,
+	 * otherwise null.
+	 */
+	public synchronized Entry getForbids(long hash, boolean blackToMove, boolean usingAdvancedRules) {
+		Entry entry = entries.get(new Key(hash, blackToMove, usingAdvancedRules));
+		return count(entry != null && entry.forbids != null ? entry : null);
+	}
+
+	private Entry count(Entry entry) {
+		if (entry != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return entry;
+	}
+
+	/**
+	 * Store the best move of the position.
+	 *
+	 * @param scores
+	 *            The scores indexed by [x - 1][y - 1], or null if the move was
+	 *            found without scoring. A copy is stored.
+	 */
+	public synchronized void putBestMove(long hash, boolean blackToMove, boolean usingAdvancedRules,
+			PiecePosition bestMove, int[][] scores) {
+		int[][] copy = null;
+		if (scores != null) {
+			copy = new int[scores.length][];
+			for (int i = 0; i < scores.length; i++) {
+				copy[i] = scores[i].clone();
+			}
+		}
+		Key key = new Key(hash, blackToMove, usingAdvancedRules);
+		Entry old = entries.get(key);
+		entries.put(key, old == null ? new Entry(bestMove, copy, null, null)
+				: new Entry(bestMove, copy, old.forbids, old.reasons));
+	}
+
+	/**
+	 * Store the forbidden positions of the position.
+	 *
+	 * @param reasons
+	 *            Which rule every forbidden position breaks, in the same
+	 *            order.
+	 */
+	public synchronized void putForbids(long hash, boolean blackToMove, boolean usingAdvancedRules,
+			PiecePosition[] forbids, int[] reasons) {
+		Key key = new Key(hash, blackToMove, usingAdvancedRules);
+		Entry old = entries.get(key);
+		entries.put(key, old == null ? new Entry(null, null, forbids.clone(), reasons.clone())
+				: new Entry(old.bestMove, old.scores, forbids.clone(), reasons.clone()));
+	}
+
+	/**
+	 * Drop all the entries, e.g. when the weights of the scoring change.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d/%d entries, %d hits, %d misses, %d evictions", entries.size(), capacity, hits,
+				misses, evictions);
+	}
+}
@@ -0,0 +1,602 @@
+package io.github.eagle38394516;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Shares the cores between the engines of many games in one process, so one
+ * deep search or slow forbidden scan can't starve the others.
+ *
+ * Each game opens a session with its budget per move: engine time, nodes and
+ * the time from the request to the answer. A move is a forbidden scan, if
+ * black is to move under the advanced rules, and an <code>Analysis</code>.
+ * At most <code>slots</code> moves run at a time; the others wait.
+ *
+ * The moves are preempted at checkpoints: after each row of the forbidden
+ * scan and every <code>sliceNodes</code> nodes of the search. There the move
+ * is charged for the engine time and nodes since the last checkpoint, the
+ * scan or the search is stopped if the move is over its budget, and the move
+ * gives its slot to a waiting move whose session has used less engine time.
+ * So the sessions get equal shares of the cores however deep they search,
+ * and the latency of a move is bounded by its budget even under overload. A
+ * session coming back after an idle time starts from the usage of the
+ * busiest running one, so it can't make up for the idle time by starving the
+ * others.
+ *
+ * A cancelled search answers its best move of the last finished iteration,
+ * or the best candidate if none finished. A stopped scan skips the search
+ * and answers the best candidate, only its own row being scanned if it lies
+ * past the rows already scanned.
+ */
+public final class EngineScheduler implements Closeable {
+
+	/**
+	 * The nodes between the checkpoints of the search by default.
+	 */
+	public static final long DEFAULT_SLICE_NODES = 2048;
+
+	/**
+	 * The number of latencies the percentiles are taken from.
+	 */
+	private static final int LATENCY_WINDOW = 4096;
+
+	private final int slots;
+	private final long sliceNodes;
+	private final TupleEvaluator evaluator;
+	private final ExecutorService threads;
+
+	/**
+	 * The moves waiting for a slot, the one of the session with the least
+	 * usage first.
+	 */
+	private final PriorityQueue<Move> waiting = new PriorityQueue<Move>(
+			(a, b) -> a.key != b.key ? Long.compare(a.key, b.key) : Long.compare(a.sequence, b.sequence));
+	private final List<Session> sessions = new ArrayList<Session>();
+	private int running = 0;
+	private long sequence = 0;
+
+	/**
+	 * The engine time of the session of the last move given a slot.
+	 */
+	private long virtualTime = 0;
+
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private int latencyCount = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param slots
+	 *            The number of moves running at a time, usually the number
+	 *            of cores given to the engines.
+	 * @param sliceNodes
+	 *            The nodes between the checkpoints of the search.
+	 */
+	public EngineScheduler(int slots, long sliceNodes, RatingWeights weights) {
+		if (slots <= 0 || sliceNodes <= 0) {
+			throw new IllegalArgumentException("Invalid slots or slice - " + slots + ", " + sliceNodes);
+		}
+		this.slots = slots;
+		this.sliceNodes = sliceNodes;
+		this.evaluator = new TupleEvaluator(weights);
+		this.threads = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "EngineScheduler move");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Open a session for a game.
+	 *
+	 * @param moveMillis
+	 *            The engine time of a move.
+	 * @param moveNodes
+	 *            The nodes of a move.
+	 * @param latencyMillis
+	 *            The time from the request of a move to the answer, waiting
+	 *            included.
+	 * @param maxDepth
+	 *            The depth of the last iteration of the search.
+	 */
+	public synchronized Session openSession(String name, long moveMillis, long moveNodes, long latencyMillis,
+			int maxDepth) {
+		if (closed) {
+			throw new IllegalStateException("The scheduler is closed");
+		}
+		Session session = new Session(name, moveMillis, moveNodes, latencyMillis, maxDepth);
+		sessions.add(session);
+		return session;
+	}
+
+	/**
+	 * Return the open sessions, to see their usage.
+	 */
+	public synchronized List<Session> getSessions() {
+		return Collections.unmodifiableList(new ArrayList<Session>(sessions));
+	}
+
+	/**
+	 * Return the number of moves waiting for a slot.
+	 */
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * Return the percentile of the latencies of the last moves in
+	 * milliseconds, or 0 if there're none.
+	 */
+	public double getLatencyPercentile(int percent) {
+		long[] window;
+		synchronized (this) {
+			window = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+		}
+		if (window.length == 0) {
+			return 0;
+		}
+		Arrays.sort(window);
+		return window[Math.min(window.length - 1, (int) Math.ceil(window.length * percent / 100.0) - 1)] / 1e6;
+	}
+
+	/**
+	 * Stop the scheduler. The moves still running or waiting fail.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		threads.shutdownNow();
+	}
+
+	/**
+	 * Return the usage of the sessions, one line each.
+	 */
+	@Override
+	public synchronized String toString() {
+		long total = 0;
+		for (Session session : sessions) {
+			total += session.engineNanos;
+		}
+		StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-12s %6s %10s %9s %6s %9s %9s %4s%n",
+				"session", "moves", "nodes", "engine ms", "share", "wait ms", "max ms", "cut"));
+		for (Session session : sessions) {
+			sb.append(String.format(Locale.ROOT, "%-12s %6d %10d %9d %5.1f%% %9d %9d %4d%n", session.name,
+					session.moves, session.nodes, session.engineNanos / 1000000,
+					total == 0 ? 0 : 100.0 * session.engineNanos / total, session.waitNanos / 1000000,
+					session.maxLatencyNanos / 1000000, session.cutMoves));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Wait for a slot. Holds the lock.
+	 */
+	private void acquire(Move move) {
+		if (closed) {
+			throw new IllegalStateException("The scheduler is closed");
+		}
+		move.key = move.session.virtualTime;
+		if (running < slots && waiting.isEmpty()) {
+			running++;
+			virtualTime = Math.max(virtualTime, move.key);
+		} else {
+			move.granted = false;
+			move.sequence = sequence++;
+			waiting.add(move);
+			long start = System.nanoTime();
+			try {
+				while (!move.granted) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				waiting.remove(move);
+				if (move.granted) {
+					running--;
+					grant();
+				}
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("The scheduler is closed");
+			}
+			move.session.waitNanos += System.nanoTime() - start;
+		}
+		move.sliceStart = System.nanoTime();
+	}
+
+	/**
+	 * Give the free slots to the waiting moves. Holds the lock.
+	 */
+	private void grant() {
+		while (running < slots && !waiting.isEmpty()) {
+			Move next = waiting.poll();
+			next.granted = true;
+			running++;
+			virtualTime = Math.max(virtualTime, next.key);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Charge the move for the engine time and nodes since the last
+	 * checkpoint. Holds the lock.
+	 */
+	private void charge(Move move) {
+		long now = System.nanoTime();
+		long nanos = now - move.sliceStart;
+		move.sliceStart = now;
+		move.engineNanos += nanos;
+		move.session.engineNanos += nanos;
+		move.session.virtualTime += nanos;
+		if (move.analysis != null) {
+			long nodes = move.analysis.getNodes();
+			move.session.nodes += nodes - move.chargedNodes;
+			move.chargedNodes = nodes;
+		}
+	}
+
+	/**
+	 * Charge the move, stop the search if the move is over its budget, and
+	 * give the slot to a waiting move of a session with less usage.
+	 *
+	 * @return Whether the move may go on, false once it is over its budget.
+	 */
+	private synchronized boolean checkpoint(Move move) {
+		charge(move);
+		Session session = move.session;
+		if (move.cut) {
+			return false;
+		}
+		if (move.engineNanos >= session.moveMillis * 1000000 || move.chargedNodes >= session.moveNodes
+				|| System.nanoTime() - move.requested >= session.latencyMillis * 1000000) {
+			move.cut = true;
+			if (move.analysis != null) {
+				move.analysis.cancel();
+			}
+			session.cutMoves++;
+			return false;
+		}
+		Move next = waiting.peek();
+		if (next != null && next.key < session.virtualTime) {
+			running--;
+			grant();
+			try {
+				acquire(move);
+			} catch (IllegalStateException e) {
+				// Closed while waiting: finish the move on no slot.
+				running++;
+				move.sliceStart = System.nanoTime();
+				move.cut = true;
+				if (move.analysis != null) {
+					move.analysis.cancel();
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Charge the move for its last slice and give up its slot.
+	 */
+	private synchronized void release(Move move) {
+		charge(move);
+		running--;
+		long latency = System.nanoTime() - move.requested;
+		latencies[latencyCount++ % LATENCY_WINDOW] = latency;
+		move.session.moves++;
+		move.session.maxLatencyNanos = Math.max(move.session.maxLatencyNanos, latency);
+		grant();
+	}
+
+	/**
+	 * The engine of one game and its usage.
+	 */
+	public final class Session {
+
+		private final String name;
+		private final long moveMillis;
+		private final long moveNodes;
+		private final long latencyMillis;
+		private final int maxDepth;
+
+		// Guarded by the scheduler.
+		private long moves = 0;
+		private long nodes = 0;
+		private long engineNanos = 0;
+		private long waitNanos = 0;
+		private long maxLatencyNanos = 0;
+		private long cutMoves = 0;
+		private long virtualTime = 0;
+
+		private Session(String name, long moveMillis, long moveNodes, long latencyMillis, int maxDepth) {
+			this.name = name;
+			this.moveMillis = moveMillis;
+			this.moveNodes = moveNodes;
+			this.latencyMillis = latencyMillis;
+			this.maxDepth = maxDepth;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Ask the engine for a move. The board is copied, so it can be
+		 * changed at once.
+		 *
+		 * @param color
+		 *            The color of the side to move.
+		 * @return The move, or null if the board is full.
+		 */
+		public CompletableFuture<PiecePosition> requestMove(BitBoard board, int color, boolean usingAdvancedRules) {
+			Move move = new Move(this, new BitBoard(board), color, usingAdvancedRules);
+			synchronized (EngineScheduler.this) {
+				if (closed) {
+					move.result.completeExceptionally(new IllegalStateException("The scheduler is closed"));
+					return move.result;
+				}
+				// Idle time gives no credit.
+				virtualTime = Math.max(virtualTime, EngineScheduler.this.virtualTime);
+			}
+			try {
+				threads.execute(move);
+			} catch (RejectedExecutionException e) {
+				// The scheduler was closed meanwhile.
+				move.result.completeExceptionally(new IllegalStateException("The scheduler is closed", e));
+			}
+			return move.result;
+		}
+
+		/**
+		 * Remove the session from the scheduler. Moves already asked for are
+		 * still answered.
+		 */
+		public void close() {
+			synchronized (EngineScheduler.this) {
+				sessions.remove(this);
+			}
+		}
+
+		/**
+		 * Return the number of answered moves.
+		 */
+		public long getMoves() {
+			synchronized (EngineScheduler.this) {
+				return moves;
+			}
+		}
+
+		public long getNodes() {
+			synchronized (EngineScheduler.this) {
+				return nodes;
+			}
+		}
+
+		/**
+		 * Return the time the moves held a slot.
+		 */
+		public long getEngineMillis() {
+			synchronized (EngineScheduler.this) {
+				return engineNanos / 1000000;
+			}
+		}
+
+		/**
+		 * Return the time the moves waited for a slot.
+		 */
+		public long getWaitMillis() {
+			synchronized (EngineScheduler.this) {
+				return waitNanos / 1000000;
+			}
+		}
+
+		/**
+		 * Return the longest time from the request of a move to the answer.
+		 */
+		public long getMaxLatencyMillis() {
+			synchronized (EngineScheduler.this) {
+				return maxLatencyNanos / 1000000;
+			}
+		}
+
+		/**
+		 * Return the number of moves whose scan or search was stopped by the
+		 * budget.
+		 */
+		public long getCutMoves() {
+			synchronized (EngineScheduler.this) {
+				return cutMoves;
+			}
+		}
+	}
+
+	/**
+	 * A move asked for by a session.
+	 */
+	private final class Move implements Runnable {
+
+		private final Session session;
+		private final BitBoard board;
+		private final int color;
+		private final boolean usingAdvancedRules;
+		private final long requested = System.nanoTime();
+		private final CompletableFuture<PiecePosition> result = new CompletableFuture<PiecePosition>();
+
+		// Guarded by the scheduler.
+		private long key;
+		private long sequence;
+		private boolean granted;
+		private long sliceStart;
+		private long engineNanos = 0;
+		private long chargedNodes = 0;
+		private boolean cut = false;
+
+		private volatile Analysis analysis = null;
+		private PiecePosition best = null;
+
+		Move(Session session, BitBoard board, int color, boolean usingAdvancedRules) {
+			this.session = session;
+			this.board = board;
+			this.color = color;
+			this.usingAdvancedRules = usingAdvancedRules;
+		}
+
+		@Override
+		public void run() {
+			synchronized (EngineScheduler.this) {
+				try {
+					acquire(this);
+				} catch (IllegalStateException e) {
+					result.completeExceptionally(e);
+					return;
+				}
+			}
+			try {
+				List<PiecePosition> forbids = new ArrayList<PiecePosition>();
+				boolean scanning = usingAdvancedRules && color == BitBoard.BLACK;
+				int[] reasons = new int[scanning ? Cells.COUNT : 0];
+				BitBoard scanned = scanning ? new BitBoard(board) : null;
+				// The positions before it have been scanned.
+				int scannedEnd = scanning ? 0 : Cells.COUNT;
+				boolean goingOn = true;
+				if (scanning) {
+					// Row by row, with a checkpoint after each.
+					while (goingOn && scannedEnd < Cells.COUNT) {
+						CheckForbids.scanForbids(scanned, scannedEnd, scannedEnd + Chess.BOARD_SIZE, reasons);
+						scannedEnd += Chess.BOARD_SIZE;
+						goingOn = checkpoint(this);
+					}
+					for (int index = 0; index < scannedEnd; index++) {
+						if (reasons[index] != CheckForbids.NO_FORBIDDEN) {
+							forbids.add(PiecePosition.get(index));
+						}
+					}
+				}
+				if (goingOn) {
+					search(forbids);
+				}
+
+				if (best == null) {
+					int[] candidates = evaluator.candidates(board, color,
+							scannedEnd < Cells.COUNT ? Cells.COUNT : 1 + forbids.size());
+					for (int i = 0; i < candidates.length && best == null; i++) {
+						int index = candidates[i];
+						if (index >= scannedEnd) {
+							CheckForbids.scanForbids(scanned, index, index + 1, reasons);
+						}
+						if (!scanning || reasons[index] == CheckForbids.NO_FORBIDDEN) {
+							best = PiecePosition.get(index);
+						}
+					}
+				}
+				release(this);
+				result.complete(best);
+			} catch (RuntimeException e) {
+				release(this);
+				result.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Search the move, excluding the forbidden positions.
+		 */
+		private void search(List<PiecePosition> forbids) {
+			Analysis search = new Analysis(board, color, usingAdvancedRules, forbids, evaluator, 1,
+					session.maxDepth);
+			search.addListener(new AnalysisListener() {
+				@Override
+				public void iterationFinished(int depth, long nodes, List<AnalysisLine> lines) {
+					if (!lines.isEmpty()) {
+						best = lines.get(0).getMove();
+					}
+				}
+
+				@Override
+				public void analysisStopped(boolean cancelled) {
+				}
+			});
+			search.setCheckpoint(sliceNodes, () -> checkpoint(this));
+			analysis = search;
+			search.run();
+		}
+	}
+
+	/**
+	 * Play games on a few sessions, some searching much deeper than the
+	 * others, and print the usage of the sessions and the latencies.
+	 *
+	 * Usage: EngineScheduler [-slots N] [-light L] [-heavy H] [-moves M]
+	 * [-millis MS] [-advanced]
+	 */
+	public static void main(String[] args) throws Exception {
+		int slots = Runtime.getRuntime().availableProcessors(), light = 6, heavy = 2, moves = 20;
+		long moveMillis = 200;
+		boolean usingAdvancedRules = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-slots")) {
+				slots = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-light")) {
+				light = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-heavy")) {
+				heavy = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-moves")) {
+				moves = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-millis")) {
+				moveMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-advanced")) {
+				usingAdvancedRules = true;
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+
+		EngineScheduler scheduler = new EngineScheduler(slots, DEFAULT_SLICE_NODES, RatingWeights.loadOrDefault());
+		List<Thread> games = new ArrayList<Thread>();
+		for (int g = 0; g < light + heavy; g++) {
+			boolean deep = g >= light;
+			// The heavy games would search for seconds a move without the
+			// budget.
+			Session session = scheduler.openSession((deep ? "heavy " : "light ") + g, moveMillis, Long.MAX_VALUE,
+					moveMillis * (light + heavy), deep ? 8 : 3);
+			long seed = g;
+			final int plies = moves;
+			final boolean advanced = usingAdvancedRules;
+			Thread game = new Thread(() -> {
+				BitBoard board = new BitBoard();
+				Random r = new Random(seed);
+				board.set(BitBoard.BLACK, Cells.indexOf(8, 8));
+				board.set(BitBoard.WHITE, Cells.indexOf(7 + r.nextInt(3), 7 + (r.nextBoolean() ? 0 : 2)));
+				for (int ply = 2; ply < plies; ply++) {
+					int color = ply % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE;
+					PiecePosition pos = session.requestMove(board, color, advanced).join();
+					if (pos == null) {
+						break;
+					}
+					board.set(color, pos.getIndex());
+					if (board.checkFive(color, pos.getIndex(), advanced && color == BitBoard.BLACK) >= 0) {
+						break;
+					}
+				}
+			}, session.getName());
+			games.add(game);
+			game.start();
+		}
+		for (Thread game : games) {
+			game.join();
+		}
+		System.out.print(scheduler);
+		System.out.printf(Locale.ROOT, "p50 %.1fms, p99 %.1fms%n", scheduler.getLatencyPercentile(50),
+				scheduler.getLatencyPercentile(99));
+		scheduler.close();
+	}
+}
@@ -0,0 +1,78 @@
+package io.github.eagle38394516;
+
+import java.util.Arrays;
+
+/**
+ * Scores positions for the engines: every position of the board as a move,
+ * and the whole board for the search.
+ *
+ * @see TupleEvaluator
+ * @see PatternEvaluator
+ */
+public interface Evaluator {
+
+	/**
+	 * Score every position of the board for the side to move. The higher the
+	 * score, the better the move; the scores of the empty positions are at
+	 * least 0.
+	 *
+	 * @param color
+	 *            The color of the side to move.
+	 * @return The scores indexed by [x - 1][y - 1], the same as
+	 *         <code>Chess.calcScores</code>.
+	 */
+	int[][] evaluate(BitBoard board, int color);
+
+	/**
+	 * Evaluate the whole position for the side to move, positive if it's
+	 * better for the side to move.
+	 */
+	int score(BitBoard board, int color);
+
+	/**
+	 * Return the empty positions with the highest scores for the side to
+	 * move, best first.
+	 *
+	 * @param count
+	 *            The largest number of positions to return.
+	 * @return The indexes of the positions.
+	 */
+	default int[] candidates(BitBoard board, int color, int count) {
+		int[][] scores = evaluate(board, color);
+		int[] best = new int[count];
+		int[] bestScores = new int[count];
+		int found = 0;
+		for (int index = 0; index < Cells.COUNT; index++) {
+			if (!board.isEmpty(index)) {
+				continue;
+			}
+			int score = scores[index % Chess.BOARD_SIZE][index / Chess.BOARD_SIZE];
+			if (found == count && score <= bestScores[count - 1]) {
+				continue;
+			}
+			// Insertion into the sorted list.
+			int i = found < count ? found++ : count - 1;
+			while (i > 0 && bestScores[i - 1] < score) {
+				best[i] = best[i - 1];
+				bestScores[i] = bestScores[i - 1];
+				i--;
+			}
+			best[i] = index;
+			bestScores[i] = score;
+		}
+		return found == count ? best : Arrays.copyOf(best, found);
+	}
+
+	/**
+	 * Put the empty positions with the highest scores for the side to move
+	 * into the array, best first, as many as fit. Evaluators override it to
+	 * allocate nothing, so searches can reuse one array per ply.
+	 *
+	 * @return The number of positions put.
+	 */
+	default int candidates(BitBoard board, int color, int[] moves) {
+		int[] best = candidates(board, color, moves.length);
+		System.arraycopy(best, 0, moves, 0, best.length);
+		return best.length;
+	}
+}
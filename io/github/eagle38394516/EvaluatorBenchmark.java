@@ -0,0 +1,82 @@
+package io.github.eagle38394516;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the search speed of the evaluators: runs the same fixed-depth
+ * <code>Analysis</code> with each of them on positions from engine games and
+ * prints the nodes per second. The network is only included if its file
+ * exists.
+ *
+ * Usage: EvaluatorBenchmark [positions] [depth] [network file]
+ */
+public final class EvaluatorBenchmark {
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private EvaluatorBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		File network = new File(args.length > 2 ? args[2] : NnueWeights.WEIGHTS_FILE);
+		RatingWeights weights = RatingWeights.loadOrDefault();
+
+		// Positions after 10 to 29 moves of engine games.
+		Random r = new Random(289);
+		List<BitBoard> boards = new ArrayList<BitBoard>();
+		List<Integer> colors = new ArrayList<Integer>();
+		while (boards.size() < positions) {
+			List<Integer> moves = new ArrayList<Integer>();
+			WeightTuner.playGame(weights, weights, r, false, moves);
+			int plies = 10 + r.nextInt(20);
+			if (moves.size() <= plies) {
+				continue;
+			}
+			BitBoard board = new BitBoard();
+			for (int ply = 0; ply < plies; ply++) {
+				board.set(ply % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE, moves.get(ply));
+			}
+			boards.add(board);
+			colors.add(plies % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE);
+		}
+
+		List<String> names = new ArrayList<String>();
+		List<Evaluator> evaluators = new ArrayList<Evaluator>();
+		names.add("tuple");
+		evaluators.add(new TupleEvaluator(weights));
+		names.add("pattern");
+		evaluators.add(new PatternEvaluator());
+		if (network.isFile()) {
+			NnueWeights nnue = NnueWeights.load(network);
+			names.add("nnue " + nnue.getHidden());
+			evaluators.add(new NnueEvaluator(nnue));
+		} else {
+			System.out.println("No network file " + network + ", skipping the network.");
+		}
+
+		for (int round = 0; round < 3; round++) {
+			StringBuilder line = new StringBuilder("Round " + (round + 1) + ":");
+			for (int e = 0; e < evaluators.size(); e++) {
+				long nodes = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < boards.size(); i++) {
+					Analysis analysis = new Analysis(boards.get(i), colors.get(i), false,
+							new ArrayList<PiecePosition>(), evaluators.get(e), 1, depth);
+					analysis.run();
+					nodes += analysis.getNodes();
+				}
+				double seconds = (System.nanoTime() - start) / 1e9;
+				line.append(String.format(" %s %.0f nodes/s,", names.get(e), nodes / seconds));
+			}
+			line.setLength(line.length() - 1);
+			System.out.println(line);
+		}
+	}
+}
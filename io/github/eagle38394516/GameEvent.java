@@ -0,0 +1,115 @@
+package io.github.eagle38394516;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A change of the game on the board, published by <code>Chess</code> to its
+ * <code>GameListener</code>s. Events are immutable, so they can be handed to
+ * other threads.
+ *
+ * @see Chess#addListener(GameListener)
+ */
+public final class GameEvent {
+
+	/**
+	 * A piece is placed, by a move or a redo. <code>getPos()</code> and
+	 * <code>isBlack()</code> tell which.
+	 */
+	public static final int PLACED = 1;
+
+	/**
+	 * A piece is taken back by an undo.
+	 */
+	public static final int UNDONE = 2;
+
+	/**
+	 * The forbidden positions of the player to move changed.
+	 * <code>getPositions()</code> holds the new ones.
+	 */
+	public static final int FORBIDS_CHANGED = 3;
+
+	/**
+	 * The game is over. <code>getGameStatus()</code> tells the result and
+	 * <code>getPositions()</code> holds the winning chain, if any.
+	 */
+	public static final int GAME_OVER = 4;
+
+	/**
+	 * The board is cleared.
+	 */
+	public static final int RESET = 5;
+
+	/**
+	 * Events were lost: the listener fell too far behind, or threw on an
+	 * earlier batch. It should read the game again; the events after this
+	 * one may already be part of what it reads. It's always the last event of
+	 * its batch, and <code>getPly()</code> is -1.
+	 */
+	public static final int DROPPED = 6;
+
+	private final int type;
+	private final PiecePosition pos;
+	private final boolean black;
+	private final int ply;
+	private final int gameStatus;
+	private final List<PiecePosition> positions;
+
+	GameEvent(int type, PiecePosition pos, boolean black, int ply, int gameStatus, PiecePosition[] positions) {
+		this.type = type;
+		this.pos = pos;
+		this.black = black;
+		this.ply = ply;
+		this.gameStatus = gameStatus;
+		this.positions = positions == null ? Collections.<PiecePosition> emptyList()
+				: Collections.unmodifiableList(Arrays.asList(positions));
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Return the position of the piece placed or taken back, otherwise null.
+	 */
+	public PiecePosition getPos() {
+		return pos;
+	}
+
+	/**
+	 * Return whether the piece placed or taken back is black.
+	 */
+	public boolean isBlack() {
+		return black;
+	}
+
+	/**
+	 * Return the number of moves on the board after the change.
+	 */
+	public int getPly() {
+		return ply;
+	}
+
+	/**
+	 * Return the game status after the change, the same as
+	 * <code>Chess.getGameStatus()</code>.
+	 */
+	public int getGameStatus() {
+		return gameStatus;
+	}
+
+	/**
+	 * Return the forbidden positions or the winning chain.
+	 */
+	public List<PiecePosition> getPositions() {
+		return positions;
+	}
+
+	@Override
+	public String toString() {
+		String[] names = { "", "PLACED", "UNDONE", "FORBIDS_CHANGED", "GAME_OVER", "RESET", "DROPPED" };
+		return names[type] + " ply " + ply + (pos == null ? "" : " " + pos.toNotation())
+				+ (positions.isEmpty() ? "" : " " + positions.size() + " positions");
+	}
+}
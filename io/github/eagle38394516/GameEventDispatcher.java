@@ -0,0 +1,129 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the events of a game to the listeners. Every listener gets a
+ * lock-free queue and a daemon thread draining it, so publishing an event is
+ * a few non-blocking queue offers however slow the listeners are.
+ *
+ * The queues are bounded by <code>CAPACITY</code>: the events a listener has
+ * no room for are dropped and replaced by one <code>GameEvent.DROPPED</code>.
+ *
+ * @see GameListener
+ */
+final class GameEventDispatcher {
+
+	/**
+	 * The most events waiting for one listener.
+	 */
+	static final int CAPACITY = 1024;
+
+	private static final GameEvent DROPPED = new GameEvent(GameEvent.DROPPED, null, false, -1, 0, null);
+
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	private static final class Subscription implements Runnable {
+		final GameListener listener;
+		final ConcurrentLinkedQueue<GameEvent> queue = new ConcurrentLinkedQueue<GameEvent>();
+		final AtomicInteger size = new AtomicInteger();
+		final Thread thread;
+		volatile boolean removed = false;
+
+		/**
+		 * Whether events were dropped since the last batch.
+		 */
+		final AtomicBoolean dropped = new AtomicBoolean();
+
+		/**
+		 * Whether the listener threw on the last batch. Only used by the
+		 * thread of the subscription.
+		 */
+		boolean failed = false;
+
+		Subscription(GameListener listener) {
+			this.listener = listener;
+			this.thread = new Thread(this, "GameListener " + listener.getClass().getName());
+			thread.setDaemon(true);
+		}
+
+		void offer(GameEvent event) {
+			if (size.incrementAndGet() > CAPACITY) {
+				size.decrementAndGet();
+				dropped.set(true);
+			} else {
+				queue.offer(event);
+			}
+			LockSupport.unpark(thread);
+		}
+
+		@Override
+		public void run() {
+			List<GameEvent> batch = new ArrayList<GameEvent>();
+			while (!removed) {
+				for (GameEvent event; (event = queue.poll()) != null;) {
+					size.decrementAndGet();
+					batch.add(event);
+				}
+				if (dropped.getAndSet(false)) {
+					batch.add(DROPPED);
+				}
+				if (batch.isEmpty()) {
+					// Woken by the next publish, or at once if one came since
+					// the queue was drained.
+					LockSupport.park(this);
+					continue;
+				}
+				// A failed batch is only made up for with the next events,
+				// so a listener failing on DROPPED doesn't spin.
+				if (failed && batch.get(batch.size() - 1) != DROPPED) {
+					batch.add(DROPPED);
+				}
+				failed = false;
+				try {
+					listener.gameChanged(new ArrayList<GameEvent>(batch));
+				} catch (RuntimeException e) {
+					failed = true;
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	void addListener(GameListener listener) {
+		Subscription subscription = new Subscription(listener);
+		subscriptions.add(subscription);
+		subscription.thread.start();
+	}
+
+	void removeListener(GameListener listener) {
+		for (Subscription subscription : subscriptions) {
+			if (subscription.listener == listener) {
+				subscriptions.remove(subscription);
+				subscription.removed = true;
+				LockSupport.unpark(subscription.thread);
+			}
+		}
+	}
+
+	/**
+	 * Return whether anyone listens, so the events needn't be built
+	 * otherwise.
+	 */
+	boolean hasListeners() {
+		return !subscriptions.isEmpty();
+	}
+
+	void publish(GameEvent event) {
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package io.github.eagle38394516;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * One self-play game to be played: the weights of both sides, the seed of
+ * the random opening, the rules, the adjudication and whether both sides look
+ * for a VCF first. Sent to the workers by a <code>SelfPlayCoordinator</code>.
+ */
+public final class GameJob {
+
+	private final long id;
+	private final RatingWeights black;
+	private final RatingWeights white;
+	private final long seed;
+	private final boolean usingAdvancedRules;
+	private final Adjudication adjudication;
+	private final boolean usingVcf;
+
+	/**
+	 * @param id
+	 *            The unique id of the job, which the record of the game
+	 *            carries back.
+	 */
+	public GameJob(long id, RatingWeights black, RatingWeights white, long seed, boolean usingAdvancedRules) {
+		this(id, black, white, seed, usingAdvancedRules, Adjudication.OFF);
+	}
+
+	public GameJob(long id, RatingWeights black, RatingWeights white, long seed, boolean usingAdvancedRules,
+			Adjudication adjudication) {
+		this(id, black, white, seed, usingAdvancedRules, adjudication, false);
+	}
+
+	/**
+	 * @param usingVcf
+	 *            Whether both sides look for a win by continuous fours first,
+	 *            as the game does.
+	 */
+	public GameJob(long id, RatingWeights black, RatingWeights white, long seed, boolean usingAdvancedRules,
+			Adjudication adjudication, boolean usingVcf) {
+		this.id = id;
+		this.black = black;
+		this.white = white;
+		this.seed = seed;
+		this.usingAdvancedRules = usingAdvancedRules;
+		this.adjudication = adjudication;
+		this.usingVcf = usingVcf;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public RatingWeights getBlack() {
+		return black;
+	}
+
+	public RatingWeights getWhite() {
+		return white;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public boolean isUsingAdvancedRules() {
+		return usingAdvancedRules;
+	}
+
+	public Adjudication getAdjudication() {
+		return adjudication;
+	}
+
+	public boolean isUsingVcf() {
+		return usingVcf;
+	}
+
+	/**
+	 * Play the game.
+	 */
+	public GameRecord play() {
+		return WeightTuner.playGame(id, new TupleEvaluator(black), new TupleEvaluator(white), new Random(seed),
+				usingAdvancedRules, adjudication, usingVcf);
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeLong(id);
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			out.writeInt(black.get(index));
+		}
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			out.writeInt(white.get(index));
+		}
+		out.writeLong(seed);
+		out.writeBoolean(usingAdvancedRules);
+		adjudication.write(out);
+		out.writeBoolean(usingVcf);
+	}
+
+	static GameJob read(DataInput in) throws IOException {
+		long id = in.readLong();
+		int[] black = new int[RatingWeights.SIZE];
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			black[index] = in.readInt();
+		}
+		int[] white = new int[RatingWeights.SIZE];
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			white[index] = in.readInt();
+		}
+		long seed = in.readLong();
+		boolean usingAdvancedRules = in.readBoolean();
+		Adjudication adjudication = Adjudication.read(in);
+		boolean usingVcf = in.readBoolean();
+		return new GameJob(id, new RatingWeights(black), new RatingWeights(white), seed, usingAdvancedRules,
+				adjudication, usingVcf);
+	}
+}
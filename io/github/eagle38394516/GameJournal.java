@@ -0,0 +1,347 @@
+package io.github.eagle38394516;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A journal of the game on the board, so the game survives a crash of the
+ * program. Every move, undo, redo and reset is written as one record of four
+ * bytes: the operation and up to three bytes of arguments.
+ *
+ * Appending a record only puts it into a memory buffer. A background thread
+ * writes and forces the buffered records to the disk a few milliseconds after
+ * the first of them (group commit), so journaling never waits for the disk,
+ * and sleeps while there's nothing to write. If writing fails, the error is
+ * reported once and the journal stops, keeping the game up to the failure.
+ *
+ * The journal only keeps the current game. A reset cuts the file and starts
+ * it again with the rules and the computer player, and opening the journal
+ * rewrites it as the moves of the game, so neither the file nor the replay
+ * grows with the games played or the moves undone and redone.
+ *
+ * @see #open(File, Chess)
+ */
+public final class GameJournal implements Closeable {
+
+	/**
+	 * A piece is placed. Arguments: x, y.
+	 */
+	static final byte PLACE = 1;
+
+	/**
+	 * One move is undone.
+	 */
+	static final byte UNDO = 2;
+
+	/**
+	 * One move is redone.
+	 */
+	static final byte REDO = 3;
+
+	/**
+	 * The game is reset.
+	 */
+	static final byte RESET = 4;
+
+	/**
+	 * The rules are changed. Argument: 1 if the advanced rules are enabled.
+	 */
+	static final byte RULES = 5;
+
+	/**
+	 * The computer player is changed. Argument: autoPlacing + 1.
+	 */
+	static final byte AUTO = 6;
+
+	/**
+	 * The size of one record in bytes.
+	 */
+	private static final int RECORD_SIZE = 4;
+
+	/**
+	 * How long the records gather before a group commit.
+	 */
+	private static final long GROUP_COMMIT_MILLIS = 5;
+
+	/**
+	 * The size of each of the two buffers.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+
+	/**
+	 * The buffer the records are appended to, swapped with
+	 * <code>writing</code> at every group commit.
+	 */
+	private ByteBuffer pending = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private ByteBuffer writing = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * Whether the file is cut before the pending records are written.
+	 */
+	private boolean truncating = false;
+
+	/**
+	 * Whether writing failed, after which the records are dropped.
+	 */
+	private boolean failed = false;
+
+	private final Thread flusher;
+	private volatile boolean closed = false;
+
+	private GameJournal(FileChannel channel) {
+		this.channel = channel;
+		flusher = new Thread("GameJournal flusher") {
+			@Override
+			public void run() {
+				try {
+					while (awaitRecords()) {
+						Thread.sleep(GROUP_COMMIT_MILLIS);
+						flush();
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (IOException e) {
+					System.err.println("The journal stopped, the later changes of the game aren't saved");
+					e.printStackTrace();
+				}
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Wait until there are records to write.
+	 *
+	 * @return False if the journal is closed or has failed.
+	 */
+	private synchronized boolean awaitRecords() throws InterruptedException {
+		while (!closed && !failed && pending.position() == 0) {
+			wait();
+		}
+		return !closed && !failed;
+	}
+
+	/**
+	 * Open the journal file, replay the game stored in it on the board, and
+	 * let the board write its later changes to it. A record broken by a crash
+	 * at the end of the file is dropped.
+	 */
+	public static GameJournal open(File file, Chess chess) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			replay(channel, chess);
+		}
+		compact(file.toPath(), chess);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		GameJournal journal = new GameJournal(channel);
+		chess.setJournal(journal);
+		return journal;
+	}
+
+	/**
+	 * Replace the file by the records of the game on the board: the rules,
+	 * the computer player, every recorded move and the undos back to the
+	 * current one. The records are written to another file first and moved
+	 * over the journal, so a crash leaves one of the two whole.
+	 */
+	private static void compact(Path file, Chess chess) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * (2 + 2 * chess.getHistorySize()));
+		put(buffer, RULES, chess.isUsingAdvancedRules() ? 1 : 0, 0);
+		put(buffer, AUTO, chess.getAutoPlacing() + 1, 0);
+		for (int i = 0; i < chess.getHistorySize(); i++) {
+			PiecePosition pos = chess.getHistoryMove(i);
+			put(buffer, PLACE, pos.getX(), pos.getY());
+		}
+		for (int i = chess.getPly(); i < chess.getHistorySize(); i++) {
+			put(buffer, UNDO, 0, 0);
+		}
+		buffer.flip();
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		AtomicFile.replace(temporary, file);
+	}
+
+	private static void put(ByteBuffer buffer, byte op, int a, int b) {
+		buffer.put(op).put((byte) a).put((byte) b).put((byte) 0);
+	}
+
+	/**
+	 * Rebuild the game of the journal on the board by streaming the records.
+	 * The computer player is off while replaying, since its moves are in the
+	 * journal as well, and the last one recorded is set at the end.
+	 */
+	private static void replay(FileChannel channel, Chess chess) throws IOException {
+		GameJournal journal = chess.getJournal();
+		chess.setJournal(null);
+		chess.setAutoPlacing(Chess.AUTO_PLACING_OFF);
+		chess.resetAll();
+		int autoPlacing = Chess.AUTO_PLACING_OFF;
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		channel.position(0);
+		replaying: while (channel.read(buffer) > 0) {
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				byte op = buffer.get();
+				int a = buffer.get() & 0xFF;
+				int b = buffer.get() & 0xFF;
+				buffer.get();
+				try {
+					switch (op) {
+						case PLACE:
+							if (!chess.place(PiecePosition.get(a, b))) {
+								throw new IllegalStateException("Cannot place at " + PiecePosition.get(a, b));
+							}
+							break;
+						case UNDO:
+							chess.seek(chess.getPly() - 1);
+							break;
+						case REDO:
+							chess.seek(chess.getPly() + 1);
+							break;
+						case RESET:
+							chess.resetAll();
+							break;
+						case RULES:
+							chess.setUsingAdvancedRules(a != 0);
+							break;
+						case AUTO:
+							autoPlacing = a - 1;
+							break;
+						default:
+							throw new IllegalStateException("Invalid record " + op);
+					}
+				} catch (RuntimeException e) {
+					// The rest of the journal is broken.
+					e.printStackTrace();
+					break replaying;
+				}
+			}
+			buffer.compact();
+		}
+
+		chess.setAutoPlacing(autoPlacing);
+		chess.setJournal(journal);
+	}
+
+	/**
+	 * Append a record. Returns at once; the record reaches the disk with the
+	 * next group commit.
+	 */
+	synchronized void append(byte op, int a, int b) {
+		if (closed || failed) {
+			return;
+		}
+		if (pending.position() == 0) {
+			// The first record of a group wakes the flusher.
+			notifyAll();
+		}
+		if (pending.remaining() < RECORD_SIZE) {
+			// Too many records in one interval, grow the buffer.
+			ByteBuffer larger = ByteBuffer.allocateDirect(pending.capacity() * 2);
+			pending.flip();
+			larger.put(pending);
+			pending = larger;
+		}
+		put(pending, op, a, b);
+	}
+
+	/**
+	 * Start the journal again for a new game: the pending records are
+	 * dropped, and the next group commit cuts the file and writes a reset
+	 * with the settings kept from the last game.
+	 */
+	synchronized void restart(boolean usingAdvancedRules, int autoPlacing) {
+		if (closed || failed) {
+			return;
+		}
+		pending.clear();
+		truncating = true;
+		append(RESET, 0, 0);
+		append(RULES, usingAdvancedRules ? 1 : 0, 0);
+		append(AUTO, autoPlacing + 1, 0);
+	}
+
+	/**
+	 * Write the pending records to the disk.
+	 *
+	 * @throws IOException
+	 *             If writing fails. The journal stops then, since the
+	 *             records after a gap would replay another game.
+	 */
+	public void flush() throws IOException {
+		// The channel lock keeps the buffer being written from being swapped
+		// back in before it's written. Appending only takes the other lock.
+		synchronized (channel) {
+			ByteBuffer buffer;
+			boolean truncate;
+			synchronized (this) {
+				if (failed || pending.position() == 0) {
+					return;
+				}
+				buffer = pending;
+				pending = writing;
+				writing = buffer;
+				truncate = truncating;
+				truncating = false;
+			}
+			try {
+				if (truncate) {
+					channel.truncate(0);
+				}
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			} catch (IOException e) {
+				synchronized (this) {
+					failed = true;
+					pending.clear();
+				}
+				throw e;
+			} finally {
+				buffer.clear();
+			}
+		}
+	}
+
+	/**
+	 * Write the pending records and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		// Interrupting the flusher while it writes would close the channel,
+		// so wait for it to stop by itself.
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
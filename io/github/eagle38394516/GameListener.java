@@ -0,0 +1,28 @@
+package io.github.eagle38394516;
+
+import java.util.List;
+
+/**
+ * Receives the changes of the game on the board.
+ *
+ * Every listener has its own thread, which hands it the events in batches:
+ * all the events published since its last call, oldest first. So a slow
+ * listener only falls behind and never holds up the game or the other
+ * listeners. A listener touching Swing components has to move to the event
+ * dispatch thread itself.
+ *
+ * A listener falling too far behind misses the newer events and gets
+ * <code>GameEvent.DROPPED</code> instead, so its queue stays bounded. An
+ * exception thrown by the listener goes to the uncaught exception handler of
+ * its thread, and the next batch ends with <code>DROPPED</code>, as the
+ * listener may have missed part of the batch.
+ *
+ * @see Chess#addListener(GameListener)
+ */
+public interface GameListener {
+
+	/**
+	 * Called with the events not seen yet, never with an empty list.
+	 */
+	void gameChanged(List<GameEvent> events);
+}
@@ -0,0 +1,156 @@
+package io.github.eagle38394516;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The record of a played <code>GameJob</code>: the result, the moves and
+ * whether the game was adjudicated.
+ *
+ * Written compactly as the job id, the result, the adjudication reason, the
+ * number of moves and one byte per move, the index of its position. A file
+ * of records starts with <code>FILE_MAGIC</code> and
+ * <code>FILE_VERSION</code>, so files of another format are rejected instead
+ * of misread.
+ */
+public final class GameRecord {
+
+	/**
+	 * The first int of a file of records, "GMKR".
+	 */
+	public static final int FILE_MAGIC = 0x474D4B52;
+
+	/**
+	 * The format of the records, the int after <code>FILE_MAGIC</code>. The
+	 * records of the first format had neither the header nor the
+	 * adjudication.
+	 */
+	public static final int FILE_VERSION = 2;
+
+	private final long id;
+	private final int result;
+	private final List<Integer> moves;
+	private final int adjudication;
+
+	/**
+	 * @param result
+	 *            1 if black wins, -1 if white wins and 0 for tie.
+	 * @param moves
+	 *            The indexes of the positions of the moves, black first.
+	 */
+	public GameRecord(long id, int result, List<Integer> moves) {
+		this(id, result, moves, Adjudication.NONE);
+	}
+
+	/**
+	 * @param adjudication
+	 *            One of the reasons of <code>Adjudication</code>, the result
+	 *            being adjudicated after the moves unless <code>NONE</code>.
+	 */
+	public GameRecord(long id, int result, List<Integer> moves, int adjudication) {
+		this.id = id;
+		this.result = result;
+		this.moves = Collections.unmodifiableList(new ArrayList<Integer>(moves));
+		this.adjudication = adjudication;
+	}
+
+	/**
+	 * Return the id of the job.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Return 1 if black wins, -1 if white wins and 0 for tie.
+	 */
+	public int getResult() {
+		return result;
+	}
+
+	public List<Integer> getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Return the reason the game was adjudicated for, see
+	 * <code>Adjudication</code>.
+	 */
+	public int getAdjudication() {
+		return adjudication;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeByte(result);
+		out.writeByte(adjudication);
+		out.writeByte(moves.size());
+		for (int move : moves) {
+			out.writeByte(move);
+		}
+	}
+
+	static GameRecord read(DataInput in) throws IOException {
+		long id = in.readLong();
+		int result = in.readByte();
+		int adjudication = in.readUnsignedByte();
+		int count = in.readUnsignedByte();
+		List<Integer> moves = new ArrayList<Integer>(count);
+		for (int i = 0; i < count; i++) {
+			moves.add(in.readUnsignedByte());
+		}
+		return new GameRecord(id, result, moves, adjudication);
+	}
+
+	static void writeHeader(DataOutput out) throws IOException {
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(FILE_VERSION);
+	}
+
+	/**
+	 * @throws IOException
+	 *             If the header isn't that of this format.
+	 */
+	static void readHeader(DataInput in) throws IOException {
+		int magic, version;
+		try {
+			magic = in.readInt();
+			version = in.readInt();
+		} catch (EOFException e) {
+			throw new IOException("Not a file of game records");
+		}
+		if (magic != FILE_MAGIC) {
+			throw new IOException("Not a file of game records");
+		}
+		if (version != FILE_VERSION) {
+			throw new IOException("Game records of version " + version + ", expected " + FILE_VERSION);
+		}
+	}
+
+	/**
+	 * Read all the records of a file written by
+	 * <code>SelfPlayCoordinator</code>.
+	 *
+	 * @throws IOException
+	 *             If the file isn't of this format.
+	 */
+	public static List<GameRecord> readFile(File file) throws IOException {
+		List<GameRecord> records = new ArrayList<GameRecord>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			readHeader(in);
+			while (in.available() > 0) {
+				records.add(read(in));
+			}
+		}
+		return records;
+	}
+}
@@ -8,8 +8,12 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * The main panel of the game.
@@ -71,10 +75,48 @@ public final class GomokuPanel extends JPanel {
 	 */
 	private static final Chess chess = Chess.getInstance();
 
+	/**
+	 * The number of moves shown by the analysis mode.
+	 */
+	private static final int ANALYSIS_MULTI_PV = 5;
+
+	/**
+	 * The depth of the analysis.
+	 */
+	private static final int ANALYSIS_DEPTH = 6;
+
+	/**
+	 * Whether the best moves are analyzed and shown on the board.
+	 */
+	private boolean analysisMode = false;
+
+	/**
+	 * The running analysis and the position it analyzes, only touched on the
+	 * event dispatch thread.
+	 */
+	private Analysis analysis;
+	private long analyzedKey;
+
+	/**
+	 * The latest results of the analysis.
+	 */
+	private volatile List<AnalysisLine> analysisLines;
+
+	/**
+	 * The forbidden positions and the last move as last drawn, so a change
+	 * of the game only repaints where they were and are. Only touched on the
+	 * event dispatch thread.
+	 */
+	private List<PiecePosition> shownForbids = Collections.emptyList();
+	private PiecePosition shownLastMove;
+
 	/**
 	 * Initializations when create the chess board.
 	 */
 	private GomokuPanel() {
+		// Every change of the game repaints the board. The instance is
+		// created before the static field of the chess is set.
+		Chess.getInstance().addListener(events -> SwingUtilities.invokeLater(() -> gameChanged(events)));
 		this.addMouseListener(new MouseAdapter() {
 			@Override
 			public void mousePressed(MouseEvent e) {
@@ -113,10 +155,11 @@ public final class GomokuPanel extends JPanel {
 							return;
 						}
 
-						chess.place(PiecePosition.get(x, y));
-
-						// Refresh the panel.
-						repaint();
+						// The panel is repainted by the game events, except for
+						// the prompt of a forbidden position.
+						if (!chess.place(PiecePosition.get(x, y))) {
+							repaint();
+						}
 					}
 				}
 			}
@@ -127,6 +170,125 @@ public final class GomokuPanel extends JPanel {
 		return instance;
 	}
 
+	public boolean isAnalysisMode() {
+		return analysisMode;
+	}
+
+	/**
+	 * Turn the analysis mode on or off.
+	 */
+	public void setAnalysisMode(boolean analysisMode) {
+		this.analysisMode = analysisMode;
+		if (analysisMode) {
+			restartAnalysis();
+		} else {
+			stopAnalysis();
+		}
+		repaint();
+	}
+
+	/**
+	 * Follow the changes of the game: repaint the positions they touch, and
+	 * replace an analysis of an old position by one of the new position.
+	 */
+	private void gameChanged(List<GameEvent> events) {
+		boolean moved = false;
+		boolean whole = analysisMode;
+		for (GameEvent event : events) {
+			switch (event.getType()) {
+				case GameEvent.PLACED:
+				case GameEvent.UNDONE:
+					moved = true;
+					repaintPosition(event.getPos());
+					break;
+				case GameEvent.FORBIDS_CHANGED:
+					repaintPositions(shownForbids);
+					shownForbids = event.getPositions();
+					repaintPositions(shownForbids);
+					break;
+				case GameEvent.GAME_OVER:
+					// The forbidden positions aren't drawn any more.
+					repaintPositions(shownForbids);
+					repaintPositions(event.getPositions());
+					break;
+				default:
+					// Reset, or events were lost.
+					moved = true;
+					whole = true;
+					shownForbids = new ArrayList<PiecePosition>(chess.breakingRulesPos);
+			}
+		}
+		if (moved && analysisMode && (analysis == null || analyzedKey != chess.getPositionHash().getKey())) {
+			restartAnalysis();
+		}
+
+		PiecePosition lastMove = chess.getWhosTurn() ? last(chess.whitePos) : last(chess.blackPos);
+		if (whole) {
+			repaint();
+		} else {
+			repaintPosition(shownLastMove);
+			repaintPosition(lastMove);
+			// The prompt strings.
+			repaint(0, STRING_POSITIONY - GRID_SPACING, getWidth(), getHeight());
+		}
+		shownLastMove = lastMove;
+	}
+
+	private static PiecePosition last(List<PiecePosition> pieces) {
+		return pieces.isEmpty() ? null : pieces.get(pieces.size() - 1);
+	}
+
+	/**
+	 * Repaint the square of a position, if any.
+	 */
+	private void repaintPosition(PiecePosition pos) {
+		if (pos != null) {
+			repaint(pos.getX() * GRID_SPACING - PIECE_RADIUS - 1, pos.getY() * GRID_SPACING - PIECE_RADIUS - 1,
+					PIECE_DIAMETER + 2, PIECE_DIAMETER + 2);
+		}
+	}
+
+	private void repaintPositions(List<PiecePosition> positions) {
+		for (PiecePosition pos : positions) {
+			repaintPosition(pos);
+		}
+	}
+
+	/**
+	 * Start analyzing the current position, cancelling the previous
+	 * analysis.
+	 */
+	private void restartAnalysis() {
+		stopAnalysis();
+		analyzedKey = chess.getPositionHash().getKey();
+		if (chess.isGameOver()) {
+			return;
+		}
+		final Analysis started = new Analysis(chess, ANALYSIS_MULTI_PV, ANALYSIS_DEPTH);
+		started.addListener(new AnalysisListener() {
+			@Override
+			public void iterationFinished(int depth, long nodes, List<AnalysisLine> lines) {
+				if (!started.isCancelled()) {
+					analysisLines = lines;
+					repaint();
+				}
+			}
+
+			@Override
+			public void analysisStopped(boolean cancelled) {
+			}
+		});
+		analysis = started.start();
+	}
+
+	private void stopAnalysis() {
+		if (analysis != null) {
+			analysis.cancel();
+			analysis = null;
+		}
+		analysisLines = null;
+	}
+
 	/**
 	 * The actions when pressing the undo button.
 	 */
@@ -134,16 +296,28 @@ public final class GomokuPanel extends JPanel {
 		// Take actions only when the game is not over.
 		// if (!chess.isGameOver()) {
 		chess.undo();
-		repaint();
 		// }
 	}
 
+	/**
+	 * The actions when pressing the redo button.
+	 */
+	public void redo() {
+		chess.redo();
+	}
+
+	/**
+	 * The actions when going to a move of the move stack.
+	 */
+	public void seek(int ply) {
+		chess.seek(ply);
+	}
+
 	/**
 	 * The actions when pressing the reset button.
 	 */
 	public void resetAll() {
 		chess.resetAll();
-		repaint();
 	}
 
 	public void randomPlacingOneStep() {
@@ -158,7 +332,6 @@ public final class GomokuPanel extends JPanel {
 	 */
 	public void placeByRandom() {
 		chess.placeByRandom();
-		repaint();
 	}
 
 	/**
@@ -181,6 +354,32 @@ public final class GomokuPanel extends JPanel {
 		drawChessBoard(g2d);
 		drawPromptStrings(g2d);
 		drawPieces(g2d);
+		if (analysisMode) {
+			drawAnalysis(g2d);
+		}
+	}
+
+	/**
+	 * Draw the best moves of the analysis as a heat map, the better the
+	 * redder, with their ranks.
+	 */
+	private void drawAnalysis(Graphics2D g2d) {
+		List<AnalysisLine> lines = analysisLines;
+		if (lines == null || lines.isEmpty() || chess.isGameOver()) {
+			return;
+		}
+		long best = lines.get(0).getScore();
+		long worst = lines.get(lines.size() - 1).getScore();
+		g2d.setFont(new Font("Calibri", Font.BOLD, 16));
+		for (int i = 0; i < lines.size(); i++) {
+			PiecePosition pos = lines.get(i).getMove();
+			double heat = best == worst ? 1 : (double) (lines.get(i).getScore() - worst) / (best - worst);
+			g2d.setColor(new Color(255, (int) (200 * (1 - heat)), 0, 90 + (int) (110 * heat)));
+			g2d.fillOval(pos.getX() * GRID_SPACING - PIECE_RADIUS, pos.getY() * GRID_SPACING - PIECE_RADIUS,
+					PIECE_DIAMETER, PIECE_DIAMETER);
+			g2d.setColor(Color.black);
+			g2d.drawString(Integer.toString(i + 1), pos.getX() * GRID_SPACING - 4, pos.getY() * GRID_SPACING + 6);
+		}
 	}
 
 	/**
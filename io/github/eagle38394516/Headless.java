@@ -0,0 +1,109 @@
+package io.github.eagle38394516;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The entry point of the tools without the GUI. It never touches
+ * <code>MainBody</code> or <code>GomokuPanel</code>, so no AWT or Swing class
+ * is loaded and it runs where there's no display.
+ *
+ * <pre>
+ * Headless move [-advanced] [position]   the move of the engine, timed
+ * Headless vct ...                       VctSolver
+ * Headless batch ...                     BatchSolver
+ * Headless server ...                    AnalysisServer
+ * Headless sprt ...                      SprtMatch
+ * Headless schedule ...                  EngineScheduler
+ * </pre>
+ *
+ * Short runs spend most of their time starting the JVM and loading classes.
+ * An AppCDS archive of the classes one run loads makes the next ones start
+ * faster (JDK 13 or later). The archive needs the classes in a jar:
+ *
+ * <pre>
+ * jar cf gomoku.jar -C bin .
+ * java -XX:ArchiveClassesAtExit=gomoku.jsa -cp gomoku.jar io.github.eagle38394516.Headless move H8I9
+ * java -XX:SharedArchiveFile=gomoku.jsa -cp gomoku.jar io.github.eagle38394516.Headless move H8I9J10
+ * </pre>
+ *
+ * "move" prints the time to the first move since the JVM started, so the
+ * two can be compared. Adding -Xlog:class+load shows that no java.awt or
+ * javax.swing class is loaded.
+ */
+public final class Headless {
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private Headless() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Usage: Headless move|vct|batch|server|sprt|schedule [options]");
+		}
+		String[] rest = Arrays.copyOfRange(args, 1, args.length);
+		switch (args[0]) {
+			case "move":
+				move(rest);
+				break;
+			case "vct":
+				VctSolver.main(rest);
+				break;
+			case "batch":
+				BatchSolver.main(rest);
+				break;
+			case "server":
+				AnalysisServer.main(rest);
+				break;
+			case "sprt":
+				SprtMatch.main(rest);
+				break;
+			case "schedule":
+				EngineScheduler.main(rest);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown command - " + args[0]);
+		}
+	}
+
+	/**
+	 * Print the move of the engine for a position, as the game would play it,
+	 * with the time it took since the start of the JVM and of the search.
+	 */
+	private static void move(String[] args) {
+		long mainStart = System.nanoTime();
+		Chess chess = Chess.getInstance();
+		chess.setAutoPlacing(Chess.AUTO_PLACING_OFF);
+		StringBuilder position = new StringBuilder();
+		for (String arg : args) {
+			if (arg.equals("-advanced")) {
+				chess.setUsingAdvancedRules(true);
+			} else {
+				position.append(arg).append(' ');
+			}
+		}
+		List<PiecePosition> moves = AnalysisServer.parsePosition(position.toString());
+		for (PiecePosition pos : moves) {
+			if (chess.isGameOver() || !chess.place(pos)) {
+				throw new IllegalArgumentException("Cannot place at " + pos.toNotation());
+			}
+		}
+		if (chess.isGameOver()) {
+			throw new IllegalArgumentException("The game is over");
+		}
+
+		long searchStart = System.nanoTime();
+		PiecePosition best = chess.getWhosTurn() ? chess.calcBestPos(chess.blackPos, chess.whitePos)
+				: chess.calcBestPos(chess.whitePos, chess.blackPos);
+		long end = System.nanoTime();
+		// Loading the management classes isn't counted.
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime() - (System.nanoTime() - end) / 1000000;
+		System.out.println((best == null ? "none" : best.toNotation()) + " (" + uptime + "ms since the JVM started, "
+				+ (end - mainStart) / 1000000 + "ms since main, " + (end - searchStart) / 1000000 + "ms searching)");
+	}
+}
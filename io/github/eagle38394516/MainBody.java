@@ -3,9 +3,12 @@ package io.github.eagle38394516;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.FlowLayout;
+import java.io.File;
+import java.io.IOException;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
 /**
@@ -52,6 +55,11 @@ public final class MainBody extends JFrame {
 	 */
 	private static final String FRAME_TITLE = "Gomoku for EEC 289A WQ 2019 " + VERSION_STRING;
 
+	/**
+	 * The journal file keeping the current game in case the program crashes.
+	 */
+	private static final String JOURNAL_FILE = "gomoku.journal";
+
 	/**
 	 * The button panel of the frame.
 	 */
@@ -67,6 +75,16 @@ public final class MainBody extends JFrame {
 	 */
 	private final JButton undoBtn = new JButton("Undo");
 
+	/**
+	 * The redo button.
+	 */
+	private final JButton redoBtn = new JButton("Redo");
+
+	/**
+	 * The button going to any move of the move stack.
+	 */
+	private final JButton seekBtn = new JButton("Go To Move");
+
 	/**
 	 * The random placing button.
 	 */
@@ -79,6 +97,11 @@ public final class MainBody extends JFrame {
 
 	private final JButton selfDefeatBtn = new JButton("Self Defeat");
 
+	/**
+	 * The analysis mode switch button.
+	 */
+	private final JButton analysisBtn = new JButton("Analysis: Off");
+
 	/**
 	 * The debug function button.
 	 */
@@ -118,6 +141,24 @@ public final class MainBody extends JFrame {
 	 */
 	public static void main(String[] args) {
 		instance = new MainBody();
+		instance.openJournal();
+	}
+
+	/**
+	 * Restore the game from the journal file and keep journaling.
+	 */
+	private void openJournal() {
+		try {
+			GameJournal.open(new File(JOURNAL_FILE), chess);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		updateAdvancedRulesBtn();
+		updateAutoBtn();
+		if (!chess.isGameOver()) {
+			chess.autoPlace();
+		}
+		paintingPanel.repaint();
 	}
 
 	/**
@@ -144,20 +185,29 @@ public final class MainBody extends JFrame {
 			paintingPanel.undo();
 		});
 
+		redoBtn.addActionListener(e -> {
+			paintingPanel.redo();
+		});
+
+		seekBtn.addActionListener(e -> {
+			String input = JOptionPane.showInputDialog(this,
+					"Go to move (0 - " + chess.getHistorySize() + "):", chess.getPly());
+			if (input == null) {
+				return;
+			}
+			try {
+				paintingPanel.seek(Integer.parseInt(input.trim()));
+			} catch (IllegalArgumentException exception) {
+				// Not a number, or not a move of the stack.
+				JOptionPane.showMessageDialog(this, "Invalid move - " + input);
+			}
+		});
+
 		advancedRulesBtn.addActionListener(e -> {
 			if (chess.whitePos.isEmpty() || chess.blackPos.isEmpty()) {
 				// Changing the rules only when the board is empty.
-				if (chess.isUsingAdvancedRules()) {
-					chess.setUsingAdvancedRules(false);
-					advancedRulesBtn.setBackground(ADV_RULES_ENABLED_COLOR);
-					advancedRulesBtn.setText("Enable Advanced Rules");
-					setTitle(FRAME_TITLE + " - Advanced Rules DISABLED");
-				} else {
-					chess.setUsingAdvancedRules(true);
-					advancedRulesBtn.setBackground(ADV_RULES_DISABLED_COLOR);
-					advancedRulesBtn.setText("Disable Advanced Rules");
-					setTitle(FRAME_TITLE + " - Advanced Rules ENABLED");
-				}
+				chess.setUsingAdvancedRules(!chess.isUsingAdvancedRules());
+				updateAdvancedRulesBtn();
 			}
 		});
 
@@ -170,7 +220,6 @@ public final class MainBody extends JFrame {
 				// for (int repeat = 0; repeat < 1000; repeat++) {
 				while (chess.getGameStatus() != 1 && chess.getGameStatus() != 2) {
 					chess.place(chess.calcBestPos(chess.whitePos, chess.blackPos));
-					paintingPanel.repaint();
 				}
 				// if (chess.getGameStatus() == 1) {
 				// blackWin++;
@@ -218,41 +267,72 @@ public final class MainBody extends JFrame {
 			}
 		});
 
+		analysisBtn.addActionListener(e -> {
+			paintingPanel.setAnalysisMode(!paintingPanel.isAnalysisMode());
+			analysisBtn.setText(paintingPanel.isAnalysisMode() ? "Analysis: On" : "Analysis: Off");
+		});
+
 		debugBtn.addActionListener(e -> {
 			paintingPanel.randomPlacingOneStep();
 		});
 
 		autoBtn.addActionListener(e -> {
 			chess.changingAutoPlacing();
-			switch (chess.getAutoPlacing()) {
-				case Chess.AUTO_PLACING_BLACK:
-					autoBtn.setText(AUTO_BLACK_STRING);
-					autoBtn.setBackground(AUTO_BLACK_BGCOLOR);
-					autoBtn.setForeground(AUTO_BLACK_STRCOLOR);
-					break;
-				case Chess.AUTO_PLACING_OFF:
-					autoBtn.setText(AUTO_OFF_STRING);
-					autoBtn.setBackground(AUTO_OFF_BGCOLOR);
-					autoBtn.setForeground(AUTO_OFF_STRCOLOR);
-					break;
-				case Chess.AUTO_PLACING_WHITE:
-					autoBtn.setText(AUTO_WHITE_STRING);
-					autoBtn.setBackground(AUTO_WHITE_BGCOLOR);
-					autoBtn.setForeground(AUTO_WHITE_STRCOLOR);
-					break;
-				default:
-					throw new RuntimeException("Invalid autoPlacing - " + chess.getAutoPlacing());
-			}
+			updateAutoBtn();
 		});
 
 		buttonsPanel.setLayout(new FlowLayout());
 		buttonsPanel.add(resetBtn);
 		buttonsPanel.add(undoBtn);
+		buttonsPanel.add(redoBtn);
+		buttonsPanel.add(seekBtn);
 		buttonsPanel.add(advancedRulesBtn);
 		buttonsPanel.add(selfDefeatBtn);
 		buttonsPanel.add(randomBtn);
 		buttonsPanel.add(debugBtn);
 		buttonsPanel.add(autoBtn);
+		buttonsPanel.add(analysisBtn);
+	}
+
+	/**
+	 * Show the current rules on the advanced rules switch button and the
+	 * title.
+	 */
+	private void updateAdvancedRulesBtn() {
+		if (chess.isUsingAdvancedRules()) {
+			advancedRulesBtn.setBackground(ADV_RULES_DISABLED_COLOR);
+			advancedRulesBtn.setText("Disable Advanced Rules");
+			setTitle(FRAME_TITLE + " - Advanced Rules ENABLED");
+		} else {
+			advancedRulesBtn.setBackground(ADV_RULES_ENABLED_COLOR);
+			advancedRulesBtn.setText("Enable Advanced Rules");
+			setTitle(FRAME_TITLE + " - Advanced Rules DISABLED");
+		}
+	}
+
+	/**
+	 * Show the current computer player on the auto button.
+	 */
+	private void updateAutoBtn() {
+		switch (chess.getAutoPlacing()) {
+			case Chess.AUTO_PLACING_BLACK:
+				autoBtn.setText(AUTO_BLACK_STRING);
+				autoBtn.setBackground(AUTO_BLACK_BGCOLOR);
+				autoBtn.setForeground(AUTO_BLACK_STRCOLOR);
+				break;
+			case Chess.AUTO_PLACING_OFF:
+				autoBtn.setText(AUTO_OFF_STRING);
+				autoBtn.setBackground(AUTO_OFF_BGCOLOR);
+				autoBtn.setForeground(AUTO_OFF_STRCOLOR);
+				break;
+			case Chess.AUTO_PLACING_WHITE:
+				autoBtn.setText(AUTO_WHITE_STRING);
+				autoBtn.setBackground(AUTO_WHITE_BGCOLOR);
+				autoBtn.setForeground(AUTO_WHITE_STRCOLOR);
+				break;
+			default:
+				throw new RuntimeException("Invalid autoPlacing - " + chess.getAutoPlacing());
+		}
 	}
 
 	/**
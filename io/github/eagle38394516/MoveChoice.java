@@ -0,0 +1,88 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The choice of the move of the computer, shared by the game and the tools
+ * playing or measuring it, so they all play the same engine: a win by
+ * continuous fours if one is looked for and found, otherwise the empty
+ * position with the highest score which isn't forbidden.
+ *
+ * Ties go to the smallest x, then the smallest y.
+ */
+public final class MoveChoice {
+
+	/**
+	 * The limits of the VCF search of the computer.
+	 */
+	public static final int VCF_MAX_FOURS = 15;
+	public static final long VCF_NODE_LIMIT = 20000;
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private MoveChoice() {
+	}
+
+	/**
+	 * Return the move of the side to move.
+	 *
+	 * @param vcfSolver
+	 *            The solver looking for a VCF first, or null to choose by
+	 *            the scores only.
+	 * @return The move, or null if black only has forbidden positions left.
+	 */
+	public static PiecePosition choose(BitBoard board, int color, boolean usingAdvancedRules, Evaluator evaluator,
+			VcfSolver vcfSolver) {
+		if (vcfSolver != null) {
+			ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+			ArrayList<PiecePosition> whitePos = new ArrayList<PiecePosition>();
+			for (int index = 0; index < Cells.COUNT; index++) {
+				if (board.has(BitBoard.BLACK, index)) {
+					blackPos.add(PiecePosition.get(index));
+				} else if (board.has(BitBoard.WHITE, index)) {
+					whitePos.add(PiecePosition.get(index));
+				}
+			}
+			List<PiecePosition> line = vcfSolver.solve(blackPos, whitePos, color == BitBoard.BLACK,
+					usingAdvancedRules, VCF_MAX_FOURS, VCF_NODE_LIMIT);
+			if (line != null) {
+				return line.get(0);
+			}
+		}
+		return byScores(board, evaluator.evaluate(board, color), usingAdvancedRules && color == BitBoard.BLACK);
+	}
+
+	/**
+	 * Return the empty position with the highest score. The forbidden ones
+	 * are skipped, checking only the positions which would be chosen, and
+	 * their scores are set to -1.
+	 *
+	 * @param scores
+	 *            The scores indexed by [x - 1][y - 1], none below 0.
+	 * @param excludingForbids
+	 *            Whether the forbidden positions of black are skipped.
+	 * @return The position, or null if there's none left.
+	 */
+	public static PiecePosition byScores(BitBoard board, int[][] scores, boolean excludingForbids) {
+		while (true) {
+			int maxScore = -1;
+			PiecePosition best = null;
+			for (int x = 1; x <= Chess.BOARD_SIZE; x++) {
+				for (int y = 1; y <= Chess.BOARD_SIZE; y++) {
+					if (scores[x - 1][y - 1] > maxScore && board.isEmpty(Cells.indexOf(x, y))) {
+						maxScore = scores[x - 1][y - 1];
+						best = PiecePosition.get(x, y);
+					}
+				}
+			}
+			if (best == null || !excludingForbids
+					|| CheckForbids.checkForbids(best.getIndex(), board) == CheckForbids.NO_FORBIDDEN) {
+				return best;
+			}
+			scores[best.getX() - 1][best.getY() - 1] = -1;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * One entry of the move stack of <code>Chess</code>. Besides the move itself
+ * it keeps what the move changed - the forbidden positions, the game status
+ * and the winning chain - so that undoing and redoing the move restores them
+ * directly instead of scanning the board again. The forbidden positions are
+ * kept as the ones the move took away and added, not as whole lists. There's
+ * nothing of the evaluators to keep: they score the <code>BitBoard</code>
+ * from scratch at each move of the computer.
+ *
+ * @see Chess#undo()
+ * @see Chess#redo()
+ * @see Chess#seek(int)
+ */
+final class MoveRecord {
+
+	/**
+	 * The position of the piece.
+	 */
+	final PiecePosition pos;
+
+	/**
+	 * True if the piece is black.
+	 */
+	final boolean black;
+
+	/**
+	 * The game status before the move.
+	 */
+	final int gameStatusBefore;
+
+	/**
+	 * The state after the move, saved once the game status is updated.
+	 */
+	int gameStatusAfter;
+	PiecePosition[] winnerAfter;
+
+	/**
+	 * The forbidden positions the move took away and added, with their
+	 * reasons. A position whose reason changed is in both.
+	 */
+	PiecePosition[] forbidsRemoved;
+	int[] reasonsRemoved;
+	PiecePosition[] forbidsAdded;
+	int[] reasonsAdded;
+
+	/**
+	 * The forbidden positions before the move, only kept until the state
+	 * after it is saved.
+	 */
+	private PiecePosition[] forbidsBefore;
+	private int[] reasonsBefore;
+
+	MoveRecord(PiecePosition pos, boolean black, int gameStatusBefore,
+			ArrayList<PiecePosition> breakingRulesPos, int[] breakingRulesPosReason) {
+		this.pos = pos;
+		this.black = black;
+		this.gameStatusBefore = gameStatusBefore;
+		this.forbidsBefore = breakingRulesPos.toArray(new PiecePosition[breakingRulesPos.size()]);
+		this.reasonsBefore = toReasons(breakingRulesPos, breakingRulesPosReason);
+	}
+
+	/**
+	 * Save the state after the move. Called once per move.
+	 */
+	void saveAfter(int gameStatus, ArrayList<PiecePosition> breakingRulesPos,
+			int[] breakingRulesPosReason, ArrayList<PiecePosition> winnerPos) {
+		gameStatusAfter = gameStatus;
+		winnerAfter = gameStatus == 1 || gameStatus == 2 ?
+				winnerPos.toArray(new PiecePosition[winnerPos.size()]) : new PiecePosition[0];
+
+		ArrayList<PiecePosition> removed = new ArrayList<PiecePosition>();
+		int[] removedReasons = new int[forbidsBefore.length];
+		for (int i = 0; i < forbidsBefore.length; i++) {
+			if (breakingRulesPosReason[forbidsBefore[i].getIndex()] != reasonsBefore[i]) {
+				removedReasons[removed.size()] = reasonsBefore[i];
+				removed.add(forbidsBefore[i]);
+			}
+		}
+		ArrayList<PiecePosition> added = new ArrayList<PiecePosition>();
+		for (PiecePosition pos : breakingRulesPos) {
+			int before = CheckForbids.NO_FORBIDDEN;
+			for (int i = 0; i < forbidsBefore.length; i++) {
+				if (forbidsBefore[i] == pos) {
+					before = reasonsBefore[i];
+				}
+			}
+			if (breakingRulesPosReason[pos.getIndex()] != before) {
+				added.add(pos);
+			}
+		}
+		forbidsRemoved = removed.toArray(new PiecePosition[removed.size()]);
+		reasonsRemoved = Arrays.copyOf(removedReasons, removed.size());
+		forbidsAdded = added.toArray(new PiecePosition[added.size()]);
+		reasonsAdded = toReasons(added, breakingRulesPosReason);
+		forbidsBefore = null;
+		reasonsBefore = null;
+	}
+
+	/**
+	 * Return the reasons of the forbidden positions, in the same order.
+	 */
+	private static int[] toReasons(ArrayList<PiecePosition> breakingRulesPos, int[] breakingRulesPosReason) {
+		int[] result = new int[breakingRulesPos.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = breakingRulesPosReason[breakingRulesPos.get(i).getIndex()];
+		}
+		return result;
+	}
+}
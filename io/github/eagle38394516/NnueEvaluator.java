@@ -0,0 +1,238 @@
+package io.github.eagle38394516;
+
+import java.util.Arrays;
+
+/**
+ * Scores positions by a small neural network, see <code>NnueWeights</code>.
+ *
+ * The hidden layers of both sides are kept as the board changes: placing or
+ * removing a piece adds or subtracts one column of feature weights per side.
+ * On each call only the positions that changed since the last board are
+ * applied, so it is cheapest when used on one board as the game or search
+ * goes on. A move is scored from the hidden layers plus the column of the
+ * move, without changing them.
+ *
+ * The network scores positions, so the moves are scored by the position
+ * after them. At one ply this plays far weaker than the tuple scores; it is
+ * meant for the leaves of a search such as <code>Analysis</code>.
+ *
+ * Scoring a position, scoring the moves into a given array and finding the
+ * candidates into a given array allocate nothing. It isn't thread safe; use
+ * one evaluator per thread, sharing the weights.
+ */
+public final class NnueEvaluator implements Evaluator {
+
+	/**
+	 * The scores of the moves are offset by this, so they are never
+	 * negative. It is above any output of the network.
+	 */
+	private static final int MOVE_SCORE_OFFSET = 1 << 24;
+
+	/**
+	 * The scale of <code>score</code>: 1000 for a logit of 1.
+	 */
+	public static final int SCORE_SCALE = 1000;
+
+	private final NnueWeights weights;
+	private final int hidden;
+
+	/**
+	 * The hidden layer of each side.
+	 */
+	private final short[][] accumulators = new short[2][];
+
+	/**
+	 * The pieces of the rows the hidden layers were computed for.
+	 */
+	private final int[][] rows = new int[2][Chess.BOARD_SIZE];
+
+	/**
+	 * The positions at most two away from a piece, by row.
+	 */
+	private final int[] near = new int[Chess.BOARD_SIZE];
+
+	/**
+	 * The scores of the moves and of the best ones, for the candidates.
+	 */
+	private final int[] moveScores = new int[Cells.COUNT];
+	private final int[] bestScores = new int[Cells.COUNT];
+
+	public NnueEvaluator(NnueWeights weights) {
+		this.weights = weights;
+		this.hidden = weights.hidden;
+		for (int side = BitBoard.BLACK; side <= BitBoard.WHITE; side++) {
+			accumulators[side] = weights.biases.clone();
+		}
+	}
+
+	public NnueWeights getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Add a piece to the hidden layers.
+	 */
+	private void add(int color, int index) {
+		for (int side = BitBoard.BLACK; side <= BitBoard.WHITE; side++) {
+			short[] accumulator = accumulators[side];
+			int column = NnueWeights.feature(side, color, index) * hidden;
+			for (int h = 0; h < hidden; h++) {
+				accumulator[h] += weights.featureWeights[column + h];
+			}
+		}
+	}
+
+	/**
+	 * Remove a piece from the hidden layers.
+	 */
+	private void subtract(int color, int index) {
+		for (int side = BitBoard.BLACK; side <= BitBoard.WHITE; side++) {
+			short[] accumulator = accumulators[side];
+			int column = NnueWeights.feature(side, color, index) * hidden;
+			for (int h = 0; h < hidden; h++) {
+				accumulator[h] -= weights.featureWeights[column + h];
+			}
+		}
+	}
+
+	/**
+	 * Apply the positions that differ from the board.
+	 */
+	private void sync(BitBoard board) {
+		for (int color = BitBoard.BLACK; color <= BitBoard.WHITE; color++) {
+			int[] known = rows[color];
+			for (int row = 0; row < Chess.BOARD_SIZE; row++) {
+				int pieces = board.getLine(color, 0, row);
+				if (pieces == known[row]) {
+					continue;
+				}
+				for (int removed = known[row] & ~pieces; removed != 0; removed &= removed - 1) {
+					subtract(color, BitBoard.CELL[0][row][Integer.numberOfTrailingZeros(removed)]);
+				}
+				for (int added = pieces & ~known[row]; added != 0; added &= added - 1) {
+					add(color, BitBoard.CELL[0][row][Integer.numberOfTrailingZeros(added)]);
+				}
+				known[row] = pieces;
+			}
+		}
+	}
+
+	/**
+	 * Return the output of the network for the hidden layers, the side to
+	 * move first, each plus a column of feature weights or -1 for none.
+	 */
+	private int output(short[] toMove, int toMoveColumn, short[] other, int otherColumn) {
+		short[] featureWeights = weights.featureWeights;
+		byte[] outputWeights = weights.outputWeights;
+		int output = weights.outputBias;
+		for (int h = 0; h < hidden; h++) {
+			int value = toMove[h] + (toMoveColumn < 0 ? 0 : featureWeights[toMoveColumn + h]);
+			output += clip(value) * outputWeights[h];
+		}
+		for (int h = 0; h < hidden; h++) {
+			int value = other[h] + (otherColumn < 0 ? 0 : featureWeights[otherColumn + h]);
+			output += clip(value) * outputWeights[hidden + h];
+		}
+		return output;
+	}
+
+	private static int clip(int value) {
+		return value < 0 ? 0 : value > NnueWeights.ACTIVATION_MAX ? NnueWeights.ACTIVATION_MAX : value;
+	}
+
+	/**
+	 * Evaluate the whole position for the side to move by the network, as
+	 * the logit of the side to move winning times <code>SCORE_SCALE</code>.
+	 */
+	@Override
+	public int score(BitBoard board, int color) {
+		sync(board);
+		long output = output(accumulators[color], -1, accumulators[1 - color], -1);
+		return (int) (output * SCORE_SCALE / (NnueWeights.ACTIVATION_MAX * NnueWeights.OUTPUT_SCALE));
+	}
+
+	@Override
+	public int[][] evaluate(BitBoard board, int color) {
+		int[] scores = new int[Cells.COUNT];
+		evaluate(board, color, scores);
+		int[][] result = new int[Chess.BOARD_SIZE][Chess.BOARD_SIZE];
+		for (int index = 0; index < Cells.COUNT; index++) {
+			result[index % Chess.BOARD_SIZE][index / Chess.BOARD_SIZE] = scores[index];
+		}
+		return result;
+	}
+
+	/**
+	 * Score the empty positions at most two away from a piece as moves of the
+	 * side to move: the network output for the opponent after the move,
+	 * negated and offset to be positive. The other positions get 0, except
+	 * on an empty board, where all are scored.
+	 *
+	 * @param scores
+	 *            At least <code>Cells.COUNT</code> long, indexed by the
+	 *            index of the position.
+	 */
+	public void evaluate(BitBoard board, int color, int[] scores) {
+		sync(board);
+		int all = (1 << Chess.BOARD_SIZE) - 1;
+		boolean empty = true;
+		Arrays.fill(near, 0);
+		for (int row = 0; row < Chess.BOARD_SIZE; row++) {
+			int pieces = rows[BitBoard.BLACK][row] | rows[BitBoard.WHITE][row];
+			if (pieces == 0) {
+				continue;
+			}
+			empty = false;
+			int spread = (pieces | pieces << 1 | pieces << 2 | pieces >>> 1 | pieces >>> 2) & all;
+			for (int other = Math.max(0, row - 2); other <= Math.min(Chess.BOARD_SIZE - 1, row + 2); other++) {
+				near[other] |= spread;
+			}
+		}
+
+		Arrays.fill(scores, 0, Cells.COUNT, 0);
+		for (int row = 0; row < Chess.BOARD_SIZE; row++) {
+			int moves = (empty ? all : near[row]) & ~(rows[BitBoard.BLACK][row] | rows[BitBoard.WHITE][row]);
+			for (; moves != 0; moves &= moves - 1) {
+				int index = BitBoard.CELL[0][row][Integer.numberOfTrailingZeros(moves)];
+				// After the move, the opponent is to move and sees the piece
+				// as the other side's.
+				int output = output(accumulators[1 - color], NnueWeights.feature(1 - color, color, index) * hidden,
+						accumulators[color], NnueWeights.feature(color, color, index) * hidden);
+				scores[index] = MOVE_SCORE_OFFSET - output;
+			}
+		}
+	}
+
+	@Override
+	public int[] candidates(BitBoard board, int color, int count) {
+		int[] moves = new int[Math.min(count, Cells.COUNT)];
+		int found = candidates(board, color, moves);
+		return found == moves.length ? moves : Arrays.copyOf(moves, found);
+	}
+
+	@Override
+	public int candidates(BitBoard board, int color, int[] moves) {
+		evaluate(board, color, moveScores);
+		int count = Math.min(moves.length, Cells.COUNT);
+		int found = 0;
+		for (int index = 0; index < Cells.COUNT && count > 0; index++) {
+			if (!board.isEmpty(index)) {
+				continue;
+			}
+			int score = moveScores[index];
+			if (found == count && score <= bestScores[count - 1]) {
+				continue;
+			}
+			// Insertion into the sorted list.
+			int i = found < count ? found++ : count - 1;
+			while (i > 0 && bestScores[i - 1] < score) {
+				moves[i] = moves[i - 1];
+				bestScores[i] = bestScores[i - 1];
+				i--;
+			}
+			moves[i] = index;
+			bestScores[i] = score;
+		}
+		return found;
+	}
+}
@@ -0,0 +1,374 @@
+package io.github.eagle38394516;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Trains the network of <code>NnueEvaluator</code> on the positions of a
+ * file written by <code>DatasetGenerator</code>, to predict the result of
+ * the game for the side to move, and saves the quantised weights.
+ *
+ * The training is plain stochastic gradient descent on the logistic loss in
+ * floats, every position turned by a random symmetry of the board. The
+ * targets blend the result with the <code>PatternEvaluator</code> score of
+ * the position. The weights are kept in the ranges of the quantisation, so
+ * quantising only rounds them.
+ *
+ * The dataset is mapped into memory in chunks of at most
+ * <code>CHUNK_BYTES</code>, as one mapping can't reach 2GB.
+ */
+public final class NnueTrainer {
+
+	/**
+	 * The largest mapping of a column.
+	 */
+	private static final long CHUNK_BYTES = 1 << 30;
+
+	/**
+	 * A column of the dataset file, mapped in chunks of whole rows.
+	 */
+	private static final class Column {
+
+		private final int width;
+		private final long chunkRows;
+		private final MappedByteBuffer[] chunks;
+
+		Column(FileChannel channel, long offset, long rows, int width) throws IOException {
+			this.width = width;
+			this.chunkRows = CHUNK_BYTES / width;
+			chunks = new MappedByteBuffer[(int) ((rows + chunkRows - 1) / chunkRows)];
+			for (int i = 0; i < chunks.length; i++) {
+				long first = i * chunkRows;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * width,
+						Math.min(chunkRows, rows - first) * width);
+				chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+
+		/**
+		 * Return the long at the given byte of a row.
+		 */
+		long getLong(long row, int at) {
+			return chunks[(int) (row / chunkRows)].getLong((int) (row % chunkRows) * width + at);
+		}
+
+		/**
+		 * Return the first byte of a row.
+		 */
+		byte get(long row) {
+			return chunks[(int) (row / chunkRows)].get((int) (row % chunkRows) * width);
+		}
+	}
+
+	/**
+	 * The columns of the dataset file the training reads.
+	 */
+	private static final class Dataset {
+
+		final long rows;
+		final Column black;
+		final Column white;
+		final Column toMove;
+		final Column result;
+
+		Dataset(File file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+				channel.read(header, 0);
+				header.flip();
+				if (header.getLong() != 0x474D4B4441544131L) {
+					throw new IOException("Not a dataset file - " + file);
+				}
+				int columns = header.getInt();
+				header.getInt();
+				rows = header.getLong();
+				ByteBuffer descriptions = ByteBuffer.allocate(24 * columns).order(ByteOrder.LITTLE_ENDIAN);
+				channel.read(descriptions, 24);
+				descriptions.flip();
+
+				Column black = null, white = null, toMove = null, result = null;
+				for (int c = 0; c < columns; c++) {
+					byte[] name = new byte[8];
+					descriptions.get(name);
+					long offset = descriptions.getLong();
+					int width = descriptions.getInt();
+					descriptions.getInt();
+					Column column = new Column(channel, offset, rows, width);
+					String key = new String(name, StandardCharsets.US_ASCII).trim();
+					if (key.equals("black")) {
+						black = column;
+					} else if (key.equals("white")) {
+						white = column;
+					} else if (key.equals("toMove")) {
+						toMove = column;
+					} else if (key.equals("result")) {
+						result = column;
+					}
+				}
+				if (black == null || white == null || toMove == null || result == null) {
+					throw new IOException("Missing columns - " + file);
+				}
+				this.black = black;
+				this.white = white;
+				this.toMove = toMove;
+				this.result = result;
+			}
+		}
+	}
+
+	private final int hidden;
+	private final Random random;
+	private final float[] featureWeights;
+	private final float[] biases;
+	private final float[] outputWeights;
+	private float outputBias = 0;
+
+	/**
+	 * The weight of the pattern score in the targets, the rest being the
+	 * result of the game.
+	 */
+	private final double lambda;
+	private final PatternEvaluator teacher = new PatternEvaluator();
+	private final BitBoard board = new BitBoard();
+
+	/**
+	 * The buffers of one training step.
+	 */
+	private final int[][] features = new int[2][Cells.COUNT];
+	private final float[][] accumulators;
+	private final float[][] gradients;
+
+	/**
+	 * The pattern score giving a logit of 1.
+	 */
+	private static final double TEACHER_SCALE = 5000;
+
+	/**
+	 * Create a network of small random weights.
+	 *
+	 * @param lambda
+	 *            The weight of the <code>PatternEvaluator</code> score of the
+	 *            position in the targets, the rest being the result of the
+	 *            game. The results alone are a weak signal for the early
+	 *            positions.
+	 */
+	public NnueTrainer(int hidden, double lambda, long seed) {
+		if (hidden <= 0 || hidden > NnueWeights.MAX_HIDDEN) {
+			throw new IllegalArgumentException("Invalid hidden size - " + hidden);
+		}
+		this.hidden = hidden;
+		this.lambda = lambda;
+		this.random = new Random(seed);
+		this.featureWeights = new float[NnueWeights.FEATURES * hidden];
+		this.biases = new float[hidden];
+		this.outputWeights = new float[2 * hidden];
+		this.accumulators = new float[2][hidden];
+		this.gradients = new float[2][hidden];
+		for (int i = 0; i < featureWeights.length; i++) {
+			featureWeights[i] = (float) (random.nextGaussian() * 0.05);
+		}
+		for (int h = 0; h < hidden; h++) {
+			biases[h] = 0.25f;
+		}
+		for (int i = 0; i < outputWeights.length; i++) {
+			outputWeights[i] = (float) (random.nextGaussian() / Math.sqrt(hidden));
+		}
+	}
+
+	/**
+	 * Train on all the positions of the dataset in a random order.
+	 *
+	 * @return The mean loss.
+	 */
+	public double trainEpoch(File data, double rate) throws IOException {
+		Dataset dataset = new Dataset(data);
+		if (dataset.rows > Integer.MAX_VALUE) {
+			throw new IOException("Too many rows - " + dataset.rows);
+		}
+		int rows = (int) dataset.rows;
+		int[] order = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			int j = random.nextInt(i + 1);
+			order[i] = order[j];
+			order[j] = i;
+		}
+		double loss = 0;
+		long[] black = new long[4], white = new long[4];
+		for (int row : order) {
+			for (int word = 0; word < 4; word++) {
+				black[word] = dataset.black.getLong(row, word * 8);
+				white[word] = dataset.white.getLong(row, word * 8);
+			}
+			int toMove = dataset.toMove.get(row);
+			int result = dataset.result.get(row);
+			double target = result == 0 ? 0.5 : (result > 0) == (toMove == BitBoard.BLACK) ? 1 : 0;
+			loss += train(black, white, toMove, target, random.nextInt(Symmetry.COUNT), (float) rate);
+		}
+		return rows == 0 ? 0 : loss / rows;
+	}
+
+	/**
+	 * One step of gradient descent on a position.
+	 *
+	 * @param black
+	 *            The bit of the index of every black piece.
+	 * @param white
+	 *            The bit of the index of every white piece.
+	 * @param result
+	 *            1 if the side to move wins, 0 if it loses, 0.5 for tie.
+	 * @return The loss before the step.
+	 */
+	double train(long[] black, long[] white, int toMove, double result, int symmetry, float rate) {
+		board.clear();
+		for (int color = BitBoard.BLACK; color <= BitBoard.WHITE; color++) {
+			long[] pieces = color == BitBoard.BLACK ? black : white;
+			for (int word = 0; word < 4; word++) {
+				for (long bits = pieces[word]; bits != 0; bits &= bits - 1) {
+					board.set(color, Symmetry.transform(symmetry, word * 64 + Long.numberOfTrailingZeros(bits)));
+				}
+			}
+		}
+		double target = result;
+		if (lambda > 0) {
+			double logit = teacher.score(board, toMove) / TEACHER_SCALE;
+			target = lambda / (1 + Math.exp(-logit)) + (1 - lambda) * result;
+		}
+
+		int[] counts = new int[2];
+		for (int side = BitBoard.BLACK; side <= BitBoard.WHITE; side++) {
+			float[] accumulator = accumulators[side];
+			System.arraycopy(biases, 0, accumulator, 0, hidden);
+			counts[side] = 0;
+			for (int index = 0; index < Cells.COUNT; index++) {
+				if (board.isEmpty(index)) {
+					continue;
+				}
+				int color = board.has(BitBoard.BLACK, index) ? BitBoard.BLACK : BitBoard.WHITE;
+				int column = NnueWeights.feature(side, color, index) * hidden;
+				features[side][counts[side]++] = column;
+				for (int h = 0; h < hidden; h++) {
+					accumulator[h] += featureWeights[column + h];
+				}
+			}
+		}
+
+		int[] sides = { toMove, 1 - toMove };
+		double output = outputBias;
+		for (int s = 0; s < 2; s++) {
+			float[] accumulator = accumulators[sides[s]];
+			for (int h = 0; h < hidden; h++) {
+				output += clip(accumulator[h]) * outputWeights[s * hidden + h];
+			}
+		}
+		double prediction = 1 / (1 + Math.exp(-output));
+		float error = (float) (prediction - target);
+
+		// Back propagation, then the updates.
+		for (int s = 0; s < 2; s++) {
+			float[] accumulator = accumulators[sides[s]];
+			float[] gradient = gradients[sides[s]];
+			for (int h = 0; h < hidden; h++) {
+				float value = accumulator[h];
+				gradient[h] = value > 0 && value < 1 ? error * outputWeights[s * hidden + h] : 0;
+				outputWeights[s * hidden + h] = clamp(outputWeights[s * hidden + h] - rate * error * clip(value),
+						(float) Byte.MAX_VALUE / NnueWeights.OUTPUT_SCALE);
+			}
+		}
+		outputBias -= rate * error;
+		for (int side = BitBoard.BLACK; side <= BitBoard.WHITE; side++) {
+			float[] gradient = gradients[side];
+			for (int i = 0; i < counts[side]; i++) {
+				int column = features[side][i];
+				for (int h = 0; h < hidden; h++) {
+					featureWeights[column + h] = clamp(featureWeights[column + h] - rate * gradient[h], 1);
+				}
+			}
+		}
+		for (int h = 0; h < hidden; h++) {
+			biases[h] = clamp(biases[h] - rate * (gradients[0][h] + gradients[1][h]), 1);
+		}
+
+		double p = Math.min(Math.max(prediction, 1e-7), 1 - 1e-7);
+		return -(target * Math.log(p) + (1 - target) * Math.log(1 - p));
+	}
+
+	private static float clip(float value) {
+		return value < 0 ? 0 : value > 1 ? 1 : value;
+	}
+
+	private static float clamp(float value, float limit) {
+		return value < -limit ? -limit : value > limit ? limit : value;
+	}
+
+	/**
+	 * Return the quantised weights.
+	 */
+	public NnueWeights quantise() {
+		short[] quantisedFeatures = new short[featureWeights.length];
+		for (int i = 0; i < featureWeights.length; i++) {
+			quantisedFeatures[i] = (short) Math.round(featureWeights[i] * NnueWeights.ACTIVATION_MAX);
+		}
+		short[] quantisedBiases = new short[hidden];
+		for (int h = 0; h < hidden; h++) {
+			quantisedBiases[h] = (short) Math.round(biases[h] * NnueWeights.ACTIVATION_MAX);
+		}
+		byte[] quantisedOutputs = new byte[2 * hidden];
+		for (int i = 0; i < outputWeights.length; i++) {
+			quantisedOutputs[i] = (byte) Math.round(outputWeights[i] * NnueWeights.OUTPUT_SCALE);
+		}
+		return new NnueWeights(hidden, quantisedFeatures, quantisedBiases, quantisedOutputs,
+				Math.round(outputBias * NnueWeights.ACTIVATION_MAX * NnueWeights.OUTPUT_SCALE));
+	}
+
+	/**
+	 * Usage: NnueTrainer [-data FILE] [-out FILE] [-hidden H] [-epochs E]
+	 * [-rate R] [-lambda L] [-seed S]
+	 *
+	 * L is the weight of the pattern score in the targets, from 0 for the
+	 * results only to 1 for the scores only.
+	 */
+	public static void main(String[] args) throws Exception {
+		File data = new File("games.dataset");
+		File outFile = new File(NnueWeights.WEIGHTS_FILE);
+		int hidden = 64, epochs = 4;
+		double rate = 0.005, lambda = 0.7;
+		long seed = System.nanoTime();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-data")) {
+				data = new File(args[++i]);
+			} else if (args[i].equals("-out")) {
+				outFile = new File(args[++i]);
+			} else if (args[i].equals("-hidden")) {
+				hidden = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-epochs")) {
+				epochs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-rate")) {
+				rate = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-lambda")) {
+				lambda = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+
+		NnueTrainer trainer = new NnueTrainer(hidden, lambda, seed);
+		for (int epoch = 1; epoch <= epochs; epoch++) {
+			long start = System.nanoTime();
+			double loss = trainer.trainEpoch(data, rate);
+			System.out.printf("Epoch %d: loss %.4f in %.1f s%n", epoch, loss, (System.nanoTime() - start) / 1e9);
+			// Halve the rate for the later epochs.
+			rate /= 2;
+		}
+		trainer.quantise().save(outFile);
+		System.out.println("Saved to " + outFile);
+	}
+}
@@ -0,0 +1,192 @@
+package io.github.eagle38394516;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The quantised weights of the network of <code>NnueEvaluator</code>.
+ *
+ * The network has one input per color and position, seen from each side: the
+ * pieces of the side first, then the pieces of the other side. The inputs go
+ * to a hidden layer kept for each side, clipped to [0, 1], and both hidden
+ * layers, the side to move first, go to one output:
+ *
+ * <pre>
+ * hidden[side][h] = bias[h] + sum of feature[f][h] for the pieces f seen by the side
+ * output = outputBias + sum of clip(hidden[toMove][h]) * output[h]
+ *                     + sum of clip(hidden[other][h]) * output[hidden + h]
+ * </pre>
+ *
+ * The feature weights and biases are int16 scaled by
+ * <code>ACTIVATION_MAX</code> and at most <code>ACTIVATION_MAX</code> in
+ * magnitude, so the hidden values of a full board fit in an int16. The
+ * output weights are int8 scaled by <code>OUTPUT_SCALE</code>, and the
+ * output bias is scaled by both. The output is the logit of the side to
+ * move winning.
+ *
+ * The file is little-endian:
+ *
+ * <pre>
+ * long  magic "GMKNNUE1"
+ * int   hidden size
+ * int   0
+ * short feature weights, FEATURES * hidden, feature by feature
+ * short biases, hidden
+ * byte  output weights, 2 * hidden, the side to move first
+ * int   output bias
+ * </pre>
+ *
+ * The weights are immutable and can be shared by several evaluators.
+ */
+public final class NnueWeights {
+
+	/**
+	 * The file of the network in the working directory.
+	 */
+	public static final String WEIGHTS_FILE = "nnue.bin";
+
+	/**
+	 * The number of inputs.
+	 */
+	public static final int FEATURES = 2 * Cells.COUNT;
+
+	/**
+	 * The scale of the feature weights and biases, which is also the clipped
+	 * hidden value of 1.
+	 */
+	public static final int ACTIVATION_MAX = 127;
+
+	/**
+	 * The scale of the output weights.
+	 */
+	public static final int OUTPUT_SCALE = 64;
+
+	/**
+	 * The largest hidden size, so the outputs stay below 2^24.
+	 */
+	public static final int MAX_HIDDEN = 256;
+
+	/**
+	 * "GMKNNUE1".
+	 */
+	private static final long MAGIC = 0x474D4B4E4E554531L;
+
+	final int hidden;
+	final short[] featureWeights;
+	final short[] biases;
+	final byte[] outputWeights;
+	final int outputBias;
+
+	/**
+	 * @param featureWeights
+	 *            The weights of feature f at [f * hidden, (f + 1) * hidden).
+	 * @param outputWeights
+	 *            The weights of the side to move, then of the other side.
+	 */
+	public NnueWeights(int hidden, short[] featureWeights, short[] biases, byte[] outputWeights, int outputBias) {
+		if (hidden <= 0 || hidden > MAX_HIDDEN || featureWeights.length != FEATURES * hidden
+				|| biases.length != hidden || outputWeights.length != 2 * hidden) {
+			throw new IllegalArgumentException("Invalid sizes of the weights");
+		}
+		for (short weight : featureWeights) {
+			checkRange(weight);
+		}
+		for (short bias : biases) {
+			checkRange(bias);
+		}
+		this.hidden = hidden;
+		this.featureWeights = featureWeights.clone();
+		this.biases = biases.clone();
+		this.outputWeights = outputWeights.clone();
+		this.outputBias = outputBias;
+	}
+
+	private static void checkRange(short weight) {
+		if (weight < -ACTIVATION_MAX || weight > ACTIVATION_MAX) {
+			throw new IllegalArgumentException("Weight out of range - " + weight);
+		}
+	}
+
+	public int getHidden() {
+		return hidden;
+	}
+
+	/**
+	 * Return the input of a piece seen from a side.
+	 *
+	 * @param side
+	 *            The side looking at the board.
+	 * @param color
+	 *            The color of the piece.
+	 */
+	public static int feature(int side, int color, int index) {
+		return side == color ? index : Cells.COUNT + index;
+	}
+
+	/**
+	 * Load the network from a file.
+	 */
+	public static NnueWeights load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			ByteBuffer header = read(in, 16);
+			if (header.getLong() != MAGIC) {
+				throw new IOException("Not a network file - " + file);
+			}
+			int hidden = header.getInt();
+			if (hidden <= 0 || hidden > MAX_HIDDEN) {
+				throw new IOException("Invalid hidden size - " + hidden);
+			}
+			ByteBuffer body = read(in, FEATURES * hidden * 2 + hidden * 2 + 2 * hidden + 4);
+			short[] featureWeights = new short[FEATURES * hidden];
+			body.asShortBuffer().get(featureWeights);
+			body.position(body.position() + featureWeights.length * 2);
+			short[] biases = new short[hidden];
+			body.asShortBuffer().get(biases);
+			body.position(body.position() + biases.length * 2);
+			byte[] outputWeights = new byte[2 * hidden];
+			body.get(outputWeights);
+			int outputBias = body.getInt();
+			return new NnueWeights(hidden, featureWeights, biases, outputWeights, outputBias);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid network file - " + file, e);
+		}
+	}
+
+	private static ByteBuffer read(DataInputStream in, int size) throws IOException {
+		byte[] bytes = new byte[size];
+		in.readFully(bytes);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Save the network to a file.
+	 */
+	public void save(File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(16 + featureWeights.length * 2 + biases.length * 2
+				+ outputWeights.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(MAGIC).putInt(hidden).putInt(0);
+		for (short weight : featureWeights) {
+			buffer.putShort(weight);
+		}
+		for (short bias : biases) {
+			buffer.putShort(bias);
+		}
+		buffer.put(outputWeights).putInt(outputBias);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			out.write(buffer.array());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "NnueWeights[" + FEATURES + " x " + hidden + " x 2 x 1]";
+	}
+}
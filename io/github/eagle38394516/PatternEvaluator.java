@@ -0,0 +1,337 @@
+package io.github.eagle38394516;
+
+/**
+ * Scores positions by the shapes of the lines, five, open four, four, open
+ * three, three and two, instead of the piece counts of the tuples.
+ *
+ * A line is split by the pieces of the opponent and the edges into segments
+ * the side can still make five in. The shape of a segment only depends on
+ * its length and its pieces, so the shapes of all the segments up to the
+ * board size are computed once into a table, the same way
+ * <code>CheckForbids</code> defines them:
+ *
+ * <pre>
+ * five        five or more pieces in a row
+ * open four   _XXXX_, two ways to make five
+ * four        one way to make five; X_XXX_X counts as two fours
+ * open three  one more piece makes an open four
+ * three       one more piece makes a four
+ * two         one more piece makes an open three
+ * </pre>
+ *
+ * Each segment counts as its strongest shape. The overlines of black and the
+ * forbidden positions aren't taken into account; the callers exclude the
+ * forbidden positions as they do for <code>TupleEvaluator</code>.
+ *
+ * The evaluator keeps the shapes of every line and the gain of every move on
+ * it. On each call only the lines that changed since the last board are
+ * computed again, which are the four lines of a move after placing or
+ * undoing it, so it is cheapest when used on one board as the game or search
+ * goes on. It isn't thread safe; use one evaluator per thread.
+ */
+public final class PatternEvaluator implements Evaluator {
+
+	public static final int FIVE = 0;
+	public static final int OPEN_FOUR = 1;
+	public static final int FOUR = 2;
+	public static final int OPEN_THREE = 3;
+	public static final int THREE = 4;
+	public static final int TWO = 5;
+	public static final int PATTERNS = 6;
+
+	/**
+	 * The value of each shape.
+	 */
+	private static final int[] VALUES = { 10000000, 1000000, 30000, 20000, 500, 100 };
+
+	/**
+	 * The counts of the shapes are packed into one int, 5 bits each.
+	 */
+	private static final int BITS = 5;
+	private static final int FIELD = (1 << BITS) - 1;
+
+	/**
+	 * SEGMENT[length][pieces] is the packed shape of a segment, and
+	 * SEGMENT_VALUE[length][pieces] its value.
+	 */
+	private static final int[][] SEGMENT = new int[Chess.BOARD_SIZE + 1][];
+	private static final int[][] SEGMENT_VALUE = new int[Chess.BOARD_SIZE + 1][];
+
+	static {
+		for (int length = 0; length <= Chess.BOARD_SIZE; length++) {
+			SEGMENT[length] = new int[1 << length];
+			SEGMENT_VALUE[length] = new int[1 << length];
+			if (length < 5) {
+				continue;
+			}
+			// One more piece always gives a larger mask, so those are known.
+			for (int pieces = (1 << length) - 1; pieces >= 0; pieces--) {
+				SEGMENT[length][pieces] = classifySegment(length, pieces);
+				for (int pattern = 0; pattern < PATTERNS; pattern++) {
+					SEGMENT_VALUE[length][pieces] += count(SEGMENT[length][pieces], pattern) * VALUES[pattern];
+				}
+			}
+		}
+	}
+
+	private static int classifySegment(int length, int pieces) {
+		if (hasFive(pieces)) {
+			return 1 << BITS * FIVE;
+		}
+		for (int begin = 0; begin <= length - 6; begin++) {
+			if ((pieces >>> begin & 0x3F) == 0x1E) {
+				return 1 << BITS * OPEN_FOUR;
+			}
+		}
+		int fives = 0;
+		for (int offset = 0; offset < length; offset++) {
+			if ((pieces & 1 << offset) == 0 && hasFive(pieces | 1 << offset)) {
+				fives++;
+			}
+		}
+		if (fives > 0) {
+			return Math.min(fives, 2) << BITS * FOUR;
+		}
+		boolean openThree = false, three = false, two = false;
+		for (int offset = 0; offset < length; offset++) {
+			if ((pieces & 1 << offset) != 0) {
+				continue;
+			}
+			int next = SEGMENT[length][pieces | 1 << offset];
+			openThree |= count(next, OPEN_FOUR) > 0;
+			three |= count(next, FOUR) > 0;
+			two |= count(next, OPEN_THREE) > 0;
+		}
+		return openThree ? 1 << BITS * OPEN_THREE
+				: three ? 1 << BITS * THREE : two ? 1 << BITS * TWO : 0;
+	}
+
+	private static boolean hasFive(int pieces) {
+		return (pieces & pieces >>> 1 & pieces >>> 2 & pieces >>> 3 & pieces >>> 4) != 0;
+	}
+
+	/**
+	 * Return the count of a shape in the packed shapes.
+	 */
+	static int count(int packed, int pattern) {
+		return packed >>> BITS * pattern & FIELD;
+	}
+
+	/**
+	 * The pieces of the lines the shapes were computed for.
+	 */
+	private final int[][][] lines = new int[2][BitBoard.DIRECTIONS][BitBoard.LINES];
+
+	/**
+	 * The packed shapes of each side in each line.
+	 */
+	private final int[][][] shapes = new int[2][BitBoard.DIRECTIONS][BitBoard.LINES];
+
+	/**
+	 * gains[color][direction][index] is how much a piece of the side at the
+	 * position adds to the shapes of the side in the line of the direction,
+	 * plus the number of its tuples free of the opponent, shifted left by two.
+	 * Bit 1 is set if the piece makes a new four and bit 0 if it makes a new
+	 * open three. It is 0 if the position is taken.
+	 */
+	private final int[][][] gains = new int[2][BitBoard.DIRECTIONS][Cells.COUNT];
+
+	/**
+	 * The counts of the shapes of each side on the whole board.
+	 */
+	private final int[][] counts = new int[2][PATTERNS];
+
+	/**
+	 * dirty[direction] has the bits of the lines whose gains are out of date.
+	 */
+	private final int[] dirty = new int[BitBoard.DIRECTIONS];
+
+	public PatternEvaluator() {
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			for (int line = 0; line < BitBoard.LINES; line++) {
+				update(direction, line, 0, 0);
+			}
+		}
+	}
+
+	/**
+	 * Compute the lines that differ from the board. Every change shows in a
+	 * row, and then only the other lines of the changed positions need to be
+	 * compared.
+	 */
+	private void sync(BitBoard board) {
+		for (int row = 0; row < Chess.BOARD_SIZE; row++) {
+			int black = board.getLine(BitBoard.BLACK, 0, row);
+			int white = board.getLine(BitBoard.WHITE, 0, row);
+			int changed = black ^ lines[BitBoard.BLACK][0][row] | white ^ lines[BitBoard.WHITE][0][row];
+			if (changed == 0) {
+				continue;
+			}
+			update(0, row, black, white);
+			for (; changed != 0; changed &= changed - 1) {
+				int index = BitBoard.CELL[0][row][Integer.numberOfTrailingZeros(changed)];
+				for (int direction = 1; direction < BitBoard.DIRECTIONS; direction++) {
+					int line = BitBoard.LINE[direction][index];
+					black = board.getLine(BitBoard.BLACK, direction, line);
+					white = board.getLine(BitBoard.WHITE, direction, line);
+					if (black != lines[BitBoard.BLACK][direction][line]
+							|| white != lines[BitBoard.WHITE][direction][line]) {
+						update(direction, line, black, white);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute the shapes of a line, and mark its gains to be computed when
+	 * the moves are scored.
+	 */
+	private void update(int direction, int line, int black, int white) {
+		int length = BitBoard.LENGTH[direction][line];
+		lines[BitBoard.BLACK][direction][line] = black;
+		lines[BitBoard.WHITE][direction][line] = white;
+		for (int color = BitBoard.BLACK; color <= BitBoard.WHITE; color++) {
+			int own = lines[color][direction][line];
+			int packed = 0;
+			int free = ~lines[1 - color][direction][line] & (1 << length) - 1;
+			while (free != 0) {
+				int begin = Integer.numberOfTrailingZeros(free);
+				int end = begin + Integer.numberOfTrailingZeros(~(free >>> begin));
+				free &= -1 << end;
+				if (end - begin >= 5) {
+					packed += SEGMENT[end - begin][own >>> begin & (1 << end - begin) - 1];
+				}
+			}
+			int old = shapes[color][direction][line];
+			for (int pattern = 0; pattern < PATTERNS; pattern++) {
+				counts[color][pattern] += count(packed, pattern) - count(old, pattern);
+			}
+			shapes[color][direction][line] = packed;
+		}
+		dirty[direction] |= 1 << line;
+	}
+
+	/**
+	 * Compute the gains and threats of the lines changed since the last
+	 * time.
+	 */
+	private void updateGains() {
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			for (; dirty[direction] != 0; dirty[direction] &= dirty[direction] - 1) {
+				int line = Integer.numberOfTrailingZeros(dirty[direction]);
+				for (int color = BitBoard.BLACK; color <= BitBoard.WHITE; color++) {
+					updateGains(color, direction, line);
+				}
+			}
+		}
+	}
+
+	private void updateGains(int color, int direction, int line) {
+		int length = BitBoard.LENGTH[direction][line];
+		int own = lines[color][direction][line];
+		int[] cells = BitBoard.CELL[direction][line];
+		int[] gain = gains[color][direction];
+		for (int offset = 0; offset < length; offset++) {
+			gain[cells[offset]] = 0;
+		}
+
+		// Only the segment of a position changes by a piece there.
+		int free = ~lines[1 - color][direction][line] & (1 << length) - 1;
+		while (free != 0) {
+			int begin = Integer.numberOfTrailingZeros(free);
+			int end = begin + Integer.numberOfTrailingZeros(~(free >>> begin));
+			int size = end - begin;
+			free &= -1 << end;
+			if (size < 5) {
+				continue;
+			}
+			int pieces = own >>> begin & (1 << size) - 1;
+			int shape = SEGMENT[size][pieces];
+			for (int i = 0; i < size; i++) {
+				if ((pieces & 1 << i) != 0) {
+					continue;
+				}
+				int next = SEGMENT[size][pieces | 1 << i];
+				// The tuples of the segment holding the position.
+				int tuples = Math.min(i, size - 5) - Math.max(0, i - 4) + 1;
+				boolean four = count(next, OPEN_FOUR) + count(next, FOUR) > count(shape, OPEN_FOUR)
+						+ count(shape, FOUR);
+				boolean openThree = count(next, OPEN_THREE) > count(shape, OPEN_THREE);
+				gain[cells[begin + i]] = (Math.max(0, SEGMENT_VALUE[size][pieces | 1 << i]
+						- SEGMENT_VALUE[size][pieces]) + tuples) << 2 | (four ? 2 : 0) | (openThree ? 1 : 0);
+			}
+		}
+	}
+
+	/**
+	 * Score every position by the shapes a piece there makes for the side to
+	 * move and takes from the opponent.
+	 */
+	@Override
+	public int[][] evaluate(BitBoard board, int color) {
+		sync(board);
+		updateGains();
+		int[][] scores = new int[Chess.BOARD_SIZE][Chess.BOARD_SIZE];
+		int[][] own = gains[color], opponent = gains[1 - color];
+		for (int index = 0; index < Cells.COUNT; index++) {
+			int attack = 0, defence = 0, ownFours = 0, ownThrees = 0, opponentFours = 0, opponentThrees = 0;
+			for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+				attack += own[direction][index] >>> 2;
+				defence += opponent[direction][index] >>> 2;
+				ownFours += own[direction][index] >>> 1 & 1;
+				ownThrees += own[direction][index] & 1;
+				opponentFours += opponent[direction][index] >>> 1 & 1;
+				opponentThrees += opponent[direction][index] & 1;
+			}
+			attack = combine(attack, ownFours, ownThrees);
+			defence = combine(defence, opponentFours, opponentThrees);
+			// Prefer attacking to defending the same shape.
+			scores[index % Chess.BOARD_SIZE][index / Chess.BOARD_SIZE] = attack + attack / 2 + defence;
+		}
+		return scores;
+	}
+
+	/**
+	 * Return the gain of a move making fours and open threes in several lines
+	 * at once. A four with a four or an open three wins like an open four;
+	 * two open threes are slower than an open three of the opponent.
+	 */
+	private static int combine(int gain, int fours, int openThrees) {
+		if (fours >= 2 || fours == 1 && openThrees >= 1) {
+			return Math.max(gain, VALUES[OPEN_FOUR]);
+		} else if (openThrees >= 2) {
+			return Math.max(gain, VALUES[OPEN_FOUR] / 2);
+		}
+		return gain;
+	}
+
+	/**
+	 * Evaluate the whole position for the side to move: the values of its
+	 * shapes minus the values of the shapes of the opponent. A side to move
+	 * with a four makes five next.
+	 */
+	@Override
+	public int score(BitBoard board, int color) {
+		sync(board);
+		if (counts[color][FIVE] > 0 || counts[color][OPEN_FOUR] + counts[color][FOUR] > 0) {
+			return VALUES[FIVE];
+		}
+		int score = 0;
+		for (int pattern = 0; pattern < PATTERNS; pattern++) {
+			score += (counts[color][pattern] - counts[1 - color][pattern]) * VALUES[pattern];
+		}
+		return score;
+	}
+
+	/**
+	 * Return the number of a shape of a side on the board.
+	 *
+	 * @param pattern
+	 *            One of <code>FIVE</code> to <code>TWO</code>.
+	 */
+	public int count(BitBoard board, int color, int pattern) {
+		sync(board);
+		return counts[color][pattern];
+	}
+}
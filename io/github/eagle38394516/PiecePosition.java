@@ -1,23 +1,43 @@
 package io.github.eagle38394516;
 
+/**
+ * A position of the board for the UI and the public API. The engine and the
+ * rules code work on the int indexes of <code>Cells</code>; a position is a
+ * thin facade over its index.
+ *
+ * All the positions are created eagerly when the class is loaded, so the
+ * table can be read from any thread and positions can be compared by
+ * identity.
+ */
 public class PiecePosition {
 
-	private int x, y;
-	private static PiecePosition[][] positions = new PiecePosition[15][15];
+	private final int x, y, index;
+	private static final PiecePosition[] positions = new PiecePosition[Cells.COUNT];
 
-	public static PiecePosition get(int x, int y) {
-		if (positions[x - 1][y - 1] == null) {
-			positions[x - 1][y - 1] = new PiecePosition(x, y);
+	static {
+		for (int index = 0; index < Cells.COUNT; index++) {
+			positions[index] = new PiecePosition(Cells.x(index), Cells.y(index));
 		}
-		return positions[x - 1][y - 1];
 	}
 
-	private PiecePosition(int x, int y) {
-		if (x < 1 || x > 15 || y < 1 || y > 15) {
+	public static PiecePosition get(int x, int y) {
+		if (!Cells.isOnBoard(x, y)) {
 			throw new IllegalArgumentException("x = " + x + "; y = " + y + ";");
 		}
+		return positions[Cells.indexOf(x, y)];
+	}
+
+	/**
+	 * Return the position of an index of <code>Cells</code>.
+	 */
+	public static PiecePosition get(int index) {
+		return positions[index];
+	}
+
+	private PiecePosition(int x, int y) {
 		this.x = x;
 		this.y = y;
+		this.index = Cells.indexOf(x, y);
 	}
 
 	public int getX() {
@@ -28,6 +48,38 @@ public class PiecePosition {
 		return y;
 	}
 
+	/**
+	 * Return the index of the position in <code>Cells</code>.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Return the position in the board notation, the column letter followed
+	 * by the row number as labeled on the board, e.g. "H8".
+	 */
+	public String toNotation() {
+		return (char) ('A' + x - 1) + Integer.toString(y);
+	}
+
+	/**
+	 * Parse a position in the board notation.
+	 *
+	 * @see #toNotation()
+	 */
+	public static PiecePosition parse(String notation) {
+		notation = notation.trim();
+		if (notation.length() < 2) {
+			throw new IllegalArgumentException("Invalid position - " + notation);
+		}
+		try {
+			return get(Character.toUpperCase(notation.charAt(0)) - 'A' + 1, Integer.parseInt(notation.substring(1)));
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid position - " + notation);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return String.format("(%d, %d)", x, y);
@@ -35,10 +87,12 @@ public class PiecePosition {
 
 	@Override
 	public boolean equals(Object obj) {
-		if (!(obj instanceof PiecePosition)) {
-			return false;
-		}
-		PiecePosition p = (PiecePosition) obj;
-		return this.x == p.x && this.y == p.y;
+		// There's only one instance of every position.
+		return this == obj;
+	}
+
+	@Override
+	public int hashCode() {
+		return index;
 	}
 }
@@ -0,0 +1,190 @@
+package io.github.eagle38394516;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A persistent store of proven positions, so later searches can reuse the
+ * proofs of earlier ones. The file is memory-mapped and holds a hash table
+ * with open addressing: a header, then slots of a 64-bit position key and
+ * the result.
+ *
+ * The keys are built by the solvers from the canonical position hash, so the
+ * eight symmetric positions share one entry. Results are never removed; once
+ * the table is three quarters full, new results are dropped.
+ *
+ * @see DfpnSolver
+ */
+public final class ProofStore implements Closeable {
+
+	/**
+	 * The side to move wins.
+	 */
+	public static final int PROVEN = 1;
+
+	/**
+	 * The side to move can't win.
+	 */
+	public static final int DISPROVEN = 2;
+
+	/**
+	 * The position isn't in the store.
+	 */
+	public static final int UNKNOWN = 0;
+
+	/**
+	 * The largest number of slots, as a mapped buffer can't exceed 2 GB.
+	 */
+	public static final int MAX_CAPACITY = 1 << 27;
+
+	/**
+	 * "GMKPROOF".
+	 */
+	private static final long MAGIC = 0x474D4B50524F4F46L;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_SIZE = 9;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private int size;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long dropped = 0;
+
+	private ProofStore(FileChannel channel, MappedByteBuffer buffer, int capacity, int size) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.capacity = capacity;
+		this.size = size;
+	}
+
+	/**
+	 * Open the store file, or create it with the given number of slots. The
+	 * number of slots of an existing file is kept.
+	 */
+	public static ProofStore open(File file, int capacity) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() >= HEADER_SIZE) {
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+				if (header.getLong(0) != MAGIC) {
+					throw new IOException("Not a proof store - " + file);
+				}
+				capacity = header.getInt(8);
+			} else if (Integer.bitCount(capacity) != 1 || capacity > MAX_CAPACITY) {
+				throw new IllegalArgumentException("Invalid capacity - " + capacity);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER_SIZE + (long) capacity * SLOT_SIZE);
+			if (buffer.getLong(0) != MAGIC) {
+				buffer.putLong(0, MAGIC);
+				buffer.putInt(8, capacity);
+				buffer.putInt(12, 0);
+			}
+			return new ProofStore(channel, buffer, capacity, buffer.getInt(12));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the result stored for the key, or <code>UNKNOWN</code>.
+	 */
+	public synchronized int get(long key) {
+		for (int slot = (int) key & capacity - 1; ; slot = slot + 1 & capacity - 1) {
+			int position = HEADER_SIZE + slot * SLOT_SIZE;
+			int result = buffer.get(position + 8);
+			if (result == UNKNOWN) {
+				misses++;
+				return UNKNOWN;
+			}
+			if (buffer.getLong(position) == key) {
+				hits++;
+				return result;
+			}
+		}
+	}
+
+	/**
+	 * Store the result for the key.
+	 *
+	 * @return False if the store is full and the result is dropped.
+	 */
+	public synchronized boolean put(long key, int result) {
+		for (int slot = (int) key & capacity - 1; ; slot = slot + 1 & capacity - 1) {
+			int position = HEADER_SIZE + slot * SLOT_SIZE;
+			if (buffer.get(position + 8) == UNKNOWN) {
+				if (size >= capacity / 4 * 3) {
+					dropped++;
+					return false;
+				}
+				buffer.putLong(position, key);
+				buffer.put(position + 8, (byte) result);
+				buffer.putInt(12, ++size);
+				return true;
+			}
+			if (buffer.getLong(position) == key) {
+				buffer.put(position + 8, (byte) result);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Return the number of results in the store.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Return the number of lookups which found a result.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of lookups which found nothing.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Return the number of results dropped as the store was full.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Write the changes to the disk.
+	 */
+	public synchronized void flush() {
+		buffer.force();
+	}
+
+	/**
+	 * Write the changes to the disk and close the file. The mapping itself
+	 * goes away when it's garbage collected.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		buffer.force();
+		channel.close();
+	}
+}
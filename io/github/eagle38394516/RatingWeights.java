@@ -0,0 +1,164 @@
+package io.github.eagle38394516;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The weights used by the five-piece tuple rating table. The weights are
+ * immutable, so one set can be shared by several games at the same time.
+ *
+ * @see Chess#ratingTable(int, int)
+ */
+public final class RatingWeights {
+
+	/**
+	 * The file the engine loads the weights from at startup.
+	 */
+	public static final String WEIGHTS_FILE = "ratingTable.properties";
+
+	/**
+	 * The number of weights in the table.
+	 */
+	public static final int SIZE = 9;
+
+	/**
+	 * Index of the weight of an empty tuple.
+	 */
+	public static final int EMPTY = 0;
+
+	/**
+	 * Index of the weight of a tuple with only one computer piece. The
+	 * weights of two, three and four computer pieces follow.
+	 */
+	public static final int COMPUTER_1 = 1;
+
+	/**
+	 * Index of the weight of a tuple with only one player piece. The weights
+	 * of two, three and four player pieces follow.
+	 */
+	public static final int PLAYER_1 = 5;
+
+	/**
+	 * The keys used in the weights file, in the same order as the indexes.
+	 */
+	private static final String[] KEYS = { "empty", "computer1", "computer2", "computer3", "computer4",
+			"player1", "player2", "player3", "player4" };
+
+	/**
+	 * The hand-tuned weights the engine was shipped with.
+	 */
+	public static final RatingWeights DEFAULT = new RatingWeights(
+			new int[] { 7, 35, 800, 15000, 800000, 15, 400, 1800, 100000 });
+
+	private final int[] weights;
+
+	/**
+	 * Create a weight set.
+	 *
+	 * @param weights
+	 *            The weights ordered as the index constants.
+	 */
+	public RatingWeights(int[] weights) {
+		if (weights.length != SIZE) {
+			throw new IllegalArgumentException("Invalid weights length - " + weights.length);
+		}
+		this.weights = weights.clone();
+	}
+
+	/**
+	 * Return the weight at the certain index.
+	 */
+	public int get(int index) {
+		return weights[index];
+	}
+
+	/**
+	 * Return a copy of all the weights.
+	 */
+	public int[] toArray() {
+		return weights.clone();
+	}
+
+	/**
+	 * Rate a five-piece tuple.
+	 *
+	 * @param computer
+	 *            The number of the computer pieces in the tuple.
+	 * @param player
+	 *            The number of the player pieces in the tuple.
+	 * @return The score each empty position of the tuple gets.
+	 */
+	public int rate(int computer, int player) {
+		if (computer > 0 && player > 0) {
+			return 0;
+		}
+		if (computer == 0 && player == 0) {
+			return weights[EMPTY];
+		}
+		if (computer >= 1 && computer <= 4) {
+			return weights[COMPUTER_1 + computer - 1];
+		}
+		if (player >= 1 && player <= 4) {
+			return weights[PLAYER_1 + player - 1];
+		}
+		throw new RuntimeException("Undefined case - Computer(" + computer + "), Player(" + player + ")");
+	}
+
+	/**
+	 * Load the weights from the weights file in the working directory, or
+	 * return the default weights if the file doesn't exist or is broken.
+	 */
+	public static RatingWeights loadOrDefault() {
+		File file = new File(WEIGHTS_FILE);
+		if (!file.isFile()) {
+			return DEFAULT;
+		}
+		try {
+			return load(file);
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			return DEFAULT;
+		}
+	}
+
+	/**
+	 * Load the weights from a properties file. Missing keys keep their
+	 * default values.
+	 */
+	public static RatingWeights load(File file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		int[] loaded = DEFAULT.toArray();
+		for (int index = 0; index < SIZE; index++) {
+			String value = properties.getProperty(KEYS[index]);
+			if (value != null) {
+				loaded[index] = Integer.parseInt(value.trim());
+			}
+		}
+		return new RatingWeights(loaded);
+	}
+
+	/**
+	 * Save the weights to a properties file. The file is replaced
+	 * atomically, so an interrupted save never leaves a broken file for
+	 * <code>loadOrDefault</code>.
+	 */
+	public void save(File file, String comments) throws IOException {
+		Properties properties = new Properties();
+		for (int index = 0; index < SIZE; index++) {
+			properties.setProperty(KEYS[index], Integer.toString(weights[index]));
+		}
+		AtomicFile.store(properties, file, comments);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(weights);
+	}
+}
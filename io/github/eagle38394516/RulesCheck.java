@@ -0,0 +1,252 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+/**
+ * Checks the rules code on random positions and prints the speed of the
+ * forbidden scans:
+ * - The cell tables agree with <code>PiecePosition</code> and a bit board
+ *   holds the pieces of its lists.
+ * - <code>BitBoard.checkFive</code> finds the same chain as a plain walk
+ *   along the lines, tried in the same order of the directions, also where
+ *   one move makes two fives.
+ * - The serial and the parallel <code>scanForbids</code>, the check of
+ *   single positions and <code>ThreatBoard</code> give the same forbidden
+ *   positions, and their digest is the one of the list based check the bit
+ *   boards replaced.
+ *
+ * Usage: RulesCheck [rounds]
+ */
+public final class RulesCheck {
+
+	/**
+	 * The number of random positions, which the digest below is of.
+	 */
+	private static final int POSITIONS = 3000;
+
+	/**
+	 * The CRC-32 of the forbidden reason of every position of every random
+	 * position, as the list based <code>CheckForbids</code> found them.
+	 */
+	private static final long LIST_BASED_DIGEST = 0xda033b94L;
+
+	/**
+	 * How x and y change along the directions, in the order the list based
+	 * check tried them.
+	 */
+	private static final int[] STEP_X = { 1, 1, 0, -1 };
+	private static final int[] STEP_Y = { 0, -1, -1, -1 };
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private RulesCheck() {
+	}
+
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		// The cells.
+		for (int index = 0; index < Cells.COUNT; index++) {
+			PiecePosition pos = PiecePosition.get(index);
+			if (pos.getIndex() != index || pos != PiecePosition.get(Cells.x(index), Cells.y(index))
+					|| Cells.indexOf(pos.getX(), pos.getY()) != index) {
+				throw new RuntimeException("Different coordinates of position " + index);
+			}
+			for (int direction = 0; direction < Cells.DIRECTIONS; direction++) {
+				if (Cells.neighbour(direction, index) != Cells.step(direction, index, 1)) {
+					throw new RuntimeException("Different neighbour of position " + index);
+				}
+			}
+		}
+
+		// Random positions without five in a row.
+		Random r = new Random(47);
+		ArrayList<ArrayList<PiecePosition>> blacks = new ArrayList<ArrayList<PiecePosition>>();
+		ArrayList<ArrayList<PiecePosition>> whites = new ArrayList<ArrayList<PiecePosition>>();
+		for (int i = 0; i < POSITIONS; i++) {
+			ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+			ArrayList<PiecePosition> whitePos = new ArrayList<PiecePosition>();
+			int pieces = 10 + r.nextInt(60);
+			for (int piece = 0; piece < pieces; piece++) {
+				ArrayList<PiecePosition> whichPos = piece % 2 == 0 ? blackPos : whitePos;
+				PiecePosition pos = PiecePosition.get(r.nextInt(Chess.BOARD_SIZE) + 1, r.nextInt(Chess.BOARD_SIZE) + 1);
+				if (blackPos.contains(pos) || whitePos.contains(pos)) {
+					continue;
+				}
+				if (longestChain(whichPos, pos) >= 5) {
+					continue;
+				}
+				whichPos.add(pos);
+			}
+			blacks.add(blackPos);
+			whites.add(whitePos);
+		}
+
+		// Two lines of four or five pieces crossing at the empty center, for
+		// every two directions.
+		PiecePosition center = PiecePosition.get(Chess.BOARD_SIZE / 2 + 1, Chess.BOARD_SIZE / 2 + 1);
+		for (int first = 0; first < STEP_X.length; first++) {
+			for (int second = first + 1; second < STEP_X.length; second++) {
+				for (int lengths = 0; lengths < 4; lengths++) {
+					ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+					for (int direction : new int[] { first, second }) {
+						int length = 5 + (direction == first ? lengths & 1 : lengths >> 1);
+						for (int i = -2; i <= length - 3; i++) {
+							if (i != 0) {
+								blackPos.add(PiecePosition.get(center.getX() + i * STEP_X[direction],
+										center.getY() + i * STEP_Y[direction]));
+							}
+						}
+					}
+					checkFives(new BitBoard(blackPos, new ArrayList<PiecePosition>()), blackPos,
+							new ArrayList<PiecePosition>(), "crossing " + first + "/" + second);
+				}
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		BitBoard[] boards = new BitBoard[POSITIONS];
+		CRC32 digest = new CRC32();
+		for (int i = 0; i < POSITIONS; i++) {
+			ArrayList<PiecePosition> blackPos = blacks.get(i);
+			ArrayList<PiecePosition> whitePos = whites.get(i);
+			BitBoard board = new BitBoard(blackPos, whitePos);
+			boards[i] = board;
+			for (int index = 0; index < Cells.COUNT; index++) {
+				PiecePosition pos = PiecePosition.get(index);
+				if (board.has(BitBoard.BLACK, index) != blackPos.contains(pos)
+						|| board.has(BitBoard.WHITE, index) != whitePos.contains(pos)) {
+					throw new RuntimeException("Different pieces of position " + i + " at " + pos);
+				}
+			}
+
+			checkFives(board, blackPos, whitePos, "position " + i);
+
+			// The forbidden positions of black.
+			int[] serial = CheckForbids.scanForbids(board);
+			int[] parallel = CheckForbids.scanForbids(board, pool);
+			ThreatBoard threats = new ThreatBoard(blackPos, whitePos, true);
+			for (int index = 0; index < Cells.COUNT; index++) {
+				int single = board.isEmpty(index)
+						? CheckForbids.checkForbids(PiecePosition.get(index), blackPos, whitePos)
+						: CheckForbids.NO_FORBIDDEN;
+				boolean threat = board.isEmpty(index) && threats.isForbidden(index);
+				if (serial[index] != single || parallel[index] != single
+						|| threat != (single != CheckForbids.NO_FORBIDDEN)) {
+					throw new RuntimeException("Different forbids of position " + i + " at "
+							+ PiecePosition.get(index));
+				}
+				digest.update(serial[index]);
+			}
+		}
+		if (digest.getValue() != LIST_BASED_DIGEST) {
+			throw new RuntimeException(String.format("Different forbids digest %08x, the list based check had %08x",
+					digest.getValue(), LIST_BASED_DIGEST));
+		}
+		System.out.println("All checks passed on " + POSITIONS + " positions");
+
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < POSITIONS; i++) {
+				CheckForbids.scanForbids(boards[i]);
+			}
+			long serial = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < POSITIONS; i++) {
+				CheckForbids.scanForbids(boards[i], pool);
+			}
+			long parallel = System.nanoTime() - start;
+
+			System.out.printf("Round %d: serial %.2f us/pos, parallel on %d threads %.2f us/pos (%.1fx)%n",
+					round + 1, serial / 1000.0 / POSITIONS, pool.getParallelism(), parallel / 1000.0 / POSITIONS,
+					(double) serial / parallel);
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Check the fives of either color on every empty position of the board.
+	 */
+	private static void checkFives(BitBoard board, ArrayList<PiecePosition> blackPos,
+			ArrayList<PiecePosition> whitePos, String name) {
+		for (int index = 0; index < Cells.COUNT; index++) {
+			if (!board.isEmpty(index)) {
+				continue;
+			}
+			for (int color = 0; color < 2; color++) {
+				ArrayList<PiecePosition> whichPos = color == BitBoard.BLACK ? blackPos : whitePos;
+				for (int exact = 0; exact < 2; exact++) {
+					HashSet<PiecePosition> expected = findChain(whichPos, PiecePosition.get(index), exact == 1);
+					HashSet<PiecePosition> actual = new HashSet<PiecePosition>();
+					board.set(color, index);
+					int direction = board.checkFive(color, index, exact == 1);
+					if (direction >= 0) {
+						ArrayList<PiecePosition> chain = new ArrayList<PiecePosition>();
+						board.addChain(color, index, direction, chain);
+						actual.addAll(chain);
+					}
+					board.clear(color, index);
+					if (!expected.equals(actual)) {
+						throw new RuntimeException("Different five of " + name + " at " + PiecePosition.get(index));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the length of the longest unbroken chain the piece would form
+	 * with the pieces.
+	 */
+	private static int longestChain(ArrayList<PiecePosition> whichPos, PiecePosition pos) {
+		int longest = 0;
+		for (int direction = 0; direction < STEP_X.length; direction++) {
+			longest = Math.max(longest, walk(whichPos, pos, direction, -1) + walk(whichPos, pos, direction, 1) + 1);
+		}
+		return longest;
+	}
+
+	/**
+	 * Return the chain of five (or more if not exact) the piece would form
+	 * with the pieces in the first direction having one, or an empty set.
+	 */
+	private static HashSet<PiecePosition> findChain(ArrayList<PiecePosition> whichPos, PiecePosition pos,
+			boolean exactFive) {
+		HashSet<PiecePosition> chain = new HashSet<PiecePosition>();
+		for (int direction = 0; direction < STEP_X.length; direction++) {
+			int backward = walk(whichPos, pos, direction, -1);
+			int forward = walk(whichPos, pos, direction, 1);
+			int length = backward + forward + 1;
+			if (exactFive ? length == 5 : length >= 5) {
+				for (int i = -backward; i <= forward; i++) {
+					chain.add(PiecePosition.get(pos.getX() + i * STEP_X[direction], pos.getY() + i * STEP_Y[direction]));
+				}
+				break;
+			}
+		}
+		return chain;
+	}
+
+	/**
+	 * Return the number of the pieces next to the position one after another
+	 * along the direction, forwards (1) or backwards (-1).
+	 */
+	private static int walk(ArrayList<PiecePosition> whichPos, PiecePosition pos, int direction, int sign) {
+		int count = 0;
+		int x = pos.getX() + sign * STEP_X[direction];
+		int y = pos.getY() + sign * STEP_Y[direction];
+		while (Cells.isOnBoard(x, y) && whichPos.contains(PiecePosition.get(x, y))) {
+			count++;
+			x += sign * STEP_X[direction];
+			y += sign * STEP_Y[direction];
+		}
+		return count;
+	}
+}
@@ -0,0 +1,510 @@
+package io.github.eagle38394516;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Hands out self-play games to <code>SelfPlayWorker</code>s on other JVMs or
+ * hosts, and collects the records of the games.
+ *
+ * The protocol is plain binary over a socket. Both sides start with
+ * <code>PROTOCOL_MAGIC</code> and <code>PROTOCOL_VERSION</code>, and a peer
+ * of another version is disconnected, since the jobs and records are written
+ * without any version of their own. Then a worker asks for a batch of jobs;
+ * the coordinator answers with the jobs, with a wait when there are none
+ * pending, or with the end when it's closed. The worker streams back one
+ * record per game as it finishes, or the failure of the game.
+ *
+ * Every job handed out is leased. When the worker disconnects or the lease
+ * expires, the job is handed out again, so every job is played at least once.
+ * The records are deduplicated by the job id, so a job played twice is only
+ * counted once. A job failing <code>MAX_ATTEMPTS</code> times is given up.
+ */
+public final class SelfPlayCoordinator implements Closeable {
+
+	/**
+	 * The port the coordinator listens on by default.
+	 */
+	public static final int DEFAULT_PORT = 7395;
+
+	/**
+	 * The first int both sides send, "GMKP".
+	 */
+	static final int PROTOCOL_MAGIC = 0x474D4B50;
+
+	/**
+	 * The version both sides send after <code>PROTOCOL_MAGIC</code>. It
+	 * changes with the format of the messages, the jobs or the records.
+	 */
+	static final int PROTOCOL_VERSION = 4;
+
+	/**
+	 * How long a worker has to send its version after connecting.
+	 */
+	private static final int HANDSHAKE_MILLIS = 10000;
+
+	/**
+	 * Worker to coordinator: ask for jobs. Argument: the largest number.
+	 */
+	static final byte REQUEST = 1;
+
+	/**
+	 * Worker to coordinator: the record of a played game.
+	 */
+	static final byte RESULT = 2;
+
+	/**
+	 * Worker to coordinator: a game failed. Arguments: the job id and the
+	 * error.
+	 */
+	static final byte FAILED = 3;
+
+	/**
+	 * Coordinator to worker: a batch of jobs, the number and the jobs.
+	 */
+	static final byte JOBS = 1;
+
+	/**
+	 * Coordinator to worker: no jobs now, ask again later. Argument: the
+	 * milliseconds to wait.
+	 */
+	static final byte WAIT = 2;
+
+	/**
+	 * Coordinator to worker: no more jobs, disconnect.
+	 */
+	static final byte DONE = 3;
+
+	/**
+	 * How long a worker waits when there are no jobs.
+	 */
+	private static final int WAIT_MILLIS = 100;
+
+	/**
+	 * How many times a job is played before its failure is final.
+	 */
+	static final int MAX_ATTEMPTS = 3;
+
+	private final ServerSocket server;
+	private final long leaseMillis;
+	private final Thread acceptor;
+
+	private final ArrayDeque<GameJob> pending = new ArrayDeque<GameJob>();
+
+	/**
+	 * The jobs handed out and not played yet, by id.
+	 */
+	private final Map<Long, Lease> leases = new HashMap<Long, Lease>();
+
+	/**
+	 * The records of the submitted jobs not taken yet, by id.
+	 */
+	private final Map<Long, GameRecord> results = new HashMap<Long, GameRecord>();
+
+	/**
+	 * The ids of the jobs to play and not played yet. The records of the
+	 * other jobs are dropped, as their jobs were played before. It only holds
+	 * the jobs of <code>play</code>, so it doesn't grow with the games
+	 * played.
+	 */
+	private final Set<Long> outstanding = new HashSet<Long>();
+
+	/**
+	 * The failures of the outstanding jobs so far, by id.
+	 */
+	private final Map<Long, Integer> attempts = new HashMap<Long, Integer>();
+
+	/**
+	 * The errors of the jobs given up and not taken yet, by id.
+	 */
+	private final Map<Long, String> failures = new HashMap<Long, String>();
+
+	private boolean closed = false;
+	private int workers = 0;
+	private long requeued = 0;
+	private long duplicates = 0;
+
+	private static final class Lease {
+		final GameJob job;
+		final Object worker;
+		final long deadline;
+
+		Lease(GameJob job, Object worker, long deadline) {
+			this.job = job;
+			this.worker = worker;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * Start listening for workers.
+	 *
+	 * @param port
+	 *            The port, or 0 for any free port.
+	 * @param leaseMillis
+	 *            How long a worker may take to return the record of a job
+	 *            before it's handed out again.
+	 */
+	public SelfPlayCoordinator(int port, long leaseMillis) throws IOException {
+		this.server = new ServerSocket(port);
+		this.leaseMillis = leaseMillis;
+		acceptor = new Thread("SelfPlayCoordinator") {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						final Socket socket = server.accept();
+						Thread thread = new Thread("SelfPlayCoordinator " + socket.getRemoteSocketAddress()) {
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						};
+						thread.setDaemon(true);
+						thread.start();
+					} catch (IOException e) {
+						if (!server.isClosed()) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Let the workers play the games, and wait for all the records.
+	 *
+	 * @return The records, in the order of the jobs.
+	 * @throws IllegalStateException
+	 *             If a job failed <code>MAX_ATTEMPTS</code> times.
+	 */
+	public List<GameRecord> play(List<GameJob> jobs) throws InterruptedException {
+		synchronized (this) {
+			for (GameJob job : jobs) {
+				outstanding.add(job.getId());
+			}
+			pending.addAll(jobs);
+			notifyAll();
+		}
+		List<GameRecord> records = new ArrayList<GameRecord>(jobs.size());
+		for (GameJob job : jobs) {
+			records.add(take(job.getId()));
+		}
+		return records;
+	}
+
+	private synchronized GameRecord take(long id) throws InterruptedException {
+		while (!results.containsKey(id)) {
+			if (failures.containsKey(id)) {
+				throw new IllegalStateException("The job " + id + " failed " + MAX_ATTEMPTS + " times: "
+						+ failures.remove(id));
+			}
+			if (closed) {
+				throw new IllegalStateException("The coordinator is closed");
+			}
+			expireLeases();
+			wait(leaseMillis);
+		}
+		return results.remove(id);
+	}
+
+	/**
+	 * Hand out the jobs of the expired leases again.
+	 */
+	private synchronized void expireLeases() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Lease> it = leases.values().iterator(); it.hasNext();) {
+			Lease lease = it.next();
+			if (lease.deadline <= now) {
+				it.remove();
+				pending.addFirst(lease.job);
+				requeued++;
+			}
+		}
+	}
+
+	/**
+	 * Hand out the jobs of a disconnected worker again.
+	 */
+	private synchronized void releaseLeases(Object worker) {
+		for (Iterator<Lease> it = leases.values().iterator(); it.hasNext();) {
+			Lease lease = it.next();
+			if (lease.worker == worker) {
+				it.remove();
+				pending.addFirst(lease.job);
+				requeued++;
+			}
+		}
+		notifyAll();
+	}
+
+	private synchronized List<GameJob> lease(Object worker, int count) {
+		expireLeases();
+		List<GameJob> jobs = new ArrayList<GameJob>();
+		long deadline = System.currentTimeMillis() + leaseMillis;
+		while (jobs.size() < count && !pending.isEmpty()) {
+			GameJob job = pending.poll();
+			if (!outstanding.contains(job.getId())) {
+				// Played by another worker after its lease expired.
+				continue;
+			}
+			leases.put(job.getId(), new Lease(job, worker, deadline));
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+	private synchronized void complete(GameRecord record) {
+		leases.remove(record.getId());
+		if (!outstanding.remove(record.getId())) {
+			duplicates++;
+			return;
+		}
+		attempts.remove(record.getId());
+		results.put(record.getId(), record);
+		notifyAll();
+	}
+
+	/**
+	 * Hand out a failed job again, to another worker if there is one, or give
+	 * it up after <code>MAX_ATTEMPTS</code> failures.
+	 */
+	private synchronized void fail(Object worker, long id, String error) {
+		Lease lease = leases.get(id);
+		if (lease != null && lease.worker == worker) {
+			leases.remove(id);
+		} else {
+			// Handed out again already.
+			lease = null;
+		}
+		if (!outstanding.contains(id)) {
+			return;
+		}
+		System.err.println("The job " + id + " failed: " + error);
+		if (attempts.merge(id, 1, Integer::sum) >= MAX_ATTEMPTS) {
+			outstanding.remove(id);
+			attempts.remove(id);
+			failures.put(id, error);
+			notifyAll();
+		} else if (lease != null) {
+			pending.addLast(lease.job);
+			requeued++;
+		}
+	}
+
+	private void serve(Socket socket) {
+		Object worker = new Object();
+		synchronized (this) {
+			workers++;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			out.writeInt(PROTOCOL_MAGIC);
+			out.writeInt(PROTOCOL_VERSION);
+			out.flush();
+			socket.setSoTimeout(HANDSHAKE_MILLIS);
+			int magic = in.readInt();
+			int version = magic == PROTOCOL_MAGIC ? in.readInt() : -1;
+			if (version != PROTOCOL_VERSION) {
+				System.err.println("Rejected the worker at " + socket.getRemoteSocketAddress()
+						+ (version < 0 ? ": not a self-play worker" : ": protocol version " + version));
+				return;
+			}
+			socket.setSoTimeout(0);
+			while (true) {
+				byte op = in.readByte();
+				if (op == RESULT) {
+					complete(GameRecord.read(in));
+				} else if (op == FAILED) {
+					fail(worker, in.readLong(), in.readUTF());
+				} else if (op == REQUEST) {
+					int count = in.readInt();
+					List<GameJob> jobs = lease(worker, count);
+					if (!jobs.isEmpty()) {
+						out.writeByte(JOBS);
+						out.writeInt(jobs.size());
+						for (GameJob job : jobs) {
+							job.write(out);
+						}
+					} else if (isClosed()) {
+						out.writeByte(DONE);
+						out.flush();
+						return;
+					} else {
+						out.writeByte(WAIT);
+						out.writeInt(WAIT_MILLIS);
+					}
+					out.flush();
+				} else {
+					throw new IOException("Invalid message " + op);
+				}
+			}
+		} catch (IOException e) {
+			// The worker is gone.
+		} finally {
+			releaseLeases(worker);
+			synchronized (this) {
+				workers--;
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Return the number of connected workers.
+	 */
+	public synchronized int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Return the number of jobs handed out again so far.
+	 */
+	public synchronized long getRequeued() {
+		return requeued;
+	}
+
+	/**
+	 * Return the number of records dropped as their jobs were played before.
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+	/**
+	 * Stop accepting workers and tell the connected ones to finish.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		server.close();
+	}
+
+	/**
+	 * Play games between the weights of <code>RatingWeights.WEIGHTS_FILE</code>
+	 * and the default weights, and append the records to a file.
+	 *
+	 * Usage: SelfPlayCoordinator [-port P] [-local N] [-games G] [-advanced]
+	 * [-adjudicate RULES] [-out FILE]
+	 *
+	 * With -local, N worker processes are started on this machine. The rules
+	 * of -adjudicate are those of <code>Adjudication.parse</code>. The records
+	 * are appended to the file, which must be empty or of the current
+	 * format. The ids go on from the records already in the file, so they
+	 * stay unique across runs.
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = DEFAULT_PORT, localWorkers = 0, games = 1000;
+		boolean usingAdvancedRules = false;
+		Adjudication adjudication = Adjudication.OFF;
+		File outFile = new File("selfplay.records");
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port")) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-local")) {
+				localWorkers = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-games")) {
+				games = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-advanced")) {
+				usingAdvancedRules = true;
+			} else if (args[i].equals("-adjudicate")) {
+				adjudication = Adjudication.parse(args[++i]);
+			} else if (args[i].equals("-out")) {
+				outFile = new File(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+
+		// Fail before playing rather than after.
+		boolean newFile = outFile.length() == 0;
+		long firstId = 0;
+		if (!newFile) {
+			try {
+				for (GameRecord record : GameRecord.readFile(outFile)) {
+					firstId = Math.max(firstId, record.getId() + 1);
+				}
+			} catch (IOException e) {
+				throw new IOException(outFile + ": " + e.getMessage() + ", use -out for a new file", e);
+			}
+			// The tuned weights play black in the even games.
+			firstId += firstId % 2;
+		}
+
+		SelfPlayCoordinator coordinator = new SelfPlayCoordinator(port, 60000);
+		List<Process> processes = new ArrayList<Process>();
+		for (int i = 0; i < localWorkers; i++) {
+			processes.add(SelfPlayWorker.startProcess("localhost", coordinator.getPort(), 1));
+		}
+
+		RatingWeights tuned = RatingWeights.loadOrDefault();
+		Random r = new Random();
+		List<GameJob> jobs = new ArrayList<GameJob>();
+		for (int i = 0; i < games; i++) {
+			boolean tunedIsBlack = i % 2 == 0;
+			jobs.add(new GameJob(firstId + i, tunedIsBlack ? tuned : RatingWeights.DEFAULT,
+					tunedIsBlack ? RatingWeights.DEFAULT : tuned, r.nextLong(), usingAdvancedRules, adjudication));
+		}
+		long start = System.currentTimeMillis();
+		List<GameRecord> records = coordinator.play(jobs);
+		long elapsed = System.currentTimeMillis() - start;
+
+		int tunedPoints = 0, adjudicated = 0;
+		long plies = 0;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile, true)))) {
+			if (newFile) {
+				GameRecord.writeHeader(out);
+			}
+			for (GameRecord record : records) {
+				record.write(out);
+				tunedPoints += record.getId() % 2 == 0 ? record.getResult() : -record.getResult();
+				adjudicated += record.getAdjudication() != Adjudication.NONE ? 1 : 0;
+				plies += record.getMoves().size();
+			}
+		}
+		System.out.printf("%d games in %d ms by %d workers, tuned weights score %+d, requeued %d, duplicates %d%n",
+				games, elapsed, coordinator.getWorkers(), tunedPoints, coordinator.getRequeued(),
+				coordinator.getDuplicates());
+		System.out.printf("Adjudication %s: %d games adjudicated, %.1f plies a game%n", adjudication, adjudicated,
+				records.isEmpty() ? 0.0 : (double) plies / records.size());
+
+		coordinator.close();
+		for (Process process : processes) {
+			process.waitFor();
+		}
+	}
+}
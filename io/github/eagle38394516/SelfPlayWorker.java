@@ -0,0 +1,156 @@
+package io.github.eagle38394516;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays the self-play games of a <code>SelfPlayCoordinator</code>: asks for
+ * a batch of jobs, plays them on its threads, streams back each record as the
+ * game ends, and asks again, until the coordinator has no more jobs. A game
+ * throwing is reported to the coordinator, which decides whether to play it
+ * again, and the worker goes on with the other games.
+ */
+public final class SelfPlayWorker {
+
+	private final String host;
+	private final int port;
+	private final int threads;
+
+	/**
+	 * @param threads
+	 *            The number of games played at the same time. Twice as many
+	 *            jobs are asked for at once, so the threads don't run idle
+	 *            while the records of a batch are sent.
+	 */
+	public SelfPlayWorker(String host, int port, int threads) {
+		this.host = host;
+		this.port = port;
+		this.threads = threads;
+	}
+
+	/**
+	 * Play games until the coordinator has no more or goes away.
+	 */
+	public void run() throws IOException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (Socket socket = new Socket(host, port);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			handshake(in, out);
+			ExecutorCompletionService<GameRecord> games = new ExecutorCompletionService<GameRecord>(executor);
+			// The coordinator reports every failure; only the first stack
+			// trace is printed here.
+			boolean failed = false;
+			while (true) {
+				out.writeByte(SelfPlayCoordinator.REQUEST);
+				out.writeInt(threads * 2);
+				out.flush();
+				byte op = in.readByte();
+				if (op == SelfPlayCoordinator.DONE) {
+					return;
+				} else if (op == SelfPlayCoordinator.WAIT) {
+					Thread.sleep(in.readInt());
+					continue;
+				} else if (op != SelfPlayCoordinator.JOBS) {
+					throw new IOException("Invalid message " + op);
+				}
+
+				int count = in.readInt();
+				Map<Future<GameRecord>, GameJob> jobs = new HashMap<Future<GameRecord>, GameJob>();
+				for (int i = 0; i < count; i++) {
+					GameJob job = GameJob.read(in);
+					jobs.put(games.submit(job::play), job);
+				}
+				for (int i = 0; i < count; i++) {
+					Future<GameRecord> game = games.take();
+					try {
+						GameRecord record = game.get();
+						out.writeByte(SelfPlayCoordinator.RESULT);
+						record.write(out);
+					} catch (ExecutionException e) {
+						if (!failed) {
+							failed = true;
+							e.getCause().printStackTrace();
+						}
+						out.writeByte(SelfPlayCoordinator.FAILED);
+						out.writeLong(jobs.get(game).getId());
+						out.writeUTF(describe(e.getCause()));
+					}
+					out.flush();
+				}
+			}
+		} catch (EOFException e) {
+			// The coordinator is gone, which ends the work as well.
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Return the error of a failed game, short enough for
+	 * <code>writeUTF</code>.
+	 */
+	private static String describe(Throwable error) {
+		String description = error.toString();
+		return description.length() > 1000 ? description.substring(0, 1000) : description;
+	}
+
+	/**
+	 * Exchange the protocol versions with the coordinator.
+	 *
+	 * @throws IOException
+	 *             If the coordinator is of another version.
+	 */
+	private static void handshake(DataInputStream in, DataOutputStream out) throws IOException {
+		out.writeInt(SelfPlayCoordinator.PROTOCOL_MAGIC);
+		out.writeInt(SelfPlayCoordinator.PROTOCOL_VERSION);
+		out.flush();
+		int magic, version;
+		try {
+			magic = in.readInt();
+			version = magic == SelfPlayCoordinator.PROTOCOL_MAGIC ? in.readInt() : -1;
+		} catch (EOFException e) {
+			// A coordinator without the handshake closes on the version.
+			throw new IOException("The coordinator closed the connection, it may be of an older version");
+		}
+		if (version != SelfPlayCoordinator.PROTOCOL_VERSION) {
+			throw new IOException(version < 0 ? "Not a self-play coordinator"
+					: "The coordinator has protocol version " + version + ", expected "
+							+ SelfPlayCoordinator.PROTOCOL_VERSION);
+		}
+	}
+
+	/**
+	 * Start a worker in a new JVM on this machine, with the class path of
+	 * this one.
+	 */
+	static Process startProcess(String host, int port, int threads) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				SelfPlayWorker.class.getName(), host, Integer.toString(port), Integer.toString(threads))
+				.inheritIO().start();
+	}
+
+	/**
+	 * Usage: SelfPlayWorker [host] [port] [threads]
+	 */
+	public static void main(String[] args) throws Exception {
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : SelfPlayCoordinator.DEFAULT_PORT;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		new SelfPlayWorker(host, port, threads).run();
+	}
+}
@@ -0,0 +1,502 @@
+package io.github.eagle38394516;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays two engine configurations against each other until a sequential
+ * probability ratio test decides whether the new one is stronger than the
+ * base one, and exits with a code usable as a regression gate.
+ *
+ * Every random opening is played twice with the colors swapped, and the pairs
+ * are played on several threads. After each pair the log-likelihood ratio of
+ * H1 (the Elo difference is elo1) against H0 (it is elo0) is computed by the
+ * normal approximation of the pair scores, and the match stops as soon as it
+ * leaves the bounds given by alpha and beta. The Elo difference, the time per
+ * move and the nodes per second of both engines are reported.
+ *
+ * An engine is given as <code>evaluator[:file][,vcf][,depth=N]</code>:
+ *
+ * <pre>
+ * tuple[:weights]   TupleEvaluator of a weights file, the default weights if none
+ * pattern           PatternEvaluator
+ * nnue[:network]    NnueEvaluator of a network file, nnue.bin if none
+ * vcf               Look for a win by continuous fours first, as calcBestPos does
+ * depth=N           Pick the move by an Analysis search of N plies
+ * </pre>
+ *
+ * The nodes are the positions searched by the VCF solver and the analysis,
+ * plus one for every board scored to pick a move. The games can be ended
+ * early by an <code>Adjudication</code>.
+ *
+ * Exit codes: 0 if H1 is accepted and the new engine isn't slower than
+ * allowed, 1 if H0 is accepted or it is too slow, 2 if the largest number
+ * of pairs is reached first.
+ */
+public final class SprtMatch {
+
+	public static final int PASSED = 0;
+	public static final int FAILED = 1;
+	public static final int INCONCLUSIVE = 2;
+
+	/**
+	 * An engine configuration, creating a new player for every game since the
+	 * evaluators keep the board they saw last.
+	 */
+	public static final class Engine {
+
+		private final String spec;
+		private final String evaluator;
+		private final RatingWeights weights;
+		private final NnueWeights network;
+		private final boolean vcf;
+		private final int depth;
+
+		public Engine(String spec) throws IOException {
+			this.spec = spec;
+			String[] parts = spec.split(",");
+			String[] name = parts[0].split(":", 2);
+			this.evaluator = name[0];
+			boolean vcf = false;
+			int depth = 0;
+			for (int i = 1; i < parts.length; i++) {
+				if (parts[i].equals("vcf")) {
+					vcf = true;
+				} else if (parts[i].startsWith("depth=")) {
+					depth = Integer.parseInt(parts[i].substring("depth=".length()));
+				} else {
+					throw new IllegalArgumentException("Unknown engine option - " + parts[i]);
+				}
+			}
+			this.vcf = vcf;
+			this.depth = depth;
+			if (evaluator.equals("tuple")) {
+				weights = name.length > 1 ? RatingWeights.load(new File(name[1])) : RatingWeights.loadOrDefault();
+				network = null;
+			} else if (evaluator.equals("pattern")) {
+				weights = null;
+				network = null;
+			} else if (evaluator.equals("nnue")) {
+				weights = null;
+				network = NnueWeights.load(new File(name.length > 1 ? name[1] : NnueWeights.WEIGHTS_FILE));
+			} else {
+				throw new IllegalArgumentException("Unknown evaluator - " + evaluator);
+			}
+		}
+
+		Evaluator newEvaluator() {
+			if (weights != null) {
+				return new TupleEvaluator(weights);
+			} else if (network != null) {
+				return new NnueEvaluator(network);
+			}
+			return new PatternEvaluator();
+		}
+
+		@Override
+		public String toString() {
+			return spec;
+		}
+	}
+
+	/**
+	 * An engine playing one game.
+	 */
+	private static final class Player {
+
+		final Engine engine;
+		final Evaluator evaluator;
+		final VcfSolver vcfSolver = new VcfSolver();
+		long moves = 0;
+		long nanos = 0;
+		long nodes = 0;
+
+		Player(Engine engine) {
+			this.engine = engine;
+			this.evaluator = engine.newEvaluator();
+		}
+
+		/**
+		 * Return the move, or null if black only has forbidden positions.
+		 */
+		PiecePosition move(BitBoard board, ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos,
+				int color, boolean usingAdvancedRules) {
+			long start = System.nanoTime();
+			try {
+				return search(board, blackPos, whitePos, color, usingAdvancedRules);
+			} finally {
+				nanos += System.nanoTime() - start;
+				moves++;
+			}
+		}
+
+		private PiecePosition search(BitBoard board, ArrayList<PiecePosition> blackPos,
+				ArrayList<PiecePosition> whitePos, int color, boolean usingAdvancedRules) {
+			boolean excludingForbids = usingAdvancedRules && color == BitBoard.BLACK;
+			if (engine.vcf) {
+				List<PiecePosition> line = vcfSolver.solve(blackPos, whitePos, color == BitBoard.BLACK,
+						usingAdvancedRules, MoveChoice.VCF_MAX_FOURS, MoveChoice.VCF_NODE_LIMIT);
+				nodes += vcfSolver.getNodes();
+				if (line != null) {
+					return line.get(0);
+				}
+			}
+			if (engine.depth > 0) {
+				List<PiecePosition> forbids = new ArrayList<PiecePosition>();
+				if (excludingForbids) {
+					int[] reasons = CheckForbids.scanForbids(board);
+					for (int index = 0; index < Cells.COUNT; index++) {
+						if (reasons[index] != CheckForbids.NO_FORBIDDEN) {
+							forbids.add(PiecePosition.get(index));
+						}
+					}
+				}
+				final List<List<AnalysisLine>> result = new ArrayList<List<AnalysisLine>>();
+				Analysis analysis = new Analysis(board, color, usingAdvancedRules, forbids, evaluator, 1,
+						engine.depth);
+				analysis.addListener(new AnalysisListener() {
+					@Override
+					public void iterationFinished(int depth, long nodes, List<AnalysisLine> lines) {
+						result.clear();
+						result.add(lines);
+					}
+
+					@Override
+					public void analysisStopped(boolean cancelled) {
+					}
+				});
+				analysis.run();
+				nodes += analysis.getNodes();
+				if (!result.isEmpty() && !result.get(0).isEmpty()) {
+					return result.get(0).get(0).getMove();
+				}
+			}
+			nodes++;
+			return MoveChoice.byScores(board, evaluator.evaluate(board, color), excludingForbids);
+		}
+	}
+
+	/**
+	 * The results of a pair of games with the colors swapped.
+	 */
+	private static final class Pair {
+
+		/**
+		 * The points of the new engine, 0 to 2.
+		 */
+		double points;
+		int adjudicated;
+		final long[] moves = new long[2];
+		final long[] nanos = new long[2];
+		final long[] nodes = new long[2];
+	}
+
+	private final Engine newEngine;
+	private final Engine baseEngine;
+	private final boolean usingAdvancedRules;
+	private final int openingMoves;
+	private final long seed;
+	private Adjudication adjudication = Adjudication.OFF;
+
+	/**
+	 * @param openingMoves
+	 *            The number of random moves around the center every opening
+	 *            has.
+	 * @param seed
+	 *            Pair n is played from the opening of the seed plus n.
+	 */
+	public SprtMatch(Engine newEngine, Engine baseEngine, boolean usingAdvancedRules, int openingMoves, long seed) {
+		this.newEngine = newEngine;
+		this.baseEngine = baseEngine;
+		this.usingAdvancedRules = usingAdvancedRules;
+		this.openingMoves = openingMoves;
+		this.seed = seed;
+	}
+
+	/**
+	 * Set the rules ending the games early, <code>Adjudication.OFF</code> by
+	 * default.
+	 */
+	public void setAdjudication(Adjudication adjudication) {
+		this.adjudication = adjudication;
+	}
+
+	/**
+	 * Return a random opening around the center.
+	 */
+	int[] opening(int pair) {
+		Random r = new Random(seed + pair);
+		int center = (Chess.BOARD_SIZE + 1) / 2;
+		int[] opening = new int[openingMoves];
+		for (int move = 0; move < openingMoves; move++) {
+			boolean taken;
+			do {
+				opening[move] = Cells.indexOf(center + r.nextInt(5) - 2, center + r.nextInt(5) - 2);
+				taken = false;
+				for (int before = 0; before < move; before++) {
+					taken |= opening[before] == opening[move];
+				}
+			} while (taken);
+		}
+		return opening;
+	}
+
+	/**
+	 * Play the opening twice with the colors swapped.
+	 */
+	Pair playPair(int pair) {
+		int[] opening = opening(pair);
+		Pair result = new Pair();
+		for (int game = 0; game < 2; game++) {
+			Player newPlayer = new Player(newEngine);
+			Player basePlayer = new Player(baseEngine);
+			boolean newIsBlack = game == 0;
+			int winner = playGame(opening, newIsBlack ? newPlayer : basePlayer, newIsBlack ? basePlayer : newPlayer,
+					result);
+			if (winner == (newIsBlack ? BitBoard.BLACK : BitBoard.WHITE)) {
+				result.points += 1;
+			} else if (winner < 0) {
+				result.points += 0.5;
+			}
+			Player[] players = { newPlayer, basePlayer };
+			for (int p = 0; p < 2; p++) {
+				result.moves[p] += players[p].moves;
+				result.nanos[p] += players[p].nanos;
+				result.nodes[p] += players[p].nodes;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Play one game from the opening.
+	 *
+	 * @param pair
+	 *            Counts the game if it's adjudicated.
+	 * @return The color of the winner, or -1 for tie.
+	 */
+	private int playGame(int[] opening, Player black, Player white, Pair pair) {
+		BitBoard board = new BitBoard();
+		ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+		ArrayList<PiecePosition> whitePos = new ArrayList<PiecePosition>();
+		Adjudication.Judge judge = adjudication.isOff() ? null : adjudication.newJudge(usingAdvancedRules);
+		for (int ply = 0; ply < Cells.COUNT; ply++) {
+			int color = ply % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE;
+			PiecePosition pos;
+			if (judge != null && ply >= opening.length && judge.adjudicate(board, color, ply)) {
+				pair.adjudicated++;
+				return judge.getResult() > 0 ? BitBoard.BLACK : judge.getResult() < 0 ? BitBoard.WHITE : -1;
+			}
+			if (ply < opening.length) {
+				pos = PiecePosition.get(opening[ply]);
+			} else {
+				pos = (color == BitBoard.BLACK ? black : white).move(board, blackPos, whitePos, color,
+						usingAdvancedRules);
+				if (pos == null) {
+					// Only forbidden positions are left for black.
+					return -1;
+				}
+			}
+			board.set(color, pos.getIndex());
+			(color == BitBoard.BLACK ? blackPos : whitePos).add(pos);
+			if (board.checkFive(color, pos.getIndex(), usingAdvancedRules && color == BitBoard.BLACK) >= 0) {
+				return color;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the expected score of the Elo difference.
+	 */
+	static double expectedScore(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	/**
+	 * Return the Elo difference of the expected score.
+	 */
+	static double elo(double score) {
+		score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	/**
+	 * Return the log-likelihood ratio of H1 against H0 by the normal
+	 * approximation of the pair scores.
+	 *
+	 * @param sum
+	 *            The sum of the pair scores, each the points divided by 2.
+	 * @param squares
+	 *            The sum of the squares of the pair scores.
+	 */
+	static double llr(int pairs, double sum, double squares, double elo0, double elo1) {
+		if (pairs < 2) {
+			return 0;
+		}
+		double mean = sum / pairs;
+		double variance = squares / pairs - mean * mean;
+		if (variance <= 0) {
+			// All the pairs scored the same; assume the variance of one draw
+			// in four games.
+			variance = 1.0 / 64;
+		}
+		double s0 = expectedScore(elo0), s1 = expectedScore(elo1);
+		return pairs * (s1 - s0) * (2 * mean - s0 - s1) / (2 * variance);
+	}
+
+	/**
+	 * Usage: SprtMatch -new ENGINE -base ENGINE [-elo0 E] [-elo1 E] [-alpha A]
+	 * [-beta B] [-pairs N] [-threads T] [-opening N] [-advanced]
+	 * [-adjudicate RULES] [-maxslowdown R] [-seed S]
+	 *
+	 * -maxslowdown is the largest allowed ratio of the time per move of the
+	 * new engine to the base one, 0 for no limit. The rules of -adjudicate are
+	 * those of <code>Adjudication.parse</code>.
+	 */
+	public static void main(String[] args) throws Exception {
+		String newSpec = null, baseSpec = null;
+		double elo0 = 0, elo1 = 10, alpha = 0.05, beta = 0.05, maxSlowdown = 1.25;
+		int maxPairs = 5000, threads = Runtime.getRuntime().availableProcessors(), openingMoves = 3;
+		boolean usingAdvancedRules = false;
+		Adjudication adjudication = Adjudication.OFF;
+		long seed = System.nanoTime();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-new")) {
+				newSpec = args[++i];
+			} else if (args[i].equals("-base")) {
+				baseSpec = args[++i];
+			} else if (args[i].equals("-elo0")) {
+				elo0 = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-elo1")) {
+				elo1 = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-alpha")) {
+				alpha = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-beta")) {
+				beta = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-pairs")) {
+				maxPairs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-opening")) {
+				openingMoves = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-advanced")) {
+				usingAdvancedRules = true;
+			} else if (args[i].equals("-adjudicate")) {
+				adjudication = Adjudication.parse(args[++i]);
+			} else if (args[i].equals("-maxslowdown")) {
+				maxSlowdown = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+		if (newSpec == null || baseSpec == null) {
+			throw new IllegalArgumentException("Both -new and -base are required");
+		}
+		if (openingMoves < 1 || openingMoves > 25) {
+			throw new IllegalArgumentException("The opening must have 1 to 25 moves - " + openingMoves);
+		}
+		SprtMatch match = new SprtMatch(new Engine(newSpec), new Engine(baseSpec), usingAdvancedRules, openingMoves,
+				seed);
+		match.setAdjudication(adjudication);
+		System.exit(run(match, elo0, elo1, alpha, beta, maxPairs, threads, maxSlowdown));
+	}
+
+	/**
+	 * Play the match and print the progress and the result.
+	 *
+	 * @return <code>PASSED</code>, <code>FAILED</code> or
+	 *         <code>INCONCLUSIVE</code>.
+	 */
+	public static int run(SprtMatch match, double elo0, double elo1, double alpha, double beta, int maxPairs,
+			int threads, double maxSlowdown) throws InterruptedException {
+		double lower = Math.log(beta / (1 - alpha));
+		double upper = Math.log((1 - beta) / alpha);
+		System.out.printf("SPRT %s vs %s: elo0 %.1f, elo1 %.1f, alpha %.3f, beta %.3f, bounds [%.2f, %.2f]%n",
+				match.newEngine, match.baseEngine, elo0, elo1, alpha, beta, lower, upper);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ExecutorCompletionService<Pair> pairs = new ExecutorCompletionService<Pair>(executor);
+		int submitted = 0, done = 0;
+		int wins = 0, losses = 0, draws = 0, adjudicated = 0;
+		double sum = 0, squares = 0, llr = 0;
+		long[] moves = new long[2], nanos = new long[2], nodes = new long[2];
+		int status = INCONCLUSIVE;
+		try {
+			// Keep every thread busy, but don't play far past the decision.
+			for (; submitted < Math.min(maxPairs, threads * 2); submitted++) {
+				final int pair = submitted;
+				pairs.submit(() -> match.playPair(pair));
+			}
+			while (done < submitted) {
+				Pair pair = pairs.take().get();
+				done++;
+				if (submitted < maxPairs) {
+					final int next = submitted++;
+					pairs.submit(() -> match.playPair(next));
+				}
+
+				double score = pair.points / 2;
+				sum += score;
+				squares += score * score;
+				wins += pair.points == 2 ? 1 : 0;
+				losses += pair.points == 0 ? 1 : 0;
+				draws += pair.points != 2 && pair.points != 0 ? 1 : 0;
+				adjudicated += pair.adjudicated;
+				for (int p = 0; p < 2; p++) {
+					moves[p] += pair.moves[p];
+					nanos[p] += pair.nanos[p];
+					nodes[p] += pair.nodes[p];
+				}
+				llr = llr(done, sum, squares, elo0, elo1);
+				if (done % 20 == 0) {
+					System.out.printf("%d pairs: %+.1f Elo, LLR %.2f%n", done, elo(sum / done), llr);
+				}
+				if (llr >= upper) {
+					status = PASSED;
+					break;
+				} else if (llr <= lower) {
+					status = FAILED;
+					break;
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		double mean = sum / done;
+		double error = 1.96 * Math.sqrt(Math.max(0, squares / done - mean * mean) / done);
+		System.out.printf("%d pairs (won %d, lost %d, split %d): %+.1f Elo [%+.1f, %+.1f], LLR %.2f%n", done, wins,
+				losses, draws, elo(mean), elo(mean - error), elo(mean + error), llr);
+		if (!match.adjudication.isOff()) {
+			System.out.printf("Adjudication %s: %d of %d games%n", match.adjudication, adjudicated, done * 2);
+		}
+		String[] names = { "new", "base" };
+		double[] timePerMove = new double[2];
+		for (int p = 0; p < 2; p++) {
+			timePerMove[p] = moves[p] == 0 ? 0 : nanos[p] / 1e6 / moves[p];
+			System.out.printf("%-4s %s: %.3f ms/move, %.0f nodes/s%n", names[p],
+					p == 0 ? match.newEngine : match.baseEngine, timePerMove[p],
+					nanos[p] == 0 ? 0 : nodes[p] / (nanos[p] / 1e9));
+		}
+		if (status == PASSED && maxSlowdown > 0 && timePerMove[0] > timePerMove[1] * maxSlowdown) {
+			System.out.printf("FAILED: H1 accepted, but %.2fx slower per move, over %.2fx%n",
+					timePerMove[0] / timePerMove[1], maxSlowdown);
+			return FAILED;
+		}
+		System.out.println(status == PASSED ? "PASSED: H1 accepted" : status == FAILED ? "FAILED: H0 accepted"
+				: "INCONCLUSIVE: " + maxPairs + " pairs played");
+		return status;
+	}
+}
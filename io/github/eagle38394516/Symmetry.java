@@ -0,0 +1,89 @@
+package io.github.eagle38394516;
+
+/**
+ * The eight dihedral symmetries of the square board. Positions are numbered
+ * by index = (y - 1) * BOARD_SIZE + (x - 1).
+ *
+ * The index permutation of every symmetry is precomputed, so that
+ * transforming a position costs one array lookup.
+ *
+ * @see ZobristHash
+ */
+public final class Symmetry {
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private Symmetry() {
+	}
+
+	/**
+	 * The number of symmetries.
+	 */
+	public static final int COUNT = 8;
+
+	/**
+	 * The identity symmetry.
+	 */
+	public static final int IDENTITY = 0;
+
+	/**
+	 * PERMUTATIONS[s][index] is the index the position is moved to by the
+	 * symmetry s.
+	 */
+	private static final int[][] PERMUTATIONS = new int[COUNT][Cells.COUNT];
+
+	/**
+	 * INVERSES[s] is the symmetry undoing the symmetry s.
+	 */
+	private static final int[] INVERSES = new int[COUNT];
+
+	static {
+		int last = Chess.BOARD_SIZE - 1;
+		for (int y = 0; y < Chess.BOARD_SIZE; y++) {
+			for (int x = 0; x < Chess.BOARD_SIZE; x++) {
+				int index = y * Chess.BOARD_SIZE + x;
+				// Identity, 3 rotations, 2 mirrors and 2 diagonal mirrors.
+				PERMUTATIONS[0][index] = y * Chess.BOARD_SIZE + x;
+				PERMUTATIONS[1][index] = x * Chess.BOARD_SIZE + (last - y);
+				PERMUTATIONS[2][index] = (last - y) * Chess.BOARD_SIZE + (last - x);
+				PERMUTATIONS[3][index] = (last - x) * Chess.BOARD_SIZE + y;
+				PERMUTATIONS[4][index] = y * Chess.BOARD_SIZE + (last - x);
+				PERMUTATIONS[5][index] = (last - y) * Chess.BOARD_SIZE + x;
+				PERMUTATIONS[6][index] = x * Chess.BOARD_SIZE + y;
+				PERMUTATIONS[7][index] = (last - x) * Chess.BOARD_SIZE + (last - y);
+			}
+		}
+		for (int s = 0; s < COUNT; s++) {
+			for (int t = 0; t < COUNT; t++) {
+				if (PERMUTATIONS[t][PERMUTATIONS[s][1]] == 1
+						&& PERMUTATIONS[t][PERMUTATIONS[s][Chess.BOARD_SIZE]] == Chess.BOARD_SIZE) {
+					INVERSES[s] = t;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Transform an index by the symmetry.
+	 */
+	public static int transform(int symmetry, int index) {
+		return PERMUTATIONS[symmetry][index];
+	}
+
+	/**
+	 * Transform a position by the symmetry.
+	 */
+	public static PiecePosition transform(int symmetry, PiecePosition pos) {
+		return PiecePosition.get(PERMUTATIONS[symmetry][pos.getIndex()]);
+	}
+
+	/**
+	 * Return the symmetry undoing the given one. Used to map a move stored
+	 * for the canonical position back to the actual board.
+	 */
+	public static int inverse(int symmetry) {
+		return INVERSES[symmetry];
+	}
+}
@@ -0,0 +1,223 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The board of the threat solvers. Keeps a bit board and a hash in step, and
+ * answers the questions the solvers ask about fours and forbidden positions.
+ *
+ * @see VcfSolver
+ * @see VctSolver
+ */
+final class ThreatBoard {
+
+	final BitBoard board;
+	final ZobristHash hash;
+	final boolean usingAdvancedRules;
+
+	ThreatBoard(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos, boolean usingAdvancedRules) {
+		this.board = new BitBoard(blackPos, whitePos);
+		this.hash = new ZobristHash(blackPos, whitePos);
+		this.usingAdvancedRules = usingAdvancedRules;
+	}
+
+	boolean isEmpty(int index) {
+		return board.isEmpty(index);
+	}
+
+	void place(int color, int index) {
+		board.set(color, index);
+		hash.toggle(color, index);
+	}
+
+	/**
+	 * Remove a piece.
+	 */
+	void remove(int color, int index) {
+		board.clear(color, index);
+		hash.toggle(color, index);
+	}
+
+	/**
+	 * Return whether a piece at the position makes five in a row, whether the
+	 * piece is already placed or not.
+	 */
+	boolean makesFive(int color, int index) {
+		return board.checkFive(color, index, usingAdvancedRules && color == BitBoard.BLACK) >= 0;
+	}
+
+	/**
+	 * Return the only empty position where the color makes five, -2 if
+	 * there're more than one, or -1 if there's none.
+	 */
+	int findFivePoint(int color) {
+		int point = -1;
+		for (int index = 0; index < Cells.COUNT; index++) {
+			if (board.isEmpty(index) && makesFive(color, index)) {
+				if (point >= 0) {
+					return -2;
+				}
+				point = index;
+			}
+		}
+		return point;
+	}
+
+	/**
+	 * Return the only empty position where the color makes five on the lines
+	 * through the position, -2 if there're more than one, or -1 if there's
+	 * none. After placing a piece this tells whether it makes a four, and
+	 * where to block it.
+	 */
+	int findFivePointNear(int color, int index) {
+		int point = -1;
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			int line = BitBoard.LINE[direction][index];
+			int offset = BitBoard.OFFSET[direction][index];
+			int length = BitBoard.LENGTH[direction][line];
+			for (int i = Math.max(0, offset - 4); i <= Math.min(length - 1, offset + 4); i++) {
+				int cell = BitBoard.CELL[direction][line][i];
+				if (cell != point && board.isEmpty(cell) && makesFive(color, cell)) {
+					if (point >= 0) {
+						return -2;
+					}
+					point = cell;
+				}
+			}
+		}
+		return point;
+	}
+
+	/**
+	 * Return whether the empty position is forbidden for black. Always false
+	 * without the advanced rules.
+	 */
+	boolean isForbidden(int index) {
+		if (!usingAdvancedRules || !mayBeForbidden(index)) {
+			return false;
+		}
+		// The position may have just been placed to look at the result, which
+		// the check doesn't mind.
+		return CheckForbids.checkForbids(index, board) != CheckForbids.NO_FORBIDDEN;
+	}
+
+	/**
+	 * Return the positions on the lines of the placed move where the color
+	 * makes an open four or a double four.
+	 */
+	List<Integer> findOpenFourPoints(int color, int move) {
+		ArrayList<Integer> points = new ArrayList<Integer>();
+		addOpenFourPoints(color, move, points, false);
+		return points;
+	}
+
+	/**
+	 * Return whether the placed move makes a three, that is, there's a
+	 * position on its lines where the color makes an open four or a double
+	 * four.
+	 */
+	boolean makesThree(int color, int move) {
+		return addOpenFourPoints(color, move, new ArrayList<Integer>(1), true);
+	}
+
+	private boolean addOpenFourPoints(int color, int move, List<Integer> points, boolean firstOnly) {
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			int line = BitBoard.LINE[direction][move];
+			int offset = BitBoard.OFFSET[direction][move];
+			if (Integer.bitCount(board.getLine(color, direction, line) & window(direction, move)) < 3) {
+				continue;
+			}
+			int length = BitBoard.LENGTH[direction][line];
+			for (int i = Math.max(0, offset - 4); i <= Math.min(length - 1, offset + 4); i++) {
+				int cell = BitBoard.CELL[direction][line][i];
+				if (!points.contains(cell) && isOpenFourPoint(color, cell)) {
+					if (firstOnly) {
+						return true;
+					}
+					points.add(cell);
+				}
+			}
+		}
+		return !points.isEmpty();
+	}
+
+	/**
+	 * Return whether the color may play at the position and make an open
+	 * four or a double four there.
+	 */
+	boolean isOpenFourPoint(int color, int index) {
+		if (!board.isEmpty(index) || crowding(color, index) < 3) {
+			return false;
+		}
+		place(color, index);
+		boolean open = findFivePointNear(color, index) == -2;
+		remove(color, index);
+		return open && isLegal(color, index);
+	}
+
+	/**
+	 * Add the empty positions where the color makes a four to the list,
+	 * unless they're there already.
+	 */
+	void addFours(int color, List<Integer> moves) {
+		for (int index = 0; index < Cells.COUNT; index++) {
+			if (board.isEmpty(index) && crowding(color, index) >= 3 && !moves.contains(index)) {
+				place(color, index);
+				if (findFivePointNear(color, index) != -1) {
+					moves.add(index);
+				}
+				remove(color, index);
+			}
+		}
+	}
+
+	/**
+	 * Return the largest number of pieces of the color within four positions
+	 * of the position on one of its lines. A move needs three to make a four,
+	 * and two to make a three.
+	 */
+	int crowding(int color, int index) {
+		int crowding = 0;
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			crowding = Math.max(crowding, Integer.bitCount(
+					board.getLine(color, direction, BitBoard.LINE[direction][index]) & window(direction, index)));
+		}
+		return crowding;
+	}
+
+	/**
+	 * Return false if black at the position surely makes neither an overline
+	 * nor two threes or fours, which saves most calls to
+	 * <code>CheckForbids</code>: that needs three black pieces within four
+	 * positions on two of the lines, or five on one.
+	 */
+	private boolean mayBeForbidden(int index) {
+		int crowded = 0;
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			int count = Integer.bitCount((board.getLine(BitBoard.BLACK, direction, BitBoard.LINE[direction][index])
+					| 1 << BitBoard.OFFSET[direction][index]) & window(direction, index));
+			if (count >= 5 || count >= 3 && ++crowded >= 2) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the bit mask of the positions within four of the position on its
+	 * line along the direction.
+	 */
+	static int window(int direction, int index) {
+		int offset = BitBoard.OFFSET[direction][index];
+		int low = Math.max(0, offset - 4);
+		return (1 << offset + 5 - low) - 1 << low & BitBoard.lineMask(direction, BitBoard.LINE[direction][index]);
+	}
+
+	/**
+	 * Return whether the color may play at the empty position.
+	 */
+	boolean isLegal(int color, int index) {
+		return color == BitBoard.WHITE || !isForbidden(index);
+	}
+}
@@ -0,0 +1,92 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the scalar tuple scoring of <code>Chess.calcScores</code> with the
+ * line based <code>TupleEvaluator</code> on random positions, checks that
+ * both give the same scores and prints the speed of each.
+ *
+ * Usage: TupleBenchmark [positions] [rounds]
+ */
+public final class TupleBenchmark {
+
+	/**
+	 * Private the constructor in order to prevent users from creating
+	 * instances.
+	 */
+	private TupleBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		RatingWeights weights = RatingWeights.loadOrDefault();
+		TupleEvaluator evaluator = new TupleEvaluator(weights);
+
+		// Random positions without five in a row.
+		Random r = new Random(289);
+		ArrayList<ArrayList<PiecePosition>> blacks = new ArrayList<ArrayList<PiecePosition>>();
+		ArrayList<ArrayList<PiecePosition>> whites = new ArrayList<ArrayList<PiecePosition>>();
+		BitBoard[] boards = new BitBoard[positions];
+		int[] colors = new int[positions];
+		for (int i = 0; i < positions; i++) {
+			ArrayList<PiecePosition> blackPos = new ArrayList<PiecePosition>();
+			ArrayList<PiecePosition> whitePos = new ArrayList<PiecePosition>();
+			int pieces = 10 + r.nextInt(50);
+			for (int piece = 0; piece < pieces; piece++) {
+				ArrayList<PiecePosition> whichPos = piece % 2 == 0 ? blackPos : whitePos;
+				PiecePosition pos = PiecePosition.get(r.nextInt(Chess.BOARD_SIZE) + 1, r.nextInt(Chess.BOARD_SIZE) + 1);
+				if (blackPos.contains(pos) || whitePos.contains(pos)) {
+					continue;
+				}
+				whichPos.add(pos);
+				if (CheckForbids.checkIfWins(whichPos, pos)) {
+					whichPos.remove(whichPos.size() - 1);
+				}
+			}
+			blacks.add(blackPos);
+			whites.add(whitePos);
+			boards[i] = new BitBoard(blackPos, whitePos);
+			colors[i] = i % 2 == 0 ? BitBoard.BLACK : BitBoard.WHITE;
+		}
+
+		// Check the results first.
+		for (int i = 0; i < positions; i++) {
+			int[][] expected = colors[i] == BitBoard.BLACK ?
+					Chess.calcScores(blacks.get(i), whites.get(i), weights) :
+					Chess.calcScores(whites.get(i), blacks.get(i), weights);
+			if (!Arrays.deepEquals(expected, evaluator.evaluate(boards[i], colors[i]))) {
+				throw new RuntimeException("Different scores of position " + i);
+			}
+		}
+
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < positions; i++) {
+				if (colors[i] == BitBoard.BLACK) {
+					Chess.calcScores(blacks.get(i), whites.get(i), weights);
+				} else {
+					Chess.calcScores(whites.get(i), blacks.get(i), weights);
+				}
+			}
+			long scalar = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < positions; i++) {
+				evaluator.evaluate(boards[i], colors[i]);
+			}
+			long lines = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			evaluator.evaluateBatch(boards, colors);
+			long batch = System.nanoTime() - start;
+
+			System.out.printf("Round %d: scalar %.2f us/pos, lines %.2f us/pos (%.1fx), batch %.2f us/pos (%.1fx)%n",
+					round + 1, scalar / 1000.0 / positions, lines / 1000.0 / positions, (double) scalar / lines,
+					batch / 1000.0 / positions, (double) scalar / batch);
+		}
+	}
+}
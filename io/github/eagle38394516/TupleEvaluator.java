@@ -0,0 +1,167 @@
+package io.github.eagle38394516;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Line-at-a-time implementation of the five-piece tuple scoring of
+ * <code>Chess.calcScores</code>.
+ *
+ * Instead of looking up the five positions of each of the 572 tuples, every
+ * line of the <code>BitBoard</code> is processed in one pass: the pieces of a
+ * tuple are counted by one shift, mask and bit count of the line, and the
+ * tuple scores are spread over the positions of the line by a sliding sum.
+ * The results are the same as the scalar path.
+ *
+ * The evaluator is immutable and can be shared by several threads.
+ */
+public final class TupleEvaluator implements Evaluator {
+
+	/**
+	 * rates[computer * 6 + player] is the score of a tuple.
+	 */
+	private final int[] rates = new int[36];
+
+	/**
+	 * Create an evaluator of the weights.
+	 */
+	public TupleEvaluator(RatingWeights weights) {
+		for (int computer = 0; computer <= 5; computer++) {
+			for (int player = 0; player + computer <= 5; player++) {
+				// A tuple of five pieces means the game is over already, which
+				// the rating table doesn't define. Rate it as a four.
+				rates[computer * 6 + player] = weights.rate(Math.min(computer, 4), Math.min(player, 4));
+			}
+		}
+	}
+
+	/**
+	 * Score every position of the board for the side to move.
+	 *
+	 * @param board
+	 *            The board to score.
+	 * @param color
+	 *            The color of the side to move.
+	 * @return The scores indexed by [x - 1][y - 1], the same as
+	 *         <code>Chess.calcScores</code>.
+	 */
+	@Override
+	public int[][] evaluate(BitBoard board, int color) {
+		int[][] scores = new int[Chess.BOARD_SIZE][Chess.BOARD_SIZE];
+		evaluate(board, color, scores);
+		return scores;
+	}
+
+	/**
+	 * Score every position of the board for the side to move, adding the
+	 * scores to the given array.
+	 */
+	public void evaluate(BitBoard board, int color, int[][] scores) {
+		int[] tupleScores = new int[Chess.BOARD_SIZE];
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			for (int line = 0; line < BitBoard.LINES; line++) {
+				int length = BitBoard.LENGTH[direction][line];
+				if (length < 5) {
+					continue;
+				}
+				int computer = board.getLine(color, direction, line);
+				int player = board.getLine(1 - color, direction, line);
+
+				// Score the tuples starting at each position of the line.
+				for (int begin = 0; begin <= length - 5; begin++) {
+					tupleScores[begin] = rates[Integer.bitCount(computer >>> begin & 0x1F) * 6
+							+ Integer.bitCount(player >>> begin & 0x1F)];
+				}
+
+				// A position gets the scores of the tuples starting at most
+				// four positions before it.
+				int[] cells = BitBoard.CELL[direction][line];
+				int sum = 0;
+				for (int offset = 0; offset < length; offset++) {
+					if (offset <= length - 5) {
+						sum += tupleScores[offset];
+					}
+					if (offset >= 5 && offset - 5 <= length - 5) {
+						sum -= tupleScores[offset - 5];
+					}
+					scores[cells[offset] % Chess.BOARD_SIZE][cells[offset] / Chess.BOARD_SIZE] += sum;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluate the whole position for the side to move: the weights of the
+	 * tuples only holding pieces of the side to move minus the weights of the
+	 * tuples only holding pieces of the opponent, both rated as the computer
+	 * pieces of the rating table.
+	 */
+	@Override
+	public int score(BitBoard board, int color) {
+		int score = 0;
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			for (int line = 0; line < BitBoard.LINES; line++) {
+				int length = BitBoard.LENGTH[direction][line];
+				int own = board.getLine(color, direction, line);
+				int opponent = board.getLine(1 - color, direction, line);
+				for (int begin = 0; begin <= length - 5; begin++) {
+					int ownPieces = Integer.bitCount(own >>> begin & 0x1F);
+					int opponentPieces = Integer.bitCount(opponent >>> begin & 0x1F);
+					if (opponentPieces == 0 && ownPieces > 0) {
+						score += rates[ownPieces * 6];
+					} else if (ownPieces == 0 && opponentPieces > 0) {
+						score -= rates[opponentPieces * 6];
+					}
+				}
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Count the tuples of the board by the categories of the rating table,
+	 * the side to move being the computer: counts[RatingWeights.EMPTY] the
+	 * empty tuples, counts[COMPUTER_1 + n - 1] and counts[PLAYER_1 + n - 1]
+	 * the tuples holding n pieces of one side only. The tuples holding both
+	 * sides or five pieces aren't counted.
+	 *
+	 * @param counts
+	 *            At least <code>RatingWeights.SIZE</code> long, overwritten.
+	 */
+	public static void countTuples(BitBoard board, int color, int[] counts) {
+		Arrays.fill(counts, 0, RatingWeights.SIZE, 0);
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			for (int line = 0; line < BitBoard.LINES; line++) {
+				int length = BitBoard.LENGTH[direction][line];
+				int computer = board.getLine(color, direction, line);
+				int player = board.getLine(1 - color, direction, line);
+				for (int begin = 0; begin <= length - 5; begin++) {
+					int computerPieces = Integer.bitCount(computer >>> begin & 0x1F);
+					int playerPieces = Integer.bitCount(player >>> begin & 0x1F);
+					if (computerPieces == 0 && playerPieces == 0) {
+						counts[RatingWeights.EMPTY]++;
+					} else if (playerPieces == 0 && computerPieces <= 4) {
+						counts[RatingWeights.COMPUTER_1 + computerPieces - 1]++;
+					} else if (computerPieces == 0 && playerPieces <= 4) {
+						counts[RatingWeights.PLAYER_1 + playerPieces - 1]++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Score a batch of positions on all the cores.
+	 *
+	 * @param boards
+	 *            The boards to score.
+	 * @param colors
+	 *            The color of the side to move of each board.
+	 * @return The scores of each board.
+	 */
+	public int[][][] evaluateBatch(BitBoard[] boards, int[] colors) {
+		int[][][] results = new int[boards.length][][];
+		IntStream.range(0, boards.length).parallel().forEach(i -> results[i] = evaluate(boards[i], colors[i]));
+		return results;
+	}
+}
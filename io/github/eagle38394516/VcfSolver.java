@@ -0,0 +1,225 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Searches for a victory by continuous fours (VCF): a sequence of moves each
+ * making a four, so the opponent always has exactly one position to block,
+ * ending with five in a row.
+ *
+ * Only the moves making a four are expanded, so the search is narrow and
+ * fast. Under the advanced rules the forbidden positions of black are
+ * checked by <code>CheckForbids</code>: black never attacks on them, and a
+ * four of white whose only block is forbidden for black wins at once.
+ *
+ * Positions proven to have no VCF are kept in a small hash table, which is
+ * kept between searches. A solver is not thread-safe; use one per thread.
+ */
+public final class VcfSolver {
+
+	/**
+	 * The number of bits of the hash table index.
+	 */
+	private static final int TABLE_BITS = 16;
+
+	/**
+	 * The key marking a position with white attacking.
+	 */
+	private static final long WHITE_ATTACKS = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The key marking a position under the advanced rules.
+	 */
+	private static final long ADVANCED_RULES = 0xC2B2AE3D27D4EB4FL;
+
+	/**
+	 * The hash table of the positions without VCF: the key and the number of
+	 * fours the search was allowed to make.
+	 */
+	private final long[] tableKeys = new long[1 << TABLE_BITS];
+	private final byte[] tableDepths = new byte[1 << TABLE_BITS];
+
+	private ThreatBoard board;
+
+	/**
+	 * The moves of the line being searched.
+	 */
+	private int[] path;
+	private int[] winningPath;
+
+	private long nodes;
+	private long nodeLimit;
+	private boolean aborted;
+
+	/**
+	 * The <code>System.nanoTime</code> the search stops at, if timed.
+	 */
+	private boolean timed;
+	private long deadline;
+	private boolean timedOut;
+
+	/**
+	 * Search for a VCF of the side to move.
+	 *
+	 * @param blackPos
+	 *            The black pieces.
+	 * @param whitePos
+	 *            The white pieces.
+	 * @param blackToMove
+	 *            Whether black is the attacker.
+	 * @param usingAdvancedRules
+	 *            Whether the advanced rules are enabled.
+	 * @param maxFours
+	 *            The largest number of fours in the sequence.
+	 * @param nodeLimit
+	 *            The largest number of positions to search.
+	 * @return The winning sequence, the moves of both sides from the first
+	 *         four to the five or to the four which can't be blocked, or null
+	 *         if no VCF is found.
+	 */
+	public List<PiecePosition> solve(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos,
+			boolean blackToMove, boolean usingAdvancedRules, int maxFours, long nodeLimit) {
+		this.timed = false;
+		return search(blackPos, whitePos, blackToMove, usingAdvancedRules, maxFours, nodeLimit);
+	}
+
+	/**
+	 * Search for a VCF of the side to move, giving up at the deadline as at
+	 * the node limit.
+	 *
+	 * @param deadline
+	 *            The <code>System.nanoTime</code> to stop at.
+	 */
+	public List<PiecePosition> solve(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos,
+			boolean blackToMove, boolean usingAdvancedRules, int maxFours, long nodeLimit, long deadline) {
+		this.timed = true;
+		this.deadline = deadline;
+		return search(blackPos, whitePos, blackToMove, usingAdvancedRules, maxFours, nodeLimit);
+	}
+
+	private List<PiecePosition> search(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos,
+			boolean blackToMove, boolean usingAdvancedRules, int maxFours, long nodeLimit) {
+		this.board = new ThreatBoard(blackPos, whitePos, usingAdvancedRules);
+		this.path = new int[2 * maxFours + 1];
+		this.winningPath = null;
+		this.nodes = 0;
+		this.nodeLimit = nodeLimit;
+		this.aborted = false;
+		this.timedOut = false;
+
+		if (!attack(blackToMove ? BitBoard.BLACK : BitBoard.WHITE, maxFours, 0)) {
+			return null;
+		}
+		List<PiecePosition> result = new ArrayList<PiecePosition>();
+		for (int move : winningPath) {
+			result.add(PiecePosition.get(move));
+		}
+		return result;
+	}
+
+	/**
+	 * Return the number of positions searched by the last search.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Return whether the last search stopped at the node limit or at the
+	 * deadline.
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Return whether the last search stopped at the deadline.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Search the position with the attacker to move.
+	 *
+	 * @param fours
+	 *            The number of fours the attacker may still make.
+	 * @param ply
+	 *            The number of moves in the path.
+	 */
+	private boolean attack(int attacker, int fours, int ply) {
+		if (++nodes > nodeLimit) {
+			aborted = true;
+			return false;
+		}
+		// The clock is read at the first position and once every 256 after.
+		if (timed && (nodes & 0xFF) == 1 && System.nanoTime() - deadline >= 0) {
+			aborted = true;
+			timedOut = true;
+			return false;
+		}
+		int defender = 1 - attacker;
+
+		// Five in a row wins at once.
+		for (int index = 0; index < Cells.COUNT; index++) {
+			if (board.isEmpty(index) && board.makesFive(attacker, index)) {
+				path[ply] = index;
+				winningPath = Arrays.copyOf(path, ply + 1);
+				return true;
+			}
+		}
+
+		// If the defender has a four, the attacker has to block it.
+		int threat = board.findFivePoint(defender);
+		if (threat == -2 || fours == 0) {
+			return false;
+		}
+
+		long key = board.hash.getKey() ^ (attacker == BitBoard.WHITE ? WHITE_ATTACKS : 0)
+				^ (board.usingAdvancedRules ? ADVANCED_RULES : 0);
+		int slot = (int) key & (1 << TABLE_BITS) - 1;
+		if (tableKeys[slot] == key && tableDepths[slot] >= fours) {
+			return false;
+		}
+
+		for (int index = threat >= 0 ? threat : 0; index < Cells.COUNT; index++) {
+			if (threat >= 0 && index != threat) {
+				break;
+			}
+			if (!board.isEmpty(index)) {
+				continue;
+			}
+			board.place(attacker, index);
+			int block = board.findFivePointNear(attacker, index);
+			if (block == -1 || !board.isLegal(attacker, index)) {
+				// Not a four, or black can't play it.
+				board.remove(attacker, index);
+				continue;
+			}
+			path[ply] = index;
+			if (block == -2 || !board.isLegal(defender, block)) {
+				// An open four or a double four, or black can't block it.
+				board.remove(attacker, index);
+				winningPath = Arrays.copyOf(path, ply + 1);
+				return true;
+			}
+			board.place(defender, block);
+			path[ply + 1] = block;
+			boolean wins = !board.makesFive(defender, block) && attack(attacker, fours - 1, ply + 2);
+			board.remove(defender, block);
+			board.remove(attacker, index);
+			if (wins) {
+				return true;
+			}
+			if (aborted) {
+				return false;
+			}
+		}
+
+		tableKeys[slot] = key;
+		tableDepths[slot] = (byte) fours;
+		return false;
+	}
+}
@@ -0,0 +1,416 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Searches for a victory by continuous threats (VCT): a sequence of moves
+ * each making a four or an open three, ending with five in a row.
+ *
+ * A four leaves the defender only the position blocking it. An open three
+ * leaves the defender its refutation set: the positions on the lines of the
+ * three around the attacking move, and every four of its own. A defender's
+ * four is answered by its block, after which the defender has to face the
+ * three again. The attacker wins when every refutation loses.
+ *
+ * Under the advanced rules the forbidden positions of black are checked by
+ * <code>CheckForbids</code>, both for black attacking and for black
+ * defending.
+ *
+ * The search deepens iteratively, one more threat at a time, until it finds a
+ * win, runs out of depth or nodes, or is cancelled, so it can run in the
+ * background and be asked for its status at any time.
+ */
+public final class VctSolver implements Runnable {
+
+	/**
+	 * The search hasn't finished yet.
+	 */
+	public static final int SEARCHING = 0;
+
+	/**
+	 * A win was found.
+	 */
+	public static final int SOLVED = 1;
+
+	/**
+	 * No win was found within the depth and the node limit.
+	 */
+	public static final int UNSOLVED = 2;
+
+	/**
+	 * The search was cancelled before finding a win.
+	 */
+	public static final int CANCELLED = 3;
+
+	private static final int TABLE_BITS = 16;
+
+	/**
+	 * The key marking a position with white attacking.
+	 */
+	private static final long WHITE_ATTACKS = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The key marking a position under the advanced rules.
+	 */
+	private static final long ADVANCED_RULES = 0xC2B2AE3D27D4EB4FL;
+
+	/**
+	 * The hash table of the positions without VCT: the key and the number of
+	 * threats the search was allowed to make.
+	 */
+	private final long[] tableKeys = new long[1 << TABLE_BITS];
+	private final byte[] tableDepths = new byte[1 << TABLE_BITS];
+
+	private final ThreatBoard board;
+	private final int attacker;
+	private final int maxDepth;
+	private final long nodeLimit;
+
+	private volatile boolean cancelled = false;
+	private volatile int status = SEARCHING;
+	private volatile int depth = 0;
+	private volatile long nodes = 0;
+	private volatile List<PiecePosition> winningLine = null;
+	private boolean aborted;
+
+	/**
+	 * Create a search for a VCT of the side to move.
+	 *
+	 * @param blackPos
+	 *            The black pieces.
+	 * @param whitePos
+	 *            The white pieces.
+	 * @param blackToMove
+	 *            Whether black is the attacker.
+	 * @param usingAdvancedRules
+	 *            Whether the advanced rules are enabled.
+	 * @param maxDepth
+	 *            The largest number of threats in the sequence.
+	 * @param nodeLimit
+	 *            The largest number of positions to search.
+	 */
+	public VctSolver(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos,
+			boolean blackToMove, boolean usingAdvancedRules, int maxDepth, long nodeLimit) {
+		this.board = new ThreatBoard(blackPos, whitePos, usingAdvancedRules);
+		this.attacker = blackToMove ? BitBoard.BLACK : BitBoard.WHITE;
+		this.maxDepth = Math.min(maxDepth, Byte.MAX_VALUE);
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * Create a search for a VCT of the side to move on the board.
+	 */
+	public VctSolver(Chess chess, int maxDepth, long nodeLimit) {
+		this(chess.blackPos, chess.whitePos, chess.getWhosTurn(), chess.isUsingAdvancedRules(), maxDepth, nodeLimit);
+	}
+
+	/**
+	 * Start the search in a new daemon thread.
+	 */
+	public VctSolver start() {
+		Thread thread = new Thread(this, "VctSolver");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Stop the search at the next node.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Return one of <code>SEARCHING</code>, <code>SOLVED</code>,
+	 * <code>UNSOLVED</code> and <code>CANCELLED</code>.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Return the winning line, the moves of both sides from the first threat
+	 * to the five or to the four which can't be blocked, following the first
+	 * refutation at each defence; or null if not solved.
+	 */
+	public List<PiecePosition> getWinningLine() {
+		return winningLine;
+	}
+
+	/**
+	 * Return the number of threats allowed in the current or the last
+	 * finished iteration.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Return the number of positions searched so far.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public void run() {
+		aborted = false;
+		for (int d = 1; d <= maxDepth && !aborted; d++) {
+			depth = d;
+			ArrayList<Integer> line = new ArrayList<Integer>();
+			if (attack(d, line)) {
+				List<PiecePosition> result = new ArrayList<PiecePosition>();
+				for (int move : line) {
+					result.add(PiecePosition.get(move));
+				}
+				winningLine = Collections.unmodifiableList(result);
+				status = SOLVED;
+				return;
+			}
+		}
+		status = cancelled ? CANCELLED : UNSOLVED;
+	}
+
+	/**
+	 * Search the position with the attacker to move.
+	 *
+	 * @param threats
+	 *            The number of threats the attacker may still make.
+	 * @param line
+	 *            The list to append the winning line to, or null.
+	 */
+	private boolean attack(int threats, ArrayList<Integer> line) {
+		if (++nodes > nodeLimit || cancelled) {
+			aborted = true;
+			return false;
+		}
+		int defender = 1 - attacker;
+
+		// Five in a row wins at once.
+		for (int index = 0; index < Cells.COUNT; index++) {
+			if (board.isEmpty(index) && board.makesFive(attacker, index)) {
+				if (line != null) {
+					line.add(index);
+				}
+				return true;
+			}
+		}
+
+		// If the defender has a four, the attacker has to block it, and the
+		// block has to be a threat itself.
+		int block = board.findFivePoint(defender);
+		if (block == -2 || block >= 0 && !board.isLegal(attacker, block) || threats == 0) {
+			return false;
+		}
+
+		long key = board.hash.getKey() ^ (attacker == BitBoard.WHITE ? WHITE_ATTACKS : 0)
+				^ (board.usingAdvancedRules ? ADVANCED_RULES : 0);
+		int slot = (int) key & (1 << TABLE_BITS) - 1;
+		if (tableKeys[slot] == key && tableDepths[slot] >= threats) {
+			return false;
+		}
+
+		// The fours first, as they are the most forcing and the cheapest.
+		ArrayList<Integer> fours = new ArrayList<Integer>();
+		ArrayList<Integer> threes = new ArrayList<Integer>();
+		for (int index = block >= 0 ? block : 0; index < Cells.COUNT; index++) {
+			if (block >= 0 && index != block) {
+				break;
+			}
+			if (!board.isEmpty(index) || board.crowding(attacker, index) < 2) {
+				continue;
+			}
+			board.place(attacker, index);
+			if (board.findFivePointNear(attacker, index) != -1) {
+				fours.add(index);
+			} else {
+				threes.add(index);
+			}
+			board.remove(attacker, index);
+		}
+		fours.addAll(threes);
+
+		for (int index : fours) {
+			int mark = line == null ? 0 : line.size();
+			if (line != null) {
+				line.add(index);
+			}
+			board.place(attacker, index);
+			boolean wins = false;
+			if (board.isLegal(attacker, index)) {
+				int five = board.findFivePointNear(attacker, index);
+				if (five == -2 || five >= 0 && !board.isLegal(defender, five)) {
+					// An open four or a double four, or black can't block it.
+					wins = true;
+				} else if (five >= 0 || board.makesThree(attacker, index)) {
+					wins = defend(index, threats, line);
+				}
+			}
+			board.remove(attacker, index);
+			if (wins) {
+				return true;
+			}
+			if (line != null) {
+				line.subList(mark, line.size()).clear();
+			}
+			if (aborted) {
+				return false;
+			}
+		}
+
+		tableKeys[slot] = key;
+		tableDepths[slot] = (byte) threats;
+		return false;
+	}
+
+	/**
+	 * Search the position with the defender to move, facing the threat made
+	 * by the move of the attacker.
+	 */
+	private boolean defend(int move, int threats, ArrayList<Integer> line) {
+		int defender = 1 - attacker;
+		if (board.findFivePoint(defender) != -1) {
+			return false;
+		}
+
+		ArrayList<Integer> replies = new ArrayList<Integer>();
+		int five = board.findFivePoint(attacker);
+		if (five == -2 || five >= 0 && !board.isLegal(defender, five)) {
+			return true;
+		}
+		if (five >= 0) {
+			replies.add(five);
+		} else {
+			List<Integer> points = board.findOpenFourPoints(attacker, move);
+			if (points.isEmpty()) {
+				// The threat is gone.
+				return false;
+			}
+			addRefutations(move, points, replies);
+		}
+
+		// The line goes on with the first legal reply.
+		boolean recorded = false;
+		for (int i = 0; i < replies.size(); i++) {
+			int reply = replies.get(i);
+			if (!board.isLegal(defender, reply)) {
+				continue;
+			}
+			ArrayList<Integer> replyLine = recorded ? null : line;
+			recorded = true;
+			board.place(defender, reply);
+			if (replyLine != null) {
+				replyLine.add(reply);
+			}
+			boolean wins;
+			int counter = five >= 0 ? -1 : board.findFivePointNear(defender, reply);
+			if (counter == -2) {
+				wins = false;
+			} else if (counter >= 0) {
+				// A four of the defender, which the attacker has to block
+				// before the three can go on. The block may make five.
+				if (board.makesFive(attacker, counter)) {
+					if (replyLine != null) {
+						replyLine.add(counter);
+					}
+					wins = true;
+				} else if (board.isLegal(attacker, counter)) {
+					board.place(attacker, counter);
+					if (replyLine != null) {
+						replyLine.add(counter);
+					}
+					wins = defend(move, threats, replyLine);
+					board.remove(attacker, counter);
+				} else {
+					wins = false;
+				}
+			} else {
+				wins = attack(threats - 1, replyLine);
+			}
+			board.remove(defender, reply);
+			if (!wins) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add the refutations of a three to the list: the open four positions
+	 * first, then the other empty positions on the lines of the move through
+	 * them, then the fours of the defender.
+	 */
+	private void addRefutations(int move, List<Integer> points, ArrayList<Integer> replies) {
+		replies.addAll(points);
+		for (int direction = 0; direction < BitBoard.DIRECTIONS; direction++) {
+			int line = BitBoard.LINE[direction][move];
+			boolean threatened = false;
+			for (int point : points) {
+				threatened |= BitBoard.LINE[direction][point] == line;
+			}
+			if (!threatened) {
+				continue;
+			}
+			int offset = BitBoard.OFFSET[direction][move];
+			int length = BitBoard.LENGTH[direction][line];
+			for (int i = Math.max(0, offset - 4); i <= Math.min(length - 1, offset + 4); i++) {
+				int cell = BitBoard.CELL[direction][line][i];
+				if (board.isEmpty(cell) && !replies.contains(cell)) {
+					replies.add(cell);
+				}
+			}
+		}
+		board.addFours(1 - attacker, replies);
+	}
+
+	/**
+	 * Search a position without the GUI.
+	 *
+	 * Usage: VctSolver [-advanced] [-depth D] [-nodes N] [moves...]
+	 *
+	 * The moves are given in the board notation, black first.
+	 */
+	public static void main(String[] args) {
+		Chess chess = Chess.getInstance();
+		chess.setAutoPlacing(0);
+		int maxDepth = 10;
+		long nodeLimit = 1000000;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-advanced")) {
+				chess.setUsingAdvancedRules(true);
+				first++;
+			} else if (args[first].equals("-depth")) {
+				maxDepth = Integer.parseInt(args[first + 1]);
+				first += 2;
+			} else if (args[first].equals("-nodes")) {
+				nodeLimit = Long.parseLong(args[first + 1]);
+				first += 2;
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[first]);
+			}
+		}
+		for (int i = first; i < args.length; i++) {
+			if (!chess.place(PiecePosition.parse(args[i]))) {
+				throw new IllegalArgumentException("Cannot place at " + args[i]);
+			}
+		}
+
+		long start = System.nanoTime();
+		VctSolver solver = new VctSolver(chess, maxDepth, nodeLimit);
+		solver.run();
+		StringBuilder sb = new StringBuilder(solver.getStatus() == SOLVED ? "solved" : "unsolved");
+		sb.append(" depth ").append(solver.getDepth()).append(" nodes ").append(solver.getNodes())
+				.append(" time ").append((System.nanoTime() - start) / 1000000).append("ms");
+		if (solver.getWinningLine() != null) {
+			sb.append(" line");
+			for (PiecePosition pos : solver.getWinningLine()) {
+				sb.append(' ').append(pos.toNotation());
+			}
+		}
+		System.out.println(sb);
+	}
+}
@@ -0,0 +1,414 @@
+package io.github.eagle38394516;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the weights of the tuple rating table by SPSA (simultaneous
+ * perturbation stochastic approximation) on self-play games.
+ *
+ * Each iteration perturbs all the weights at the same time in both directions,
+ * lets the two weight sets play a batch of games against each other on all
+ * the cores, and moves the weights towards the winning side. The weights are
+ * tuned in log space since they range over several orders of magnitude.
+ *
+ * After every iteration the current weights are written to
+ * <code>RatingWeights.WEIGHTS_FILE</code>, which the engine loads at startup,
+ * and the state of the tuner is written to a checkpoint file so that a long
+ * run can be stopped and resumed.
+ *
+ * The games are played by the free-style rules unless set otherwise, on the
+ * threads of this process or, given a <code>SelfPlayCoordinator</code>, on
+ * its workers. They may be ended early by an <code>Adjudication</code>. The
+ * moves are chosen by <code>MoveChoice</code>, with or without looking for a
+ * VCF first as the game does.
+ */
+public final class WeightTuner {
+
+	/**
+	 * The file storing the state of the tuner.
+	 */
+	public static final String CHECKPOINT_FILE = "ratingTable.checkpoint";
+
+	/**
+	 * The step size of SPSA.
+	 */
+	private static final double STEP_SIZE = 0.1;
+
+	/**
+	 * The stability constant of the step size sequence.
+	 */
+	private static final double STEP_STABILITY = 10;
+
+	/**
+	 * The perturbation size of SPSA in log space.
+	 */
+	private static final double PERTURBATION = 0.2;
+
+	/**
+	 * The number of random moves (black's first move included) played at the
+	 * beginning of each game so that the games don't repeat.
+	 */
+	private static final int RANDOM_OPENING_MOVES = 3;
+
+	private final int gamesPerIteration;
+	private final ExecutorService executor;
+	private final SelfPlayCoordinator coordinator;
+
+	private boolean usingAdvancedRules = false;
+	private Adjudication adjudication = Adjudication.OFF;
+	private boolean usingVcf = false;
+
+	private long seed;
+	private int iteration;
+	private final double[] theta = new double[RatingWeights.SIZE];
+
+	/**
+	 * Create a tuner starting from the given weights.
+	 *
+	 * @param gamesPerIteration
+	 *            The number of games played in each iteration. Rounded up
+	 *            to an even number, since the games are played in pairs with
+	 *            swapped colors.
+	 * @param threads
+	 *            The number of threads playing the games.
+	 */
+	public WeightTuner(RatingWeights start, int gamesPerIteration, int threads, long seed) {
+		this(start, gamesPerIteration, Executors.newFixedThreadPool(threads), null, seed);
+	}
+
+	/**
+	 * Create a tuner letting the workers of the coordinator play the games.
+	 */
+	public WeightTuner(RatingWeights start, int gamesPerIteration, SelfPlayCoordinator coordinator, long seed) {
+		this(start, gamesPerIteration, null, coordinator, seed);
+	}
+
+	private WeightTuner(RatingWeights start, int gamesPerIteration, ExecutorService executor,
+			SelfPlayCoordinator coordinator, long seed) {
+		this.gamesPerIteration = (gamesPerIteration + 1) / 2 * 2;
+		this.executor = executor;
+		this.coordinator = coordinator;
+		this.seed = seed;
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			theta[index] = Math.log(Math.max(1, start.get(index)));
+		}
+	}
+
+	/**
+	 * Return the weights the tuner currently holds.
+	 */
+	public RatingWeights getWeights() {
+		return toWeights(theta, null, 0);
+	}
+
+	public int getIteration() {
+		return iteration;
+	}
+
+	/**
+	 * Set whether the games are played by the advanced rules. False by
+	 * default.
+	 */
+	public void setUsingAdvancedRules(boolean usingAdvancedRules) {
+		this.usingAdvancedRules = usingAdvancedRules;
+	}
+
+	/**
+	 * Set the adjudication ending the games early. Off by default.
+	 */
+	public void setAdjudication(Adjudication adjudication) {
+		this.adjudication = adjudication;
+	}
+
+	/**
+	 * Set whether both sides look for a win by continuous fours first, as
+	 * the game does. False by default, which plays faster.
+	 */
+	public void setUsingVcf(boolean usingVcf) {
+		this.usingVcf = usingVcf;
+	}
+
+	/**
+	 * Run one SPSA iteration.
+	 *
+	 * @return The score of the positively perturbed weights against the
+	 *         negatively perturbed ones, from -1 to 1.
+	 */
+	public double step() throws InterruptedException, ExecutionException {
+		// The random numbers only depend on the seed and the iteration, so a
+		// resumed run continues exactly as an uninterrupted one.
+		Random r = new Random(seed + iteration);
+		double stepSize = STEP_SIZE / Math.pow(iteration + 1 + STEP_STABILITY, 0.602);
+		double perturbation = PERTURBATION / Math.pow(iteration + 1, 0.101);
+		int[] delta = new int[RatingWeights.SIZE];
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			delta[index] = r.nextBoolean() ? 1 : -1;
+		}
+		RatingWeights plus = toWeights(theta, delta, perturbation);
+		RatingWeights minus = toWeights(theta, delta, -perturbation);
+
+		int plusPoints = 0;
+		if (coordinator != null) {
+			// The even jobs have the positive weights play black.
+			List<GameJob> jobs = new ArrayList<GameJob>();
+			for (int pair = 0; pair < gamesPerIteration / 2; pair++) {
+				long gameSeed = r.nextLong();
+				long id = (long) iteration * gamesPerIteration + pair * 2;
+				jobs.add(new GameJob(id, plus, minus, gameSeed, usingAdvancedRules, adjudication, usingVcf));
+				jobs.add(new GameJob(id + 1, minus, plus, gameSeed, usingAdvancedRules, adjudication, usingVcf));
+			}
+			for (GameRecord record : coordinator.play(jobs)) {
+				plusPoints += record.getId() % 2 == 0 ? record.getResult() : -record.getResult();
+			}
+		} else {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int pair = 0; pair < gamesPerIteration / 2; pair++) {
+				final long gameSeed = r.nextLong();
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return new GameJob(0, plus, minus, gameSeed, usingAdvancedRules, adjudication, usingVcf)
+								.play().getResult();
+					}
+				}));
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return -new GameJob(0, minus, plus, gameSeed, usingAdvancedRules, adjudication, usingVcf)
+								.play().getResult();
+					}
+				}));
+			}
+			for (Future<Integer> result : results) {
+				plusPoints += result.get();
+			}
+		}
+		double score = (double) plusPoints / gamesPerIteration;
+
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			theta[index] += stepSize * score / (2 * perturbation * delta[index]);
+		}
+		iteration++;
+		return score;
+	}
+
+	/**
+	 * Convert the log space parameters to weights.
+	 */
+	private static RatingWeights toWeights(double[] theta, int[] delta, double perturbation) {
+		int[] weights = new int[RatingWeights.SIZE];
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			double value = theta[index] + (delta == null ? 0 : perturbation * delta[index]);
+			weights[index] = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 64, Math.round(Math.exp(value))));
+		}
+		return new RatingWeights(weights);
+	}
+
+	/**
+	 * Play one game between two weight sets by the free-style rules.
+	 *
+	 * @return 1 if black wins, -1 if white wins and 0 for tie.
+	 */
+	public static int playGame(RatingWeights black, RatingWeights white, Random r) {
+		return playGame(black, white, r, false, null);
+	}
+
+	/**
+	 * Play one game between two weight sets.
+	 *
+	 * @param usingAdvancedRules
+	 *            Whether the advanced rules are enabled, so black never plays
+	 *            on the forbidden positions and only wins with exactly five.
+	 * @param moves
+	 *            The list to add the index of every move to, or null.
+	 * @return 1 if black wins, -1 if white wins and 0 for tie.
+	 */
+	public static int playGame(RatingWeights black, RatingWeights white, Random r, boolean usingAdvancedRules,
+			List<Integer> moves) {
+		return playGame(new TupleEvaluator(black), new TupleEvaluator(white), r, usingAdvancedRules, moves);
+	}
+
+	/**
+	 * Play one game between two evaluators.
+	 *
+	 * @param blackEvaluator
+	 *            The evaluator of black, not shared with white, as a
+	 *            <code>PatternEvaluator</code> keeps the board it saw last.
+	 * @return 1 if black wins, -1 if white wins and 0 for tie.
+	 */
+	public static int playGame(Evaluator blackEvaluator, Evaluator whiteEvaluator, Random r,
+			boolean usingAdvancedRules, List<Integer> moves) {
+		GameRecord record = playGame(0, blackEvaluator, whiteEvaluator, r, usingAdvancedRules, Adjudication.OFF);
+		if (moves != null) {
+			moves.addAll(record.getMoves());
+		}
+		return record.getResult();
+	}
+
+	/**
+	 * Play one game between two evaluators, ending it early by the
+	 * adjudication.
+	 *
+	 * @param id
+	 *            The id of the record.
+	 */
+	public static GameRecord playGame(long id, Evaluator blackEvaluator, Evaluator whiteEvaluator, Random r,
+			boolean usingAdvancedRules, Adjudication adjudication) {
+		return playGame(id, blackEvaluator, whiteEvaluator, r, usingAdvancedRules, adjudication, false);
+	}
+
+	/**
+	 * Play one game between two evaluators, ending it early by the
+	 * adjudication.
+	 *
+	 * @param usingVcf
+	 *            Whether both sides look for a win by continuous fours first,
+	 *            as the game does.
+	 */
+	public static GameRecord playGame(long id, Evaluator blackEvaluator, Evaluator whiteEvaluator, Random r,
+			boolean usingAdvancedRules, Adjudication adjudication, boolean usingVcf) {
+		VcfSolver vcfSolver = usingVcf ? new VcfSolver() : null;
+		BitBoard board = new BitBoard();
+		List<Integer> moves = new ArrayList<Integer>();
+		Adjudication.Judge judge = adjudication.isOff() ? null : adjudication.newJudge(usingAdvancedRules);
+		boolean whosTurn = true;
+		int center = (Chess.BOARD_SIZE + 1) / 2;
+
+		for (int move = 0; move < Chess.BOARD_SIZE * Chess.BOARD_SIZE; move++) {
+			int color = whosTurn ? BitBoard.BLACK : BitBoard.WHITE;
+			PiecePosition pos;
+			if (judge != null && move >= RANDOM_OPENING_MOVES && judge.adjudicate(board, color, move)) {
+				return new GameRecord(id, judge.getResult(), moves, judge.getReason());
+			}
+			if (move < RANDOM_OPENING_MOVES) {
+				// Random moves around the center.
+				do {
+					pos = PiecePosition.get(center + r.nextInt(5) - 2, center + r.nextInt(5) - 2);
+				} while (!board.isEmpty(pos.getIndex()));
+			} else {
+				pos = MoveChoice.choose(board, color, usingAdvancedRules, whosTurn ? blackEvaluator : whiteEvaluator,
+						vcfSolver);
+				if (pos == null) {
+					// Only forbidden positions are left for black.
+					return new GameRecord(id, 0, moves);
+				}
+			}
+			board.set(color, pos.getIndex());
+			moves.add(pos.getIndex());
+			if (board.checkFive(color, pos.getIndex(), usingAdvancedRules && whosTurn) >= 0) {
+				return new GameRecord(id, whosTurn ? 1 : -1, moves);
+			}
+			whosTurn = !whosTurn;
+		}
+		return new GameRecord(id, 0, moves);
+	}
+
+	/**
+	 * Save the state of the tuner. The file is replaced atomically, so an
+	 * interrupted save never destroys the previous checkpoint.
+	 */
+	public void saveCheckpoint(File file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("seed", Long.toString(seed));
+		properties.setProperty("iteration", Integer.toString(iteration));
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			properties.setProperty("theta." + index, Double.toString(theta[index]));
+		}
+		AtomicFile.store(properties, file, "WeightTuner checkpoint");
+	}
+
+	/**
+	 * Restore the state of the tuner saved by <code>saveCheckpoint</code>.
+	 */
+	public void loadCheckpoint(File file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		seed = Long.parseLong(properties.getProperty("seed"));
+		iteration = Integer.parseInt(properties.getProperty("iteration"));
+		for (int index = 0; index < RatingWeights.SIZE; index++) {
+			theta[index] = Double.parseDouble(properties.getProperty("theta." + index));
+		}
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Usage: WeightTuner [-advanced] [-adjudicate RULES] [-vcf] [iterations]
+	 * [gamesPerIteration] [port]
+	 *
+	 * Given a port, the games are played by the <code>SelfPlayWorker</code>s
+	 * connecting to it. The rules of -adjudicate are those of
+	 * <code>Adjudication.parse</code>. -vcf lets both sides look for a VCF
+	 * first.
+	 */
+	public static void main(String[] args) throws Exception {
+		boolean usingAdvancedRules = false;
+		Adjudication adjudication = Adjudication.OFF;
+		boolean usingVcf = false;
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-advanced")) {
+				usingAdvancedRules = true;
+			} else if (args[i].equals("-adjudicate")) {
+				adjudication = Adjudication.parse(args[++i]);
+			} else if (args[i].equals("-vcf")) {
+				usingVcf = true;
+			} else if (!args[i].startsWith("-") && values.size() < 3) {
+				values.add(args[i]);
+			} else {
+				throw new IllegalArgumentException("Unknown option - " + args[i]);
+			}
+		}
+		int iterations = values.size() > 0 ? Integer.parseInt(values.get(0)) : 1000;
+		int gamesPerIteration = values.size() > 1 ? Integer.parseInt(values.get(1)) : 64;
+
+		SelfPlayCoordinator coordinator = values.size() > 2
+				? new SelfPlayCoordinator(Integer.parseInt(values.get(2)), 60000) : null;
+		WeightTuner tuner = coordinator != null
+				? new WeightTuner(RatingWeights.loadOrDefault(), gamesPerIteration, coordinator, System.nanoTime())
+				: new WeightTuner(RatingWeights.loadOrDefault(), gamesPerIteration,
+						Runtime.getRuntime().availableProcessors(), System.nanoTime());
+		tuner.setUsingAdvancedRules(usingAdvancedRules);
+		tuner.setAdjudication(adjudication);
+		tuner.setUsingVcf(usingVcf);
+		File checkpoint = new File(CHECKPOINT_FILE);
+		if (checkpoint.isFile()) {
+			tuner.loadCheckpoint(checkpoint);
+			System.out.println("Resumed from iteration " + tuner.getIteration());
+		}
+		try {
+			while (tuner.getIteration() < iterations) {
+				long start = System.currentTimeMillis();
+				double score = tuner.step();
+				RatingWeights weights = tuner.getWeights();
+				weights.save(new File(RatingWeights.WEIGHTS_FILE), "Tuned by WeightTuner, iteration " + tuner.getIteration());
+				tuner.saveCheckpoint(checkpoint);
+				System.out.printf("Iteration %d: score %+.3f, %d ms, weights %s%n", tuner.getIteration(), score,
+						System.currentTimeMillis() - start, weights);
+			}
+		} finally {
+			tuner.shutdown();
+			if (coordinator != null) {
+				coordinator.close();
+			}
+		}
+	}
+}
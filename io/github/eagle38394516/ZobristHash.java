@@ -0,0 +1,154 @@
+package io.github.eagle38394516;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * An incrementally updated Zobrist hash of a position which also keeps the
+ * hashes of the seven symmetric images of the position. The smallest of the
+ * eight is the canonical key, which is the same for all the positions of one
+ * symmetry class, so tables keyed by it store each class only once.
+ *
+ * Placing or removing a piece costs eight table lookups.
+ *
+ * @see Symmetry
+ */
+public final class ZobristHash {
+
+	/**
+	 * The color index of the black pieces.
+	 */
+	public static final int BLACK = 0;
+
+	/**
+	 * The color index of the white pieces.
+	 */
+	public static final int WHITE = 1;
+
+	/**
+	 * The random keys of every color and position. The seed is fixed so the
+	 * keys are stable between runs and can be stored in files.
+	 */
+	private static final long[][] KEYS = new long[2][Cells.COUNT];
+
+	/**
+	 * KEYS_BY_SYMMETRY[s][color][index] is the key of the image of the
+	 * position under the symmetry s.
+	 */
+	private static final long[][][] KEYS_BY_SYMMETRY = new long[Symmetry.COUNT][2][Cells.COUNT];
+
+	static {
+		Random r = new Random(0x5EED_601DL);
+		for (int color = 0; color < 2; color++) {
+			for (int index = 0; index < Cells.COUNT; index++) {
+				KEYS[color][index] = r.nextLong();
+			}
+		}
+		for (int s = 0; s < Symmetry.COUNT; s++) {
+			for (int color = 0; color < 2; color++) {
+				for (int index = 0; index < Cells.COUNT; index++) {
+					KEYS_BY_SYMMETRY[s][color][index] = KEYS[color][Symmetry.transform(s, index)];
+				}
+			}
+		}
+	}
+
+	/**
+	 * hashes[s] is the hash of the image of the position under the symmetry s.
+	 */
+	private final long[] hashes = new long[Symmetry.COUNT];
+
+	/**
+	 * Create the hash of the empty board.
+	 */
+	public ZobristHash() {
+	}
+
+	/**
+	 * Create the hash of a position.
+	 */
+	public ZobristHash(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos) {
+		for (int i = 0; i < blackPos.size(); i++) {
+			toggle(BLACK, blackPos.get(i).getIndex());
+		}
+		for (int i = 0; i < whitePos.size(); i++) {
+			toggle(WHITE, whitePos.get(i).getIndex());
+		}
+	}
+
+	/**
+	 * Create a copy of another hash.
+	 */
+	public ZobristHash(ZobristHash another) {
+		System.arraycopy(another.hashes, 0, hashes, 0, Symmetry.COUNT);
+	}
+
+	/**
+	 * Place or remove a piece. Toggling the same piece twice restores the
+	 * hash.
+	 */
+	public void toggle(int color, int index) {
+		for (int s = 0; s < Symmetry.COUNT; s++) {
+			hashes[s] ^= KEYS_BY_SYMMETRY[s][color][index];
+		}
+	}
+
+	/**
+	 * Place or remove a piece.
+	 */
+	public void toggle(int color, PiecePosition pos) {
+		toggle(color, pos.getIndex());
+	}
+
+	/**
+	 * Reset to the hash of the empty board.
+	 */
+	public void clear() {
+		for (int s = 0; s < Symmetry.COUNT; s++) {
+			hashes[s] = 0;
+		}
+	}
+
+	/**
+	 * Return the plain hash of the position.
+	 */
+	public long getKey() {
+		return hashes[Symmetry.IDENTITY];
+	}
+
+	/**
+	 * Return the hash of the image of the position under the symmetry.
+	 */
+	public long getKey(int symmetry) {
+		return hashes[symmetry];
+	}
+
+	/**
+	 * Return the key shared by all the positions of the symmetry class.
+	 */
+	public long getCanonicalKey() {
+		return hashes[getCanonicalSymmetry()];
+	}
+
+	/**
+	 * Return the symmetry transforming the position to its canonical image.
+	 * A move of the canonical image is mapped back by
+	 * <code>Symmetry.inverse</code>.
+	 */
+	public int getCanonicalSymmetry() {
+		int best = Symmetry.IDENTITY;
+		for (int s = 1; s < Symmetry.COUNT; s++) {
+			if (Long.compareUnsigned(hashes[s], hashes[best]) < 0) {
+				best = s;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Calculate the canonical key of a position without keeping the hash.
+	 */
+	public static long canonicalKey(ArrayList<PiecePosition> blackPos, ArrayList<PiecePosition> whitePos) {
+		return new ZobristHash(blackPos, whitePos).getCanonicalKey();
+	}
+}